@@ -0,0 +1,59 @@
+package interfuze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for the benchmarks.
+ */
+final class BenchmarkData {
+
+    /**
+     * Time between the observations of a device (milliseconds)
+     */
+    static final long INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Constructor (not used)
+     */
+    private BenchmarkData() {
+    }
+
+    /**
+     * Deletes a directory and the files in it
+     *
+     * @param directory The directory
+     * @throws IOException If there is an error deleting a file
+     */
+    static void delete(Path directory) throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Creates a print stream that discards its output (used to keep the report off the console)
+     *
+     * @return The print stream
+     */
+    static PrintStream nullPrintStream() {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+}
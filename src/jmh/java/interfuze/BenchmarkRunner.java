@@ -0,0 +1,27 @@
+package interfuze;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so allocation rates are reported alongside the scores.
+ *
+ * Accepts the usual JMH command line options (e.g. a benchmark regex, -f, -wi, -i, -p).
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Main method
+     *
+     * @param args The JMH command line options
+     * @throws Exception If there is an error running the benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package interfuze;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the lookback window queries of a device at several history sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceQueryBenchmark {
+
+    /**
+     * The number of observations of the device
+     */
+    @Param({ "100", "10000", "1000000" })
+    public int numObservations;
+
+    /**
+     * True to query through the incremental window aggregator
+     */
+    @Param({ "false", "true" })
+    public boolean windowAggregator;
+
+    /**
+     * The device
+     */
+    private Device device;
+
+    /**
+     * Start of the lookback window
+     */
+    private long lookbackWindow;
+
+    /**
+     * Adds the observations to the device
+     */
+    @Setup
+    public void setup() {
+        device = new Device(1, "Gauge 1", "Location 1");
+        if (windowAggregator) { device.enableWindowAggregator(); }
+        Random random = new Random(42);
+        long time = DatasetGenerator.START_TIME;
+        for (int i = 0; i < numObservations; i++) {
+            time += BenchmarkData.INTERVAL;
+            device.addObservation(time, random.nextInt(40));
+        }
+        lookbackWindow = time - App.LOOKBACK_WINDOW;
+    }
+
+    /**
+     * Gets the average rainfall in the lookback window
+     *
+     * @return The average rainfall
+     */
+    @Benchmark
+    public double getAverageRainfallSince() {
+        return device.getAverageRainfallSince(lookbackWindow);
+    }
+
+    /**
+     * Gets the change in rainfall in the lookback window
+     *
+     * @return The change in rainfall
+     */
+    @Benchmark
+    public double getChangeInRainfallSince() {
+        return device.getChangeInRainfallSince(lookbackWindow);
+    }
+
+    /**
+     * Checks if the threshold was exceeded in the lookback window
+     *
+     * @return True if the threshold was exceeded
+     */
+    @Benchmark
+    public boolean isObservationsExceedingThresholdSince() {
+        return device.isObservationsExceedingThresholdSince(App.THRESHOLD, lookbackWindow);
+    }
+
+    /**
+     * Summarises the lookback window (all three queries in one pass)
+     *
+     * @return The summary of the window
+     */
+    @Benchmark
+    public WindowSummary getWindowSummarySince() {
+        return device.getWindowSummarySince(lookbackWindow, App.THRESHOLD);
+    }
+}
@@ -0,0 +1,130 @@
+package interfuze;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks parsing an observations CSV into a batch of observations.
+ *
+ * Besides the files parsed per second, the rows and bytes parsed are reported as rates (rows/s and bytes/s).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObservationsParserBenchmark {
+
+    /**
+     * The parser to use
+     */
+    @Param({ "mapped", "commons" })
+    public String parser;
+
+    /**
+     * The number of rows in the file
+     */
+    @Param({ "100000", "1000000" })
+    public int numRows;
+
+    /**
+     * Directory of the generated file
+     */
+    private Path directory;
+
+    /**
+     * The generated observations CSV
+     */
+    private String filePath;
+
+    /**
+     * Size of the generated file in bytes
+     */
+    private long fileSize;
+
+    /**
+     * Rows and bytes parsed, reported by JMH as rates
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+
+        /**
+         * Number of rows parsed
+         */
+        public long rows;
+
+        /**
+         * Number of bytes parsed
+         */
+        public long bytes;
+
+        /**
+         * Resets the counters for each iteration
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Generates the observations CSV
+     *
+     * @throws IOException If there is an error writing the file
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("interfuze-bench");
+        new DatasetGenerator(100, (numRows / 100) * BenchmarkData.INTERVAL, BenchmarkData.INTERVAL, 1, 0, 0, 42).generate(directory);
+        Path file = directory.resolve("Data1.csv");
+        filePath = file.toString();
+        fileSize = Files.size(file);
+        App.MAPPED_PARSER = parser.equals("mapped");
+    }
+
+    /**
+     * Deletes the observations CSV
+     *
+     * @throws IOException If there is an error deleting the file
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        App.MAPPED_PARSER = true;
+        BenchmarkData.delete(directory);
+    }
+
+    /**
+     * Parses the observations CSV
+     *
+     * @param throughput The rows and bytes counters
+     * @throws IOException If there is an error reading the file
+     * @return The batch of observations
+     */
+    @Benchmark
+    public ObservationBatch readObservationsCSV(Throughput throughput) throws IOException {
+        ObservationBatch batch = App.readObservationsCSV(filePath);
+        throughput.rows += batch.getNumRecords();
+        throughput.bytes += fileSize;
+        return batch;
+    }
+}
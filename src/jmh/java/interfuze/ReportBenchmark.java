@@ -0,0 +1,103 @@
+package interfuze;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks generating the report end to end: parsing the devices and observations CSVs and printing
+ * the report (to a stream that discards it).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportBenchmark {
+
+    /**
+     * The number of devices
+     */
+    @Param({ "10", "1000" })
+    public int numDevices;
+
+    /**
+     * The number of observations in each observations CSV
+     */
+    @Param({ "100000" })
+    public int numRows;
+
+    /**
+     * The number of worker threads used to parse the observations CSVs
+     */
+    @Param({ "1", "4" })
+    public int threads;
+
+    /**
+     * Directory of the generated CSVs
+     */
+    private Path directory;
+
+    /**
+     * The standard output (restored after the benchmark)
+     */
+    private PrintStream out;
+
+    /**
+     * Generates the CSVs
+     *
+     * @throws IOException If there is an error writing the files
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("interfuze-bench");
+        new DatasetGenerator(numDevices, (4L * numRows / numDevices) * BenchmarkData.INTERVAL, BenchmarkData.INTERVAL, 4, 0, 0, 42).generate(directory);
+        App.THREADS = threads;
+        out = System.out;
+        System.setOut(BenchmarkData.nullPrintStream());
+    }
+
+    /**
+     * Deletes the CSVs
+     *
+     * @throws IOException If there is an error deleting the files
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        App.THREADS = 1;
+        BenchmarkData.delete(directory);
+    }
+
+    /**
+     * Parses the CSVs and prints the report
+     *
+     * @throws IOException If there is an error reading the files
+     * @return The devices
+     */
+    @Benchmark
+    public DeviceRegistry report() throws IOException {
+        DeviceRegistry devices = new DeviceRegistry();
+        App.parseDevicesCSV(devices, directory.resolve(App.DEVICE_CSV_FILE_NAME).toString());
+        long currentTime = App.parseObservationsCSVs(devices, directory.toString());
+        App.printReport(devices, currentTime);
+        return devices;
+    }
+}
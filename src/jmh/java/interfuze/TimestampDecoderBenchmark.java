@@ -0,0 +1,86 @@
+package interfuze;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks decoding observation times with the TimestampDecoder and with SimpleDateFormat.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampDecoderBenchmark {
+
+    /**
+     * Number of distinct times (a power of two)
+     */
+    private static final int NUM_TIMES = 1024;
+
+    /**
+     * The times to decode (spread over a few weeks, as in an observations CSV)
+     */
+    private final String[] times = new String[NUM_TIMES];
+
+    /**
+     * Index of the next time to decode
+     */
+    private int index = 0;
+
+    /**
+     * The decoder
+     */
+    private final TimestampDecoder decoder = new TimestampDecoder();
+
+    /**
+     * SimpleDateFormat baseline
+     */
+    private final SimpleDateFormat format = new SimpleDateFormat(TimestampDecoder.PATTERN);
+
+    /**
+     * Generates the times
+     */
+    @Setup
+    public void setup() {
+        SimpleDateFormat writer = new SimpleDateFormat("d/MM/yyyy H:mm");
+        for (int i = 0; i < NUM_TIMES; i++) {
+            times[i] = writer.format(DatasetGenerator.START_TIME + i * TimeUnit.MINUTES.toMillis(37));
+        }
+    }
+
+    /**
+     * Decodes a time with the TimestampDecoder
+     *
+     * @throws ParseException If the time cannot be parsed
+     * @return The time in epoch milliseconds
+     */
+    @Benchmark
+    public long decoder() throws ParseException {
+        return decoder.decode(times[index++ & (NUM_TIMES - 1)]);
+    }
+
+    /**
+     * Decodes a time with SimpleDateFormat
+     *
+     * @throws ParseException If the time cannot be parsed
+     * @return The time in epoch milliseconds
+     */
+    @Benchmark
+    public long simpleDateFormat() throws ParseException {
+        return format.parse(times[index++ & (NUM_TIMES - 1)]).getTime();
+    }
+}
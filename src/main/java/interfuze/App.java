@@ -1,18 +1,34 @@
 package interfuze;
 
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DecimalFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -30,6 +46,27 @@ public class App {
      */
     public static int THRESHOLD = 30;
 
+    /**
+     * Default lookback window used for the report (milliseconds)
+     */
+    public static final long LOOKBACK_WINDOW = TimeUnit.HOURS.toMillis(4);
+
+    /**
+     * Lookback windows used for the report, in increasing order (milliseconds)
+     */
+    public static long[] WINDOWS = { LOOKBACK_WINDOW };
+
+    /**
+     * Rainfall thresholds checked in each lookback window, in increasing order (the lowest is THRESHOLD)
+     */
+    public static int[] THRESHOLDS = { THRESHOLD };
+
+    /**
+     * Rainfall percentiles reported for each location from the devices' quantile sketches, in increasing
+     * order (null if not enabled)
+     */
+    public static double[] PERCENTILES = null;
+
     /**
      * Default data file path
      */
@@ -40,6 +77,21 @@ public class App {
      */
     public static String DEVICE_CSV_FILE_NAME = "Devices.csv";
 
+    /**
+     * Decoder for observation times (thread-safe, shared by all parsers)
+     */
+    static final TimestampDecoder TIMESTAMP_DECODER = new TimestampDecoder();
+
+    /**
+     * Size of the report output buffer
+     */
+    private static final int REPORT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Size of the buffer of the decompressor of compressed observations CSVs
+     */
+    private static final int DECOMPRESSION_BUFFER_SIZE = 1 << 16;
+
     // ---- CLI Options ---- //
 
     /**
@@ -47,6 +99,99 @@ public class App {
      */
     public static boolean VERBOSE = false;
 
+    /**
+     * Number of worker threads used to parse observations CSVs (1 = sequential)
+     */
+    public static int THREADS = 1;
+
+    /**
+     * Minimum size of the ranges a large observations CSV is split into when parsed by multiple worker
+     * threads (bytes)
+     */
+    public static long CHUNK_SIZE = 64L << 20;
+
+    /**
+     * Pipeline flag (observations CSVs are read, parsed and added to the devices by separate stages)
+     */
+    public static boolean PIPELINE = false;
+
+    /**
+     * Run the pipeline's reader on a virtual thread (Java 21+)
+     */
+    public static boolean VIRTUAL_THREADS = false;
+
+    /**
+     * Memory mapped observations parser flag (Commons CSV is used when disabled or the file is not supported)
+     */
+    public static boolean MAPPED_PARSER = true;
+
+    /**
+     * Streaming mode flag (only the observations within the lookback window are kept)
+     */
+    public static boolean STREAMING = false;
+
+    /**
+     * Rollups flag (each device keeps 5 minute, hourly and daily buckets of its observations)
+     */
+    public static boolean ROLLUPS = false;
+
+    /**
+     * Raw observations older than this (before the current time) are discarded, keeping only the rollups
+     * (milliseconds, 0 keeps all raw observations)
+     */
+    public static long RAW_RETENTION = 0;
+
+    /**
+     * Capacity of the off-heap observation store (bytes, 0 keeps the observations on the heap)
+     */
+    public static long OFF_HEAP_CAPACITY = 0;
+
+    /**
+     * Watch mode flag (the report is refreshed as observations are added)
+     */
+    public static boolean WATCH = false;
+
+    /**
+     * Maximum number of report refreshes per second in watch mode
+     */
+    public static int REFRESH_RATE = 2;
+
+    /**
+     * Snapshot file used to cache parsed observations CSVs (null if not enabled)
+     */
+    public static String SNAPSHOT_FILE_PATH = null;
+
+    /**
+     * Manifest file recording the time range of each observations CSV, used to skip files entirely before
+     * the lookback windows (null if not enabled)
+     */
+    public static String MANIFEST_FILE_PATH = null;
+
+    /**
+     * Port of the HTTP query server (0 if not serving)
+     */
+    public static int SERVE_PORT = 0;
+
+    /**
+     * Bench mode (reports the wall time, throughput and peak heap of each phase instead of the report)
+     */
+    public static boolean BENCH = false;
+
+    /**
+     * File to write the runtime metrics to as JSON at exit (null if not enabled)
+     */
+    public static String METRICS_FILE_PATH = null;
+
+    /**
+     * Report format (table, csv or jsonl)
+     */
+    public static String REPORT_FORMAT = "table";
+
+    /**
+     * File to write the report to (null for the standard output)
+     */
+    public static String REPORT_FILE_PATH = null;
+
     // ---- ANSI Colours ---- //
 
     /**
@@ -72,13 +217,15 @@ public class App {
     // ---- Methods ---- //
 
     /**
-     * Parses the devices CSV file and stores the devices in a map.
+     * Parses the devices CSV file and stores the devices in the registry.
      * 
-     * @param devices The map of devices
+     * @param devices The registry of devices
      * @param filePath The file path of the devices CSV
      * @throws IOException If there is an error reading the file
      */
-    private static void parseDevicesCSV(Map<Integer, Device> devices, String filePath) throws IOException {
+    static void parseDevicesCSV(DeviceRegistry devices, String filePath) throws IOException {
+        long start = Metrics.startTimer();
+
         // Get file reader and parse the CSV
         Reader reader = Files.newBufferedReader(Paths.get(filePath));
         CSVParser csvParser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader);
@@ -106,149 +253,600 @@ public class App {
                 continue;
             }
 
-            // Add the device to the map
-            Device device = new Device(deviceID, deviceName, location);
-            devices.put(deviceID, device);
+            // Add the device to the registry
+            Device device = devices.add(deviceID, deviceName, location);
 
             // Verbose output
             if (VERBOSE) { System.out.println(device.toString()); }
         }
 
+        // Metrics
+        if (Metrics.isEnabled()) { Metrics.recordFile(Paths.get(filePath).getFileName().toString(), numRecords, numErrors, Files.size(Paths.get(filePath)), System.nanoTime() - start); }
+
         // Verbose output
-        if (VERBOSE) { System.out.println("\nStatistics:\n - " + (numRecords - numErrors) + " out of " + numRecords + " rows processed successfully"); }
+        printStatistics(numRecords, numErrors);
     }
 
     /**
-     * Parses the observations CSV file and stores the observations in the devices.
+     * Records the memory footprint of the device registry in the metrics (and prints it in verbose mode).
+     * This is recorded once the observations are loaded, so it includes the window aggregators, rollups
+     * and quantile sketches of the devices.
+     *
+     * @param devices The registry of devices
+     */
+    static void recordRegistryFootprint(DeviceRegistry devices) {
+        Metrics.increment("registry.devices", devices.size());
+        Metrics.increment("registry.names", devices.getNames().size());
+        Metrics.increment("registry.locations", devices.getLocations().size());
+        Metrics.increment("registry.bytes", devices.estimateMemoryBytes());
+        if (VERBOSE) { System.out.println(" - " + describeRegistryFootprint(devices)); }
+    }
+
+    /**
+     * Describes the memory footprint of the device registry
+     *
+     * @param devices The registry of devices
+     * @return The description
+     */
+    private static String describeRegistryFootprint(DeviceRegistry devices) {
+        return String.format("Device registry: %d devices, %d names, %d locations, %.1f KB (excluding raw observations)",
+                devices.size(), devices.getNames().size(), devices.getLocations().size(), devices.estimateMemoryBytes() / 1024.0);
+    }
+
+    /**
+     * Parses the observations CSV file into a batch of observations, using the memory mapped parser when
+     * it is enabled and supports the file.
      *
-     * @param devices The map of devices
      * @param filePath The file path of the observations CSV
      * @throws IOException If there is an error reading the file
-     * @return The current time (the time of the last observation parsed)
+     * @return The batch of observations parsed from the file
      */
-    private static long parseObservationsCSV(Map<Integer, Device> devices, String filePath) throws IOException {
-        // Get file reader and parse the CSV
-        Reader reader = Files.newBufferedReader(Paths.get(filePath));
-        CSVParser csvParser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader);
+    static ObservationBatch readObservationsCSV(String filePath) throws IOException {
+        // Parse a compressed file as it is decompressed
+        if (isCompressed(filePath)) { return readCompressedObservationsCSV(filePath); }
 
-        // Parser for date time
-        SimpleDateFormat dateFormat = new SimpleDateFormat("d/MM/yyyy h:mm");
+        // Parse the file with the memory mapped parser
+        if (MAPPED_PARSER) {
+            ObservationBatch batch = MappedObservationParser.read(Paths.get(filePath));
+            if (batch != null) { return batch; }
 
-        // Current time
-        long currentTime = Long.MIN_VALUE;
-
-        // Performance statistics
-        int numErrors = 0;
-        int numRecords = 0;
+            // Verbose output
+            if (VERBOSE) { System.out.println("Falling back to Commons CSV for " + filePath); }
+        }
 
-        // Iterate through the records and store the observations
-        for (CSVRecord record : csvParser) {
-            // Increment the number of records
-            numRecords++;
+        // Parse the file with Commons CSV
+        return readObservationsCSVWithCommons(filePath);
+    }
 
-            // Parse the record
-            int deviceID;
-            long observationTime;
-            int rainfall;
-            try {
-                deviceID = Integer.parseInt(record.get("Device ID"));
-                observationTime = dateFormat.parse(record.get("Time")).getTime();  // Time is stored in epoch milliseconds as it is easier to work with
-                rainfall = Integer.parseInt(record.get("Rainfall"));
-            } catch (NumberFormatException e) {
-                System.out.println(ANSI_RED + "Error" + ANSI_RESET + " parsing observation - Device ID = " + (record.get("Device ID").equals("") ? "N/A" : record.get("Device ID")) + " - Skipping record");
-                numErrors++;
-                continue;
-            } catch (ParseException e) {
-                System.out.println(ANSI_RED + "Error" + ANSI_RESET + " parsing observation time - Observation Time = " + (record.get("Time").equals("") ? "N/A" : record.get("Time")) + " - Skipping record");
-                numErrors++;
-                continue;
+    /**
+     * Parses a compressed observations CSV file into a batch of observations, decompressing it as a stream
+     * into the parser (without writing the decompressed file). The stream parser shares the row parsing of
+     * the memory mapped parser; if it does not support the file, the file is decompressed again into
+     * Commons CSV.
+     *
+     * @param filePath The file path of the compressed observations CSV
+     * @throws IOException If there is an error reading or decompressing the file
+     * @return The batch of observations parsed from the file
+     */
+    static ObservationBatch readCompressedObservationsCSV(String filePath) throws IOException {
+        // Parse the decompressed stream with the stream parser
+        if (MAPPED_PARSER) {
+            try (InputStream in = openDecompressed(Paths.get(filePath))) {
+                ObservationBatch batch = MappedObservationParser.read(in);
+                if (batch != null) { return batch; }
             }
 
-            // Add the observation to the device
-            Observation observation = new Observation(deviceID, observationTime, rainfall);
-            devices.get(deviceID).addObservation(observation);
+            // Verbose output
+            if (VERBOSE) { System.out.println("Falling back to Commons CSV for " + filePath); }
+        }
 
-            // Update the current time
-            if (observationTime > currentTime) { currentTime = observationTime; }
+        // Parse the decompressed stream with Commons CSV
+        try (Reader reader = new InputStreamReader(openDecompressed(Paths.get(filePath)), StandardCharsets.UTF_8)) {
+            return readObservationsCSVWithCommons(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader());
+        }
+    }
 
-            // Verbose output
-            if (VERBOSE) { System.out.println(observation.toString()); }
+    /**
+     * Opens a compressed file as a stream of its decompressed bytes
+     *
+     * @param path The path of the compressed file
+     * @throws IOException If there is an error opening the file or it is not in the expected format
+     * @return The decompressed stream
+     */
+    static InputStream openDecompressed(Path path) throws IOException {
+        return new GZIPInputStream(Files.newInputStream(path), DECOMPRESSION_BUFFER_SIZE);
+    }
+
+    /**
+     * Checks if a file is compressed (by its name)
+     *
+     * @param name The file name or path
+     * @return True if the file is a gzip compressed file
+     */
+    static boolean isCompressed(String name) {
+        return name.endsWith(".gz");
+    }
+
+    /**
+     * Checks if a file is an observations CSV, either plain (.csv) or compressed (.csv.gz), by its name
+     *
+     * @param name The file name
+     * @return True if the file is an observations CSV
+     */
+    static boolean isObservationsFile(String name) {
+        return (name.endsWith(".csv") || name.endsWith(".csv.gz")) && !name.equals(DEVICE_CSV_FILE_NAME);
+    }
+
+    /**
+     * Parses the observations CSV file into a batch of observations using Commons CSV.
+     *
+     * @param filePath The file path of the observations CSV
+     * @throws IOException If there is an error reading the file
+     * @return The batch of observations parsed from the file
+     */
+    static ObservationBatch readObservationsCSVWithCommons(String filePath) throws IOException {
+        // Get file reader and parse the CSV
+        try (Reader reader = Files.newBufferedReader(Paths.get(filePath))) {
+            return readObservationsCSVWithCommons(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader());
         }
+    }
 
-        // Verbose output
-        if (VERBOSE) { System.out.println("\nStatistics:\n - " + (numRecords - numErrors) + " out of " + numRecords + " rows processed successfully"); }
+    /**
+     * Parses the rows of an observations CSV file from a position onwards using Commons CSV.
+     *
+     * @param file The observations CSV (plain or compressed)
+     * @param offset The position of the start of a row in the (decompressed) file, or 0 for the header
+     * @throws IOException If there is an error reading the file
+     * @return The batch of observations parsed from the rows
+     */
+    static ObservationBatch readObservationsCSVWithCommons(File file, long offset) throws IOException {
+        try (InputStream in = isCompressed(file.getName()) ? openDecompressed(file.toPath()) : Files.newInputStream(file.toPath())) {
+            // Skip to the start of the row
+            for (long skipped = 0; skipped < offset; ) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    if (in.read() < 0) { throw new EOFException("Observations CSV " + file.getName() + " ended before position " + offset); }
+                    n = 1;
+                }
+                skipped += n;
+            }
 
-        return currentTime;
+            // Parse the rows (the header has already been checked when starting after it)
+            CSVFormat format = offset == 0 ? CSVFormat.DEFAULT.withFirstRecordAsHeader() : CSVFormat.DEFAULT.withHeader("Device ID", "Time", "Rainfall");
+            return readObservationsCSVWithCommons(new InputStreamReader(in, StandardCharsets.UTF_8), format);
+        }
+    }
+
+    /**
+     * Parses observations CSV rows into a batch of observations using Commons CSV.
+     *
+     * @param reader The reader of the CSV rows
+     * @param format The CSV format (which must provide the header)
+     * @throws IOException If there is an error reading the rows
+     * @return The batch of observations parsed from the rows
+     */
+    static ObservationBatch readObservationsCSVWithCommons(Reader reader, CSVFormat format) throws IOException {
+        // Batch of observations
+        ObservationBatch batch = new ObservationBatch();
+
+        // Parse the CSV
+        try (CSVParser csvParser = format.parse(reader)) {
+
+            // Iterate through the records and store the observations
+            for (CSVRecord record : csvParser) {
+                // Parse the record
+                int deviceID;
+                long observationTime;
+                int rainfall;
+                try {
+                    deviceID = Integer.parseInt(record.get("Device ID"));
+                    observationTime = TIMESTAMP_DECODER.decode(record.get("Time"));  // Time is stored in epoch milliseconds as it is easier to work with
+                    rainfall = Integer.parseInt(record.get("Rainfall"));
+                } catch (NumberFormatException e) {
+                    System.out.println(ANSI_RED + "Error" + ANSI_RESET + " parsing observation - Device ID = " + (record.get("Device ID").equals("") ? "N/A" : record.get("Device ID")) + " - Skipping record");
+                    batch.addError();
+                    continue;
+                } catch (ParseException e) {
+                    System.out.println(ANSI_RED + "Error" + ANSI_RESET + " parsing observation time - Observation Time = " + (record.get("Time").equals("") ? "N/A" : record.get("Time")) + " - Skipping record");
+                    batch.addError();
+                    continue;
+                }
+
+                // Add the observation to the batch
+                batch.add(deviceID, observationTime, rainfall);
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Parses the observations CSV file and stores the observations in the devices.
+     *
+     * @param devices The registry of devices
+     * @param filePath The file path of the observations CSV
+     * @throws IOException If there is an error reading the file
+     * @return The current time (the time of the last observation parsed)
+     */
+    static long parseObservationsCSV(DeviceRegistry devices, String filePath) throws IOException {
+        return readObservationsCSV(filePath).applyTo(devices);
     }
 
     /**
      * Parses multiple observations CSV files and stores the observations in the devices.
      *
-     * @param devices The map of devices
+     * When more than one worker thread is configured the files are parsed concurrently (with files of at
+     * least twice the chunk size split into ranges that are also parsed concurrently), however the
+     * observations are still added to the devices on the calling thread and in directory order, so the
+     * result is the same as a sequential parse. In pipeline mode the files are read, parsed and added to
+     * the devices by separate stages instead (see ObservationPipeline).
+     *
+     * When a manifest is enabled, unchanged files whose observations are all at or before the start of the
+     * largest lookback window (measured from the latest observation in the manifest) are skipped without
+     * being opened. Files that are new or have changed are always parsed, and their time ranges recorded.
+     *
+     * @param devices The registry of devices
      * @param  dirPath The directory path of the observations CSVs
      * @throws IOException If there is an error reading the file
      * @return The current time (the time of the last observation parsed)
      */
-    public static long parseObservationsCSVs(Map<Integer, Device> devices, String dirPath) throws IOException {
+    public static long parseObservationsCSVs(DeviceRegistry devices, String dirPath) throws IOException {
         // Current time
         long currentTime = Long.MIN_VALUE;
         
         // Get directory
-        File dir = new File(OBSERVATIONS_FILE_PATH);
+        File dir = new File(dirPath);
+
+        // Get all observations CSV files in the directory, plain or compressed (skipping the devices CSV file)
+        File[] files = dir.listFiles((d, name) -> isObservationsFile(name));
+        if (files == null) { throw new IOException("Unable to list observations directory " + dirPath); }
+
+        // Skip the files before the lookback windows (the current time is at least their latest observation),
+        // unless percentiles are reported over all of the observations
+        File[] listed = files;
+        ObservationManifest manifest = MANIFEST_FILE_PATH == null ? null : ObservationManifest.open(Paths.get(MANIFEST_FILE_PATH));
+        if (manifest != null) {
+            if (PERCENTILES == null) { files = manifest.prune(listed, WINDOWS[WINDOWS.length - 1]); }
+            currentTime = manifest.getLatestTime(listed);
+        }
 
-        // Get all CSV files in the directory
-        File[] files = dir.listFiles((d, name) -> name.endsWith(".csv"));
+        // Open the snapshot of previously parsed files
+        ObservationSnapshot snapshot = SNAPSHOT_FILE_PATH == null ? null : ObservationSnapshot.open(Paths.get(SNAPSHOT_FILE_PATH));
+        ExecutorService executor = null;
+        try {
+            // Parse the files through the pipeline
+            if (PIPELINE) {
+                currentTime = Math.max(currentTime, new ObservationPipeline(devices, files, snapshot, manifest, THREADS, VIRTUAL_THREADS).run());
+            } else if (THREADS <= 1) {
+                // Parse the files sequentially
+                for (File file : files) {
+                    // Verbose output
+                    if (VERBOSE) { System.out.println("\n Loading Observations CSV: " + file.getName() + "\n");}
+
+                    // Parse the observations CSV and add its observations
+                    ObservationBatch batch = loadObservationsFile(file, snapshot);
+                    currentTime = applyBatch(devices, batch, currentTime);
+                    printStatistics(batch.getNumRecords(), batch.getNumErrors());
+                    if (snapshot != null) { snapshot.record(file, batch); }
+                    if (manifest != null) { manifest.record(file, batch); }
+                }
+            } else {
+                // Parse the files concurrently
+                int[] numChunks = new int[files.length];
+                int numTasks = 0;
+                for (int i = 0; i < files.length; i++) {
+                    numChunks[i] = numChunks(files[i]);
+                    numTasks += numChunks[i];
+                }
+                executor = Executors.newFixedThreadPool(Math.min(THREADS, Math.max(numTasks, 1)));
+
+                // Submit a parsing task for each file (or each range of a large file that is not in the snapshot)
+                List<Future<ObservationBatch>> batches = new ArrayList<>(files.length);
+                for (int i = 0; i < files.length; i++) {
+                    File file = files[i];
+                    ObservationBatch cached = numChunks[i] > 1 ? loadFromSnapshot(file, snapshot) : null;
+                    if (cached != null) {
+                        batches.add(CompletableFuture.completedFuture(cached));
+                    } else if (numChunks[i] > 1) {
+                        batches.add(ChunkedObservationReader.submit(file, numChunks[i], executor));
+                    } else {
+                        batches.add(executor.submit(() -> Metrics.trackAllocations(() -> loadObservationsFile(file, snapshot))));
+                    }
+                }
+
+                // Add the batches to the devices in directory order
+                for (int i = 0; i < files.length; i++) {
+                    // Verbose output
+                    if (VERBOSE) { System.out.println("\n Loading Observations CSV: " + files[i].getName() + "\n");}
+
+                    // Wait for the file to be parsed and add its observations
+                    ObservationBatch batch = awaitBatch(batches.get(i));
+                    currentTime = applyBatch(devices, batch, currentTime);
+                    printStatistics(batch.getNumRecords(), batch.getNumErrors());
+                    if (snapshot != null) { snapshot.record(files[i], batch); }
+                    if (manifest != null) { manifest.record(files[i], batch); }
+                }
+            }
 
-        // Iterate through the files
-        for (File file : files) {
-            // Skip the devices CSV file
-            if (file.getName().equals(DEVICE_CSV_FILE_NAME)) { continue; }
+            // Keep the skipped files in the snapshot, and replace it
+            if (snapshot != null) {
+                List<File> parsed = Arrays.asList(files);
+                for (File file : listed) {
+                    if (!parsed.contains(file)) { snapshot.keep(file); }
+                }
+                snapshot.close();
+            }
 
-            // Verbose output
-            if (VERBOSE) { System.out.println("\n Loading Observations CSV: " + file.getName() + "\n");}
+            // Replace the manifest
+            if (manifest != null) { manifest.save(listed); }
+        } catch (IOException | RuntimeException e) {
+            if (snapshot != null) { snapshot.abort(); }
+            throw e;
+        } finally {
+            if (executor != null) { executor.shutdownNow(); }
+        }
 
-            // Parse the observations CSV
-            long fileTime = parseObservationsCSV(devices, file.getPath());
+        return finishStreaming(devices, currentTime);
+    }
+
+    /**
+     * Loads the observations of a file, from the snapshot if the file is unchanged since it was recorded,
+     * otherwise by parsing the file.
+     *
+     * @param file The observations CSV
+     * @param snapshot The snapshot of previously parsed files (null if not enabled)
+     * @throws IOException If there is an error reading the file or snapshot
+     * @return The batch of observations
+     */
+    private static ObservationBatch loadObservationsFile(File file, ObservationSnapshot snapshot) throws IOException {
+        // Load the file from the snapshot
+        ObservationBatch cached = loadFromSnapshot(file, snapshot);
+        if (cached != null) { return cached; }
+
+        // Parse the file (recording its size and last modified time from before it was read)
+        long start = Metrics.startTimer();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        ObservationBatch batch = readObservationsCSV(file.getPath());
+        batch.setSourceStamp(size, lastModified);
+        Metrics.recordFile(file.getName(), batch.getNumRecords(), batch.getNumErrors(), size, Metrics.stopTimer("observations.parse", start));
+        return batch;
+    }
 
-            // Update the current time
-            if (fileTime > currentTime) { currentTime = fileTime; }
+    /**
+     * Loads the observations of a file from the snapshot, if the file is unchanged since it was recorded.
+     *
+     * @param file The observations CSV
+     * @param snapshot The snapshot of previously parsed files (null if not enabled)
+     * @throws IOException If there is an error reading the snapshot
+     * @return The batch of observations, or null if the file is not in the snapshot
+     */
+    static ObservationBatch loadFromSnapshot(File file, ObservationSnapshot snapshot) throws IOException {
+        if (snapshot == null) { return null; }
+        long start = Metrics.startTimer();
+        ObservationBatch batch = snapshot.load(file);
+        if (batch != null) {
+            if (VERBOSE) { System.out.println("Loaded " + file.getName() + " from snapshot"); }
+            Metrics.increment("snapshot.hits", 1);
+            Metrics.recordFile(file.getName(), batch.getNumRecords(), batch.getNumErrors(), 0, Metrics.stopTimer("snapshot.load", start));
         }
+        return batch;
+    }
+
+    /**
+     * Calculates the number of ranges an observations CSV is split into when parsed by multiple worker
+     * threads. Only plain files parsed by the memory mapped parser, of at least twice the chunk size, are
+     * split.
+     *
+     * @param file The observations CSV
+     * @return The number of ranges (1 if the file is not split)
+     */
+    private static int numChunks(File file) {
+        if (THREADS <= 1 || !MAPPED_PARSER || isCompressed(file.getName())) { return 1; }
+        return (int) Math.max(1, Math.min(file.length() / CHUNK_SIZE, THREADS * 4L));
+    }
+
+    /**
+     * Adds a batch of observations to the devices. In streaming mode observations that can no longer fall
+     * inside the lookback window (as the current time only moves forward) are discarded, as are raw
+     * observations older than the raw retention (which are still added to the rollups).
+     *
+     * @param devices The registry of devices
+     * @param batch The batch of observations
+     * @param currentTime The current time before the batch
+     * @return The current time after the batch
+     */
+    static long applyBatch(DeviceRegistry devices, ObservationBatch batch, long currentTime) {
+        // Update the current time
+        if (batch.getCurrentTime() > currentTime) { currentTime = batch.getCurrentTime(); }
+
+        // Add the observations
+        long start = Metrics.startTimer();
+        batch.applyTo(devices, retentionBound(currentTime));
+        Metrics.stopTimer("observations.apply", start);
+        Metrics.increment("observations.records", batch.getNumRecords());
+        return currentTime;
+    }
 
+    /**
+     * Prints the number of rows of a file that were processed successfully, in verbose mode. This is
+     * called on the thread adding the observations, once the file's observations have been added.
+     *
+     * @param numRecords The number of rows in the file
+     * @param numErrors The number of rows that could not be parsed
+     */
+    static void printStatistics(long numRecords, long numErrors) {
+        if (VERBOSE) { System.out.println("\nStatistics:\n - " + (numRecords - numErrors) + " out of " + numRecords + " rows processed successfully"); }
+    }
+
+    /**
+     * Discards the observations outside the final lookback window when in streaming mode.
+     *
+     * @param devices The registry of devices
+     * @param currentTime The current time
+     * @return The current time
+     */
+    private static long finishStreaming(DeviceRegistry devices, long currentTime) {
+        long retentionBound = retentionBound(currentTime);
+        if (retentionBound != Long.MIN_VALUE) {
+            for (Device device : devices.values()) {
+                device.setRetentionBound(retentionBound);
+                device.compact();
+            }
+        }
         return currentTime;
     }
 
     /**
-     * Formats the average rainfall with ANSI colours and a decimal format.
-     * 
-     * @param df The decimal format
-     * @param averageRainfall The average rainfall
-     * @return The formatted average rainfall
+     * Calculates the time at or before which observations can be discarded (the later of the streaming
+     * and raw retention bounds).
+     *
+     * @param currentTime The current time
+     * @return The retention bound, or Long.MIN_VALUE if all observations are kept
+     */
+    private static long retentionBound(long currentTime) {
+        if (currentTime == Long.MIN_VALUE) { return Long.MIN_VALUE; }
+        long bound = STREAMING ? currentTime - WINDOWS[WINDOWS.length - 1] : Long.MIN_VALUE;
+        if (RAW_RETENTION > 0) { bound = Math.max(bound, currentTime - RAW_RETENTION); }
+        return bound;
+    }
+
+    /**
+     * Waits for a batch being parsed on a worker thread, rethrowing any error from the worker.
+     *
+     * @param future The future of the batch
+     * @throws IOException If there was an error reading the file
+     * @return The parsed batch
+     */
+    private static ObservationBatch awaitBatch(Future<ObservationBatch> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing observations", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) { throw (IOException) cause; }
+            if (cause instanceof UncheckedIOException) { throw ((UncheckedIOException) cause).getCause(); }
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Prints the report of the average and change in rainfall in the lookback window for each device, in
+     * the configured format to the configured output.
+     *
+     * @param devices The registry of devices
+     * @param currentTime The current time
+     * @throws IOException If there is an error writing the report
      */
-    private static String formatAverageRainfall(DecimalFormat df, double averageRainfall, boolean exceedThreshold) {
-        // Check if the average rainfall has surpassed a threshold
-        if (exceedThreshold) {
-            return ANSI_RED + df.format(averageRainfall) + ANSI_RESET + " mm " + ANSI_RED + "!!!" + ANSI_RESET;
+    static void printReport(DeviceRegistry devices, long currentTime) throws IOException {
+        // Write the report to the standard output (which is flushed but not closed)
+        if (REPORT_FILE_PATH == null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), REPORT_BUFFER_SIZE);
+            writeReport(devices, currentTime, createRenderer(writer));
+            writePercentiles(devices, currentTime, writer);
+            writer.flush();
+            return;
         }
 
-        // Format the average rainfall with ANSI colours
-        if (averageRainfall < 10.0d) {
-            return ANSI_GREEN + df.format(averageRainfall) + ANSI_RESET + " mm";
-        } else if (averageRainfall < 15.0d) {
-            return ANSI_YELLOW + df.format(averageRainfall) + ANSI_RESET + " mm";
-        } else {
-            return ANSI_RED + df.format(averageRainfall) + ANSI_RESET + " mm";
+        // Write the report to the output file
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(REPORT_FILE_PATH)), StandardCharsets.UTF_8), REPORT_BUFFER_SIZE)) {
+            writeReport(devices, currentTime, createRenderer(writer));
+            writePercentiles(devices, currentTime, writer);
         }
     }
 
     /**
-     * Formats the change in rainfall to a decimal format.
-     * 
-     * @param df The decimal format
-     * @param changeInRainfall The change in rainfall
-     * @return The formatted change in rainfall
+     * Writes the tables of rainfall percentiles for each device and location after the report, when
+     * percentiles are enabled (only with the table format, which is checked when parsing the arguments).
+     *
+     * @param devices The registry of devices
+     * @param currentTime The current time
+     * @param writer The output
+     * @throws IOException If there is an error writing the table
      */
-    private static String formatRainfallChange(DecimalFormat df, double changeInRainfall) {
-        return df.format(changeInRainfall) + " mm";
+    private static void writePercentiles(DeviceRegistry devices, long currentTime, Writer writer) throws IOException {
+        if (PERCENTILES == null) { return; }
+        long start = Metrics.startTimer();
+        long[] lookbackWindows = new long[WINDOWS.length];
+        for (int i = 0; i < WINDOWS.length; i++) {
+            lookbackWindows[i] = currentTime - WINDOWS[i];
+        }
+        writer.write('\n');
+        new QuantileReport(PERCENTILES, windowLabels()).write(writer, ReportAggregator.sortByDeviceID(devices.values()), lookbackWindows);
+        Metrics.stopTimer("report.percentiles", start);
+    }
+
+    /**
+     * Creates the renderer of the configured report format.
+     *
+     * @param writer The output of the report
+     * @return The renderer
+     */
+    private static ReportRenderer createRenderer(Writer writer) {
+        switch (REPORT_FORMAT) {
+            case "csv":
+                return new CsvReportRenderer(writer, windowLabels(), THRESHOLDS);
+            case "jsonl":
+                return new JsonLinesReportRenderer(writer, WINDOWS, THRESHOLDS);
+            default:
+                return new TableReportRenderer(writer, windowLabels(), THRESHOLDS);
+        }
+    }
+
+    /**
+     * Gets the labels of the lookback windows used in the report headers (e.g. "1 hr", "4 hrs", "90 mins")
+     *
+     * @return The labels of the lookback windows
+     */
+    private static String[] windowLabels() {
+        String[] labels = new String[WINDOWS.length];
+        for (int i = 0; i < WINDOWS.length; i++) {
+            long minutes = TimeUnit.MILLISECONDS.toMinutes(WINDOWS[i]);
+            if (minutes % 60 == 0) {
+                labels[i] = minutes / 60 + (minutes == 60 ? " hr" : " hrs");
+            } else {
+                labels[i] = minutes + (minutes == 1 ? " min" : " mins");
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Writes the report of the average and change in rainfall in each lookback window for each device, in
+     * order of device ID. Every lookback window is summarised in a single pass over each device's
+     * observations, and the devices are summarised in parallel when multiple worker threads are configured.
+     *
+     * @param devices The registry of devices
+     * @param currentTime The current time
+     * @param renderer The renderer of the report
+     * @throws IOException If there is an error writing the report
+     */
+    static void writeReport(DeviceRegistry devices, long currentTime, ReportRenderer renderer) throws IOException {
+        long start = Metrics.startTimer();
+
+        // Calculate the start of each lookback window
+        long[] lookbackWindows = new long[WINDOWS.length];
+        for (int i = 0; i < WINDOWS.length; i++) {
+            lookbackWindows[i] = currentTime - WINDOWS[i];
+        }
+
+        // Summarise the observations of each device in the lookback windows (in order of device ID)
+        Device[] sortedDevices = ReportAggregator.sortByDeviceID(devices.values());
+        WindowSummary[][] summaries = ReportAggregator.summarise(sortedDevices, lookbackWindows, THRESHOLD, THREADS);
+        long aggregateTime = Metrics.stopTimer("report.aggregate", start);
+
+        // Write the report
+        renderer.writeHeader();
+        for (int i = 0; i < sortedDevices.length; i++) {
+            renderer.writeRow(sortedDevices[i], summaries[i]);
+        }
+        renderer.writeFooter();
+
+        // Metrics (the time spent summarising the devices is recorded separately from rendering the report)
+        if (Metrics.isEnabled()) { Metrics.recordTime("report.render", System.nanoTime() - start - aggregateTime); }
     }
 
     /**
@@ -277,6 +875,7 @@ public class App {
                     if (iter.hasNext()) {
                         try {
                             THRESHOLD = Integer.parseInt(iter.next());
+                            THRESHOLDS = new int[] { THRESHOLD };
                         } catch (NumberFormatException e) {
                             System.out.println("Error parsing threshold - Threshold = " + (iter.next().equals("") ? "N/A" : iter.next()));
                             System.exit(1);
@@ -287,6 +886,158 @@ public class App {
                     }
                     break;
                 
+                // Multiple thresholds
+                case "--thresholds":
+                    THRESHOLDS = parseThresholds(iter.hasNext() ? iter.next() : "");
+                    THRESHOLD = THRESHOLDS[0];
+                    break;
+
+                // Rainfall percentiles
+                case "--percentiles":
+                    PERCENTILES = parsePercentiles(iter.hasNext() ? iter.next() : "");
+                    break;
+
+                // Lookback windows
+                case "--windows":
+                    WINDOWS = parseWindows(iter.hasNext() ? iter.next() : "");
+                    break;
+
+                // Number of worker threads
+                case "-p":
+                case "--parallel":
+                    THREADS = parsePositiveInt(iter, "number of worker threads");
+                    break;
+
+                // Chunk size for parsing large files in parallel
+                case "--chunk-size":
+                    CHUNK_SIZE = (long) parsePositiveInt(iter, "chunk size") << 20;
+                    break;
+
+                // Pipelined ingestion
+                case "--pipeline":
+                    PIPELINE = true;
+                    break;
+
+                // Virtual thread for the pipeline's reader
+                case "--virtual-threads":
+                    VIRTUAL_THREADS = true;
+                    break;
+
+                // Streaming mode
+                case "-s":
+                case "--streaming":
+                    STREAMING = true;
+                    break;
+
+                // Rollups
+                case "--rollups":
+                    ROLLUPS = true;
+                    break;
+
+                // Raw observation retention (implies rollups)
+                case "--raw-retention":
+                    String retention = iter.hasNext() ? iter.next() : "";
+                    try {
+                        RAW_RETENTION = parseWindow(retention);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Error parsing raw retention - Retention = " + (retention.equals("") ? "N/A" : retention));
+                        System.exit(1);
+                    }
+                    ROLLUPS = true;
+                    break;
+
+                // Off-heap observation store
+                case "--off-heap":
+                    OFF_HEAP_CAPACITY = (long) parsePositiveInt(iter, "off-heap capacity") << 20;
+                    break;
+
+                // Watch mode
+                case "-w":
+                case "--watch":
+                    WATCH = true;
+                    break;
+
+                // Watch mode refresh rate
+                case "--refresh-rate":
+                    REFRESH_RATE = parsePositiveInt(iter, "refresh rate");
+                    break;
+
+                // HTTP query server
+                case "--serve":
+                    SERVE_PORT = parsePositiveInt(iter, "server port");
+                    break;
+
+                // Bench mode
+                case "--bench":
+                    BENCH = true;
+                    break;
+
+                // Metrics file
+                case "--metrics":
+                    if (iter.hasNext()) {
+                        METRICS_FILE_PATH = iter.next();
+                    } else {
+                        System.out.println("Error parsing metrics file path - Metrics File Path = N/A");
+                        System.exit(1);
+                    }
+                    break;
+
+                // Snapshot file
+                case "--snapshot":
+                    if (iter.hasNext()) {
+                        SNAPSHOT_FILE_PATH = iter.next();
+                    } else {
+                        System.out.println("Error parsing snapshot file path - Snapshot File Path = N/A");
+                        System.exit(1);
+                    }
+                    break;
+
+                // Manifest file
+                case "--manifest":
+                    if (iter.hasNext()) {
+                        MANIFEST_FILE_PATH = iter.next();
+                    } else {
+                        System.out.println("Error parsing manifest file path - Manifest File Path = N/A");
+                        System.exit(1);
+                    }
+                    break;
+
+                // Report format
+                case "-f":
+                case "--format":
+                    String format = iter.hasNext() ? iter.next() : "";
+                    if (format.equals("table") || format.equals("csv") || format.equals("jsonl")) {
+                        REPORT_FORMAT = format;
+                    } else {
+                        System.out.println("Error parsing report format - Format = " + (format.equals("") ? "N/A" : format));
+                        System.exit(1);
+                    }
+                    break;
+
+                // Report output file
+                case "--output":
+                    if (iter.hasNext()) {
+                        String output = iter.next();
+                        REPORT_FILE_PATH = output.equals("-") ? null : output;
+                    } else {
+                        System.out.println("Error parsing report output file path - Output File Path = N/A");
+                        System.exit(1);
+                    }
+                    break;
+
+                // Observations parser
+                case "--parser":
+                    String parser = iter.hasNext() ? iter.next() : "";
+                    if (parser.equals("mapped")) {
+                        MAPPED_PARSER = true;
+                    } else if (parser.equals("commons")) {
+                        MAPPED_PARSER = false;
+                    } else {
+                        System.out.println("Error parsing observations parser - Parser = " + (parser.equals("") ? "N/A" : parser));
+                        System.exit(1);
+                    }
+                    break;
+
                 // Devices file name
                 case "-d":
                 case "--devices":
@@ -317,8 +1068,29 @@ public class App {
                     System.out.println("  -h, --help\t\t\t\t\t\tShow this help message");
                     System.out.println("  -v, --verbose\t\t\t\t\t\tVerbose output");
                     System.out.println("  -t, --threshold <THRESHOLD>\t\t\t\tManually set rainfall threshold (default = 30)");
+                    System.out.println("  --thresholds <THRESHOLD,...>\t\t\t\tCheck several rainfall thresholds, e.g. 10,20,30 (the lowest is marked in the table)");
+                    System.out.println("  --percentiles <PERCENTILE,...>\t\t\tSketch each device's rainfall and add tables of percentiles per device and location, e.g. 50,95,99 (table format only, disables --manifest skipping)");
+                    System.out.println("  --windows <WINDOW,...>\t\t\t\tReport several lookback windows in minutes, hours or days, e.g. 1h,4h,24h,72h (default = 4h)");
                     System.out.println("  -d, --devices <DEVICES_FILE_NAME>\t\t\tSet devices file name, within observations directory (default = Devices.csv)");
                     System.out.println("  -o, --observations <OBSERVATIONS_FILE_PATH>\t\tSet observations file path (default = ./data)");
+                    System.out.println("  -p, --parallel <THREADS>\t\t\t\tParse observations CSVs and summarise devices using multiple worker threads (default = 1)");
+                    System.out.println("  --chunk-size <MEGABYTES>\t\t\t\tSplit observations CSVs of at least twice this size into ranges parsed by separate worker threads (default = 64)");
+                    System.out.println("  --pipeline\t\t\t\t\t\tRead, parse (using the --parallel threads) and add observations in pipelined stages with bounded queues");
+                    System.out.println("  --virtual-threads\t\t\t\t\tRun the pipeline's reader on a virtual thread (requires Java 21)");
+                    System.out.println("  -s, --streaming\t\t\t\t\tOnly keep observations within the lookback window (reduces memory use)");
+                    System.out.println("  --rollups\t\t\t\t\t\tKeep 5 minute, hourly and daily rollups per device so long windows only scan raw observations at their edges");
+                    System.out.println("  --raw-retention <WINDOW>\t\t\t\tDiscard raw observations older than this, e.g. 7d, keeping the rollups (implies --rollups)");
+                    System.out.println("  --off-heap <MEGABYTES>\t\t\t\t\tStore observations off the heap in direct memory of up to this capacity (needs -XX:MaxDirectMemorySize)");
+                    System.out.println("  -w, --watch\t\t\t\t\t\tWatch the observations directory and refresh the report as rows are appended or files added");
+                    System.out.println("  --refresh-rate <REFRESHES>\t\t\t\tMaximum report refreshes per second in watch mode (default = 2)");
+                    System.out.println("  --snapshot <SNAPSHOT_FILE_PATH>\t\t\tCache parsed observations in a snapshot file, only re-parsing CSVs that have changed");
+                    System.out.println("  --manifest <MANIFEST_FILE_PATH>\t\t\tRecord each observations CSV's time range in a manifest file and skip CSVs entirely before the lookback windows");
+                    System.out.println("  --serve <PORT>\t\t\t\t\tKeep the observations loaded and serve device summaries over HTTP, with POST /ingest for new rows");
+                    System.out.println("  --bench\t\t\t\t\t\tReport the wall time, rows/sec, allocations, peak heap and GC time of each phase instead of the report");
+                    System.out.println("  --metrics <METRICS_FILE_PATH>\t\t\t\tWrite runtime metrics (per file, timers and per phase) as JSON at exit");
+                    System.out.println("  -f, --format <table|csv|jsonl>\t\t\tSet report format (default = table)");
+                    System.out.println("  --output <REPORT_FILE_PATH>\t\t\t\tWrite the report to a file, - for the standard output (default = -)");
+                    System.out.println("  --parser <mapped|commons>\t\t\t\tSet observations CSV parser, mapped falls back to commons for unsupported files (default = mapped)");
                     System.exit(0);
                     break;
 
@@ -329,6 +1101,112 @@ public class App {
                     break;
             }
         }
+
+        // Percentiles are written as tables after the report
+        if (PERCENTILES != null && !REPORT_FORMAT.equals("table")) {
+            System.out.println("Error parsing arguments - --percentiles is only supported with the table format");
+            System.exit(1);
+        }
+
+        // Window percentiles are sketched from the raw observations, so they must be kept for the largest window
+        if (PERCENTILES != null && RAW_RETENTION > 0 && RAW_RETENTION < WINDOWS[WINDOWS.length - 1]) {
+            System.out.println("Error parsing arguments - --percentiles needs a --raw-retention of at least the largest lookback window");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parses a positive integer option value, exiting if it is missing or invalid.
+     *
+     * @param iter The argument iterator
+     * @param name The name of the option (used in error messages)
+     * @return The parsed value
+     */
+    private static int parsePositiveInt(Iterator<String> iter, String name) {
+        String value = iter.hasNext() ? iter.next() : "";
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) { return parsed; }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        System.out.println("Error parsing " + name + " - Value = " + (value.equals("") ? "N/A" : value));
+        System.exit(1);
+        return -1;
+    }
+
+    /**
+     * Parses a comma separated list of percentiles, exiting if it is missing or invalid.
+     *
+     * @param value The option value
+     * @return The distinct percentiles in increasing order
+     */
+    private static double[] parsePercentiles(String value) {
+        try {
+            double[] percentiles = Arrays.stream(value.split(",")).map(String::trim).mapToDouble(Double::parseDouble).sorted().distinct().toArray();
+            if (percentiles.length > 0 && percentiles[0] >= 0 && percentiles[percentiles.length - 1] <= 100) { return percentiles; }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        System.out.println("Error parsing percentiles - Percentiles = " + (value.equals("") ? "N/A" : value));
+        System.exit(1);
+        return null;
+    }
+
+    /**
+     * Parses a comma separated list of rainfall thresholds, exiting if it is missing or invalid.
+     *
+     * @param value The option value
+     * @return The distinct thresholds in increasing order
+     */
+    private static int[] parseThresholds(String value) {
+        try {
+            int[] thresholds = Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).sorted().distinct().toArray();
+            if (thresholds.length > 0) { return thresholds; }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        System.out.println("Error parsing thresholds - Thresholds = " + (value.equals("") ? "N/A" : value));
+        System.exit(1);
+        return null;
+    }
+
+    /**
+     * Parses a comma separated list of lookback windows (e.g. 90m, 4h or 3d), exiting if it is missing or
+     * invalid.
+     *
+     * @param value The option value
+     * @return The distinct windows in increasing order (milliseconds)
+     */
+    static long[] parseWindows(String value) {
+        try {
+            long[] windows = Arrays.stream(value.split(",")).map(String::trim).mapToLong(App::parseWindow).sorted().distinct().toArray();
+            if (windows.length > 0) { return windows; }
+        } catch (IllegalArgumentException e) {
+            // Handled below
+        }
+        System.out.println("Error parsing lookback windows - Windows = " + (value.equals("") ? "N/A" : value));
+        System.exit(1);
+        return null;
+    }
+
+    /**
+     * Parses a lookback window with a unit of m (minutes), h (hours) or d (days)
+     *
+     * @param window The window, e.g. 4h
+     * @throws IllegalArgumentException If the window is not a positive number of minutes, hours or days
+     * @return The window (milliseconds)
+     */
+    private static long parseWindow(String window) {
+        if (window.length() < 2) { throw new IllegalArgumentException("Invalid window: " + window); }
+        long amount = Long.parseLong(window.substring(0, window.length() - 1));
+        if (amount <= 0) { throw new IllegalArgumentException("Invalid window: " + window); }
+        switch (window.charAt(window.length() - 1)) {
+            case 'm': return TimeUnit.MINUTES.toMillis(amount);
+            case 'h': return TimeUnit.HOURS.toMillis(amount);
+            case 'd': return TimeUnit.DAYS.toMillis(amount);
+            default: throw new IllegalArgumentException("Invalid window: " + window);
+        }
     }
 
     // ---- Main ---- //
@@ -346,16 +1224,29 @@ public class App {
 
         // -- Initialising Data Structures -- //
 
-        // Map of devices
-        Map<Integer, Device> devices = new HashMap<>();
+        // Registry of devices
+        DeviceRegistry devices = new DeviceRegistry();
 
         // Current time
         long currentTime;
 
+        // Record metrics (written at exit, including exits on errors)
+        if (BENCH || METRICS_FILE_PATH != null) { Metrics.enable(); }
+        if (METRICS_FILE_PATH != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Metrics.writeJSON(Paths.get(METRICS_FILE_PATH));
+                } catch (IOException e) {
+                    System.err.println("Error writing metrics to " + METRICS_FILE_PATH);
+                }
+            }));
+        }
+
         // -- Parsing CSVs -- //
 
         // Parse the devices CSV
         if (VERBOSE) { System.out.println("\n==== Loading Devices ====\n"); }
+        Metrics.startPhase("Load devices");
         try {
             parseDevicesCSV(devices, OBSERVATIONS_FILE_PATH + "/" + DEVICE_CSV_FILE_NAME);
         } catch (Exception e) {
@@ -364,9 +1255,46 @@ public class App {
             System.exit(1);
             return;
         }
+        Metrics.endPhase(devices.size());
+
+        // Keep rollups of each device's observations
+        if (ROLLUPS) {
+            for (Device device : devices.values()) {
+                device.enableRollups();
+            }
+        }
+
+        // Sketch the rainfall of each device's observations
+        if (PERCENTILES != null) {
+            for (Device device : devices.values()) {
+                device.enableQuantileSketch();
+            }
+        }
+
+        // Store the observations off the heap
+        OffHeapObservationStore store = null;
+        if (OFF_HEAP_CAPACITY > 0) {
+            store = new OffHeapObservationStore(OFF_HEAP_CAPACITY);
+            for (Device device : devices.values()) {
+                device.enableOffHeap(store);
+            }
+        }
+
+        // Watch the observations CSVs (loads the observations and refreshes the report as they change)
+        if (WATCH) {
+            try {
+                new ObservationWatcher(devices, Paths.get(OBSERVATIONS_FILE_PATH), REFRESH_RATE).watch();
+            } catch (IOException e) {
+                if (VERBOSE) { e.printStackTrace(); }
+                System.out.println("Error watching observations CSVs at " + OBSERVATIONS_FILE_PATH);
+                System.exit(1);
+            }
+            return;
+        }
 
         // Parse the observations CSV
         if (VERBOSE) { System.out.println("\n==== Loading Observations ====\n"); }
+        Metrics.startPhase("Load observations");
         try {
             currentTime = parseObservationsCSVs(devices, OBSERVATIONS_FILE_PATH);
         } catch (IOException e) {
@@ -374,6 +1302,27 @@ public class App {
             System.out.println("Error parsing observations CSV at " + OBSERVATIONS_FILE_PATH);
             System.exit(1);
             return;
+        } catch (OutOfMemoryError e) {
+            // The off-heap store is full (or the heap is)
+            System.out.println("Error loading observations - " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Metrics.endPhase(Metrics.getCounter("observations.records"));
+        recordRegistryFootprint(devices);
+
+        // Serve the summaries over HTTP (the server's threads keep running after main returns)
+        if (SERVE_PORT > 0) {
+            try {
+                ObservationServer server = new ObservationServer(devices, currentTime, THREADS);
+                server.start(SERVE_PORT);
+                System.out.println("Serving device summaries on port " + server.getPort() + " (GET /devices, /devices/<ID>, /fleet - POST /ingest)");
+            } catch (IOException e) {
+                if (VERBOSE) { e.printStackTrace(); }
+                System.out.println("Error starting server on port " + SERVE_PORT);
+                System.exit(1);
+            }
+            return;
         }
 
         // -- Data Processing & Output-- //
@@ -381,37 +1330,37 @@ public class App {
         // Verbose output
         if (VERBOSE) { System.out.println("\n==== Data Processing & Outputs ====\n"); }
 
-        // Calculate observation lookback window
-        long lookbackWindow = currentTime - TimeUnit.HOURS.toMillis(4); // 4 hours
-
-        // DecimalFormat class (rounds doubles to 2 decimal places)
-        DecimalFormat df = new DecimalFormat("#.##");
+        // Print the report (in bench mode the report is generated without printing it)
+        PrintStream out = System.out;
+        if (BENCH) {
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) { }
 
-        // Creating table header
-        System.out.printf("---------------------------------------------------------------------------------------------------------------------------------\n");
-        System.out.printf("| %-20s | %-20s | %-20s | %-25s | %-28s |\n", "Device Name", "Device ID", "Location", "Average Rainfall (4 hrs)", "Change in Rainfall (4 hrs)");
-        System.out.printf("---------------------------------------------------------------------------------------------------------------------------------\n");
-        for (Device device : devices.values()) {
-            // Get average rainfall and check if it has surpassed a threshold
-            double averageRainfall = device.getAverageRainfallSince(lookbackWindow);
-            boolean exceedThreshold = device.isObservationsExceedingThresholdSince(THRESHOLD, lookbackWindow);
-            String averageRainfallOutput = formatAverageRainfall(df, averageRainfall, exceedThreshold);
-
-
-            // Get change in rainfall
-            double changeInRainfall = device.getChangeInRainfallSince(lookbackWindow);
-            String changeInRainfallOutput = formatRainfallChange(df, changeInRainfall);
-
-            // Calculating output adjustment for ANSI colour codes (if threshold is exceeded an adjustment is made to the output width to account for the extra characters in the ANSI colour codes)
-            int outputAdjustment = 34 + (exceedThreshold ? 9 : 0);
-
-            // Creating table row
-            System.out.printf("| %-20s | %-20s | %-20s | %-" + outputAdjustment + "s | %-28s |\n", device.getDeviceName(), device.getDeviceID(), device.getLocation(), averageRainfallOutput, changeInRainfallOutput);
+                @Override
+                public void write(byte[] b, int off, int len) { }
+            }));
+        }
+        Metrics.startPhase("Report");
+        try {
+            printReport(devices, currentTime);
+        } catch (IOException e) {
+            if (VERBOSE) { e.printStackTrace(); }
+            out.println("Error writing report to " + (REPORT_FILE_PATH == null ? "standard output" : REPORT_FILE_PATH));
+            System.exit(1);
+            return;
+        } finally {
+            System.setOut(out);
+        }
+        Metrics.endPhase(devices.size());
+
+        // Print the phase measurements
+        if (BENCH) {
+            Metrics.printPhases(System.out);
+            Metrics.printStages(System.out);
+            System.out.println();
+            System.out.println(describeRegistryFootprint(devices));
+            if (store != null) { System.out.println(String.format("Off-heap store: %.1f MB used, %.1f MB reserved of %.1f MB", store.getUsedBytes() / 1048576.0, store.getReservedBytes() / 1048576.0, store.getCapacity() / 1048576.0)); }
         }
-
-        // Creating table footer
-        System.out.printf("---------------------------------------------------------------------------------------------------------------------------------\n");
-        System.out.printf("| %-161s |\n", "Legend: " + ANSI_GREEN + "Green" + ANSI_RESET + " = Low (< 10 mm), " + ANSI_YELLOW + "Amber" + ANSI_RESET + " = Medium (< 15 mm), " + ANSI_RED + "Red" + ANSI_RESET + " = High (>= 15 mm), " + ANSI_RED + "!!!" + ANSI_RESET + " = " + THRESHOLD + " mm Threshold Exceeded");
-        System.out.printf("---------------------------------------------------------------------------------------------------------------------------------\n");
     }
 }
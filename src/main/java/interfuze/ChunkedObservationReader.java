@@ -0,0 +1,217 @@
+package interfuze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Parses a single large observations CSV on several worker threads.
+ *
+ * The file is split into byte ranges that start at the beginning of a row, and each range is parsed by
+ * the memory mapped parser into its own batch (only the first range contains the header). Once every
+ * range is parsed the batches are joined in file order, so the observations are added to the devices in
+ * the same order, and with the same current time, as a sequential parse. If any range uses CSV features
+ * the memory mapped parser does not support, the whole file is parsed with Commons CSV instead.
+ */
+public class ChunkedObservationReader {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Number of bytes read at a time when searching for the start of a row
+	 */
+	private static final int SCAN_SIZE = 4096;
+
+	// ---- Variables ---- //
+
+	/**
+	 * The observations CSV
+	 */
+	private final File file;
+
+	/**
+	 * Positions of the start of each range, followed by the size of the file
+	 */
+	private final long[] bounds;
+
+	/**
+	 * Size of the file before it was read
+	 */
+	private final long size;
+
+	/**
+	 * Last modified time of the file before it was read
+	 */
+	private final long lastModified;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param file The observations CSV
+	 * @param bounds The positions of the start of each range, followed by the size of the file
+	 * @param size The size of the file before it was read
+	 * @param lastModified The last modified time of the file before it was read
+	 */
+	private ChunkedObservationReader(File file, long[] bounds, long size, long lastModified) {
+		this.file = file;
+		this.bounds = bounds;
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Splits a file into ranges and submits a parsing task for each range.
+	 *
+	 * The ranges are joined by whichever worker finishes the last range, so the caller never blocks a
+	 * worker thread while waiting for the file.
+	 *
+	 * @param file The observations CSV
+	 * @param numChunks The number of ranges to split the file into
+	 * @param executor The executor of the parsing tasks
+	 * @throws IOException If there is an error reading the file
+	 * @return The future batch of observations of the whole file
+	 */
+	public static CompletableFuture<ObservationBatch> submit(File file, int numChunks, ExecutorService executor) throws IOException {
+		long start = Metrics.startTimer();
+		long size = file.length();
+		long lastModified = file.lastModified();
+		ChunkedObservationReader reader = new ChunkedObservationReader(file, split(file.toPath(), size, numChunks), size, lastModified);
+
+		// Parse the ranges concurrently
+		List<CompletableFuture<MappedObservationParser>> chunks = new ArrayList<>(numChunks);
+		for (int i = 0; i < reader.bounds.length - 1; i++) {
+			int chunk = i;
+			chunks.add(CompletableFuture.supplyAsync(() -> reader.parseChunk(chunk), executor));
+		}
+
+		// Join the ranges once they are all parsed
+		return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(v -> reader.join(chunks, start));
+	}
+
+	/**
+	 * Splits a file into ranges that each start at the beginning of a row.
+	 *
+	 * @param path The path of the file
+	 * @param size The size of the file
+	 * @param numChunks The number of ranges (fewer are returned if the file has fewer rows)
+	 * @throws IOException If there is an error reading the file
+	 * @return The positions of the start of each range, followed by the size of the file
+	 */
+	static long[] split(Path path, long size, int numChunks) throws IOException {
+		long[] bounds = new long[numChunks + 1];
+		int count = 1;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			for (int i = 1; i < numChunks; i++) {
+				long bound = nextRowStart(channel, size * i / numChunks, size);
+				if (bound > bounds[count - 1] && bound < size) { bounds[count++] = bound; }
+			}
+		}
+		bounds[count] = size;
+		long[] result = new long[count + 1];
+		System.arraycopy(bounds, 0, result, 0, count + 1);
+		return result;
+	}
+
+	/**
+	 * Finds the start of the first row at or after a position
+	 *
+	 * @param channel The file channel
+	 * @param position The position (greater than 0)
+	 * @param size The size of the file
+	 * @throws IOException If there is an error reading the file
+	 * @return The position after the first line ending at or after position - 1, or the size of the file if there is none
+	 */
+	private static long nextRowStart(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+		for (long offset = position - 1; offset < size; offset += buffer.limit()) {
+			buffer.clear();
+			while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) { }
+			buffer.flip();
+			for (int i = 0; i < buffer.limit(); i++) {
+				if (buffer.get(i) == '\n') { return offset + i + 1; }
+			}
+			if (buffer.limit() == 0) { break; }
+		}
+		return size;
+	}
+
+	/**
+	 * Parses a range of the file
+	 *
+	 * @param chunk The index of the range
+	 * @return The parser holding the batch and error messages of the range, or null if the range is not supported by the memory mapped parser
+	 */
+	private MappedObservationParser parseChunk(int chunk) {
+		long start = bounds[chunk];
+		long end = bounds[chunk + 1];
+		boolean last = chunk == bounds.length - 2;
+		try {
+			return Metrics.trackAllocations(() -> {
+				MappedObservationParser parser = new MappedObservationParser(new ObservationBatch());
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					// Every row of the range must be parsed (only the last range may end without a line ending)
+					long parsed = parser.readRange(channel, start, end, last);
+					return parsed == end ? parser : null;
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Joins the batches of the ranges in file order, printing their error messages in the same order. If a
+	 * range was not supported the whole file is parsed with Commons CSV.
+	 *
+	 * @param chunks The parsed ranges
+	 * @param start The start time of reading the file
+	 * @return The batch of observations of the whole file
+	 */
+	private ObservationBatch join(List<CompletableFuture<MappedObservationParser>> chunks, long start) {
+		List<ObservationBatch> batches = new ArrayList<>(chunks.size());
+		for (CompletableFuture<MappedObservationParser> chunk : chunks) {
+			MappedObservationParser parser = chunk.join();
+			if (parser == null) {
+				batches = null;
+				break;
+			}
+			batches.add(parser.getBatch());
+		}
+
+		ObservationBatch batch;
+		if (batches != null) {
+			for (CompletableFuture<MappedObservationParser> chunk : chunks) {
+				chunk.join().printMessages();
+			}
+			batch = ObservationBatch.concat(batches);
+		} else {
+			// Parse the file with Commons CSV
+			if (App.VERBOSE) { System.out.println("Falling back to Commons CSV for " + file.getPath()); }
+			try {
+				batch = App.readObservationsCSVWithCommons(file.getPath());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		// Metrics (the time is from splitting the file until every range is parsed)
+		batch.setSourceStamp(size, lastModified);
+		Metrics.increment("observations.chunks", chunks.size());
+		Metrics.recordFile(file.getName(), batch.getNumRecords(), batch.getNumErrors(), size, Metrics.stopTimer("observations.parse", start));
+		return batch;
+	}
+}
@@ -0,0 +1,123 @@
+package interfuze;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders the report as CSV, with one row per device.
+ *
+ * Each lookback window has observations, average and change in rainfall columns, followed by a column
+ * for each threshold. The window and threshold are only added to the column names when there are several.
+ *
+ * Numbers are written to at most two decimal places with '.' as the decimal separator, and text fields
+ * are quoted when they contain a comma, quote or line break.
+ */
+public class CsvReportRenderer implements ReportRenderer {
+
+	// ---- Variables ---- //
+
+	/**
+	 * The output
+	 */
+	private final Writer out;
+
+	/**
+	 * Labels of the lookback windows
+	 */
+	private final String[] windows;
+
+	/**
+	 * The rainfall thresholds (in increasing order)
+	 */
+	private final int[] thresholds;
+
+	/**
+	 * Builder of the current row
+	 */
+	private final StringBuilder row = new StringBuilder(128);
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param out The output
+	 * @param windows The labels of the lookback windows (e.g. "4 hrs")
+	 * @param thresholds The rainfall thresholds (in increasing order)
+	 */
+	public CsvReportRenderer(Writer out, String[] windows, int[] thresholds) {
+		this.out = out;
+		this.windows = windows;
+		this.thresholds = thresholds;
+	}
+
+	// ---- Methods ---- //
+
+	@Override
+	public void writeHeader() throws IOException {
+		row.setLength(0);
+		row.append("Device ID,Device Name,Location");
+		for (String window : windows) {
+			String suffix = windows.length > 1 ? " " + window : "";
+			row.append(",Observations").append(suffix);
+			row.append(",Average Rainfall").append(suffix).append(" (mm)");
+			row.append(",Change in Rainfall").append(suffix).append(" (mm)");
+			for (int threshold : thresholds) {
+				row.append(",Threshold Exceeded").append(suffix);
+				if (thresholds.length > 1) { row.append(" (").append(threshold).append(" mm)"); }
+			}
+		}
+		row.append('\n');
+		out.append(row);
+	}
+
+	@Override
+	public void writeRow(Device device, WindowSummary[] summaries) throws IOException {
+		row.setLength(0);
+		row.append(device.getDeviceID()).append(',');
+		appendField(row, device.getDeviceName());
+		row.append(',');
+		appendField(row, device.getLocation());
+		for (WindowSummary summary : summaries) {
+			row.append(',').append(summary.getCount()).append(',');
+			DecimalFormatter.PLAIN.append(row, summary.getAverageRainfall());
+			row.append(',').append(summary.getChangeInRainfall());
+			for (int threshold : thresholds) {
+				row.append(',').append(summary.isExceeding(threshold));
+			}
+		}
+		row.append('\n');
+		out.append(row);
+	}
+
+	@Override
+	public void writeFooter() throws IOException {
+		// No footer
+	}
+
+	/**
+	 * Appends a text field, quoting it if necessary
+	 *
+	 * @param builder The row
+	 * @param value The text
+	 */
+	static void appendField(StringBuilder builder, String value) {
+		if (value == null) { return; }
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			builder.append(value);
+			return;
+		}
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') { builder.append('"'); }
+			builder.append(c);
+		}
+		builder.append('"');
+	}
+}
@@ -0,0 +1,342 @@
+package interfuze;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates synthetic devices and observations CSVs for testing the tool at scale.
+ *
+ * Every device reports once per sampling interval across the time span, and the readings are split by
+ * time into the observations CSVs (so the first file holds the earliest readings). Rows are written in
+ * the same format as the sample data, including the 24 hour times used there. Times are parsed with a 12
+ * hour pattern (d/MM/yyyy h:mm) that has no AM/PM field, so "12:xx" is read as 0:xx of the same day and
+ * noon cannot be written in a form that is read back as noon; the sampling times in the noon hour are
+ * skipped, so every row decodes to the time it was generated for. A fraction of the rows can be delayed
+ * until after newer readings (out of order) or replaced with rows that cannot be parsed (malformed). The
+ * output is determined by the seed.
+ */
+public class DatasetGenerator {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Time of the first observation (5/06/2020 0:00 in the decoder's time zone)
+	 */
+	public static final long START_TIME = startTime();
+
+	/**
+	 * ID of the first device
+	 */
+	private static final int FIRST_DEVICE_ID = 10000;
+
+	/**
+	 * Number of device locations
+	 */
+	private static final int NUM_LOCATIONS = 50;
+
+	/**
+	 * Size of the file write buffers
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Number of devices
+	 */
+	private final int numDevices;
+
+	/**
+	 * Time span of the observations (milliseconds)
+	 */
+	private final long span;
+
+	/**
+	 * Time between the observations of a device (milliseconds)
+	 */
+	private final long interval;
+
+	/**
+	 * Number of observations CSVs
+	 */
+	private final int numFiles;
+
+	/**
+	 * Fraction of rows written after newer rows
+	 */
+	private final double outOfOrderRatio;
+
+	/**
+	 * Fraction of rows that cannot be parsed
+	 */
+	private final double malformedRatio;
+
+	/**
+	 * Seed of the random number generator
+	 */
+	private final long seed;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param numDevices The number of devices
+	 * @param span The time span of the observations (milliseconds)
+	 * @param interval The time between the observations of a device (milliseconds)
+	 * @param numFiles The number of observations CSVs
+	 * @param outOfOrderRatio The fraction of rows written after newer rows
+	 * @param malformedRatio The fraction of rows that cannot be parsed
+	 * @param seed The seed of the random number generator
+	 */
+	public DatasetGenerator(int numDevices, long span, long interval, int numFiles, double outOfOrderRatio, double malformedRatio, long seed) {
+		if (numDevices <= 0 || span <= 0 || interval <= 0 || numFiles <= 0) { throw new IllegalArgumentException("Devices, span, interval and files must be positive"); }
+		if (outOfOrderRatio < 0 || outOfOrderRatio > 1 || malformedRatio < 0 || malformedRatio > 1) { throw new IllegalArgumentException("Ratios must be between 0 and 1"); }
+		this.numDevices = numDevices;
+		this.span = span;
+		this.interval = interval;
+		this.numFiles = numFiles;
+		this.outOfOrderRatio = outOfOrderRatio;
+		this.malformedRatio = malformedRatio;
+		this.seed = seed;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Writes the devices CSV and the observations CSVs (Data1.csv, Data2.csv, ...) to a directory.
+	 *
+	 * @param directory The output directory (created if it does not exist)
+	 * @throws IOException If there is an error writing a file
+	 * @return The number of observation rows written
+	 */
+	public long generate(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		writeDevicesCSV(directory.resolve(App.DEVICE_CSV_FILE_NAME));
+
+		// Split the sampling times between the files
+		Random random = new Random(seed);
+		int[] rainfalls = new int[numDevices];
+		long numSteps = (span + interval - 1) / interval;
+		long rows = 0;
+		for (int file = 0; file < numFiles; file++) {
+			long firstStep = numSteps * file / numFiles;
+			long lastStep = numSteps * (file + 1) / numFiles;
+			rows += writeObservationsCSV(directory.resolve("Data" + (file + 1) + ".csv"), firstStep, lastStep, rainfalls, random);
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the devices CSV
+	 *
+	 * @param file The file to write
+	 * @throws IOException If there is an error writing the file
+	 */
+	private void writeDevicesCSV(Path file) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			writer.write("Device ID,Device Name,Location\n");
+			for (int i = 0; i < numDevices; i++) {
+				writer.write((FIRST_DEVICE_ID + i) + ",Gauge " + (i + 1) + ",Location " + (i % NUM_LOCATIONS + 1) + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Writes an observations CSV containing the readings of every device for a range of sampling times.
+	 *
+	 * Each device's rainfall follows a random walk (so there are dry spells and heavy periods), carried
+	 * over between files. Out of order rows are held back and written after the rows of the next sampling
+	 * time (or at the end of the file). Sampling times in the noon hour are skipped (see formatTime).
+	 *
+	 * @param file The file to write
+	 * @param firstStep The first sampling time (as a number of intervals after the start time)
+	 * @param lastStep The sampling time after the last (as a number of intervals after the start time)
+	 * @param rainfalls The last rainfall of each device
+	 * @param random The random number generator
+	 * @throws IOException If there is an error writing the file
+	 * @return The number of observation rows written
+	 */
+	private long writeObservationsCSV(Path file, long firstStep, long lastStep, int[] rainfalls, Random random) throws IOException {
+		long rows = 0;
+		List<String> delayed = new ArrayList<>();
+		List<String> held = new ArrayList<>();
+		StringBuilder row = new StringBuilder(64);
+		try (BufferedWriter writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			writer.write("Device ID,Time,Rainfall\n");
+			for (long step = firstStep; step < lastStep; step++) {
+				String time = formatTime(START_TIME + step * interval);
+				if (time == null) { continue; }
+				for (int i = 0; i < numDevices; i++) {
+					// Next rainfall reading of the device
+					rainfalls[i] = random.nextInt(10) == 0 ? 0 : Math.max(0, rainfalls[i] + random.nextInt(7) - 3);
+
+					// Create the row (malformed rows replace a field with one that cannot be parsed)
+					row.setLength(0);
+					if (random.nextDouble() < malformedRatio) {
+						switch (random.nextInt(3)) {
+							case 0: row.append(",").append(time).append(",").append(rainfalls[i]); break;
+							case 1: row.append(FIRST_DEVICE_ID + i).append(",not a time,").append(rainfalls[i]); break;
+							default: row.append(FIRST_DEVICE_ID + i).append(",").append(time).append(",n/a"); break;
+						}
+					} else {
+						row.append(FIRST_DEVICE_ID + i).append(",").append(time).append(",").append(rainfalls[i]);
+					}
+					row.append("\n");
+
+					// Write the row, or hold it back until after the next sampling time
+					if (random.nextDouble() < outOfOrderRatio) {
+						held.add(row.toString());
+					} else {
+						writer.append(row);
+					}
+					rows++;
+				}
+
+				// Write the rows held back during the previous sampling time
+				for (String delayedRow : delayed) {
+					writer.write(delayedRow);
+				}
+				delayed.clear();
+				List<String> swap = delayed;
+				delayed = held;
+				held = swap;
+			}
+
+			// Write the remaining rows
+			for (String delayedRow : delayed) {
+				writer.write(delayedRow);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Formats an observation time in the format of the sample data (d/MM/yyyy H:mm). Times in the noon
+	 * hour are not formatted, as "12:xx" is read back as 0:xx of the same day.
+	 *
+	 * @param time The time in epoch milliseconds
+	 * @return The formatted time, or null if the time is in the noon hour
+	 */
+	static String formatTime(long time) {
+		Calendar calendar = Calendar.getInstance(App.TIMESTAMP_DECODER.getTimeZone());
+		calendar.setTimeInMillis(time);
+		if (calendar.get(Calendar.HOUR_OF_DAY) == 12) { return null; }
+		int minute = calendar.get(Calendar.MINUTE);
+		return calendar.get(Calendar.DAY_OF_MONTH) + "/" + (calendar.get(Calendar.MONTH) < 9 ? "0" : "") + (calendar.get(Calendar.MONTH) + 1) + "/" + calendar.get(Calendar.YEAR)
+				+ " " + calendar.get(Calendar.HOUR_OF_DAY) + ":" + (minute < 10 ? "0" : "") + minute;
+	}
+
+	/**
+	 * Gets the time of the first observation
+	 *
+	 * @return 5/06/2020 0:00 in epoch milliseconds
+	 */
+	private static long startTime() {
+		Calendar calendar = Calendar.getInstance(App.TIMESTAMP_DECODER.getTimeZone());
+		calendar.clear();
+		calendar.set(2020, Calendar.JUNE, 5);
+		return calendar.getTimeInMillis();
+	}
+
+	// ---- Main ---- //
+
+	/**
+	 * Main method
+	 *
+	 * @param args The arguments
+	 */
+	public static void main(String[] args) {
+		// Default options
+		String output = "./generated";
+		int numDevices = 1000;
+		long span = TimeUnit.HOURS.toMillis(24);
+		long interval = TimeUnit.MINUTES.toMillis(5);
+		int numFiles = 4;
+		double outOfOrderRatio = 0;
+		double malformedRatio = 0;
+		long seed = 42;
+
+		// Parse the arguments
+		Iterator<String> iter = Arrays.stream(args).iterator();
+		try {
+			while (iter.hasNext()) {
+				String arg = iter.next();
+				switch (arg) {
+					case "-o":
+					case "--output":
+						output = iter.next();
+						break;
+					case "--devices":
+						numDevices = Integer.parseInt(iter.next());
+						break;
+					case "--span":
+						span = TimeUnit.HOURS.toMillis(Long.parseLong(iter.next()));
+						break;
+					case "--interval":
+						interval = TimeUnit.MINUTES.toMillis(Long.parseLong(iter.next()));
+						break;
+					case "--files":
+						numFiles = Integer.parseInt(iter.next());
+						break;
+					case "--out-of-order":
+						outOfOrderRatio = Double.parseDouble(iter.next());
+						break;
+					case "--malformed":
+						malformedRatio = Double.parseDouble(iter.next());
+						break;
+					case "--seed":
+						seed = Long.parseLong(iter.next());
+						break;
+					case "-h":
+					case "--help":
+						System.out.println("Usage: java -cp interfuze.jar interfuze.DatasetGenerator [OPTIONS]");
+						System.out.println("Options:");
+						System.out.println("  -h, --help\t\t\t\tShow this help message");
+						System.out.println("  -o, --output <DIRECTORY>\t\tSet output directory (default = ./generated)");
+						System.out.println("  --devices <DEVICES>\t\t\tNumber of devices (default = 1000)");
+						System.out.println("  --span <HOURS>\t\t\tTime span of the observations (default = 24)");
+						System.out.println("  --interval <MINUTES>\t\t\tTime between the observations of a device (default = 5)");
+						System.out.println("  --files <FILES>\t\t\tNumber of observations CSVs (default = 4)");
+						System.out.println("  --out-of-order <RATIO>\t\tFraction of rows written after newer rows (default = 0)");
+						System.out.println("  --malformed <RATIO>\t\t\tFraction of rows that cannot be parsed (default = 0)");
+						System.out.println("  --seed <SEED>\t\t\t\tRandom seed (default = 42)");
+						System.exit(0);
+						break;
+					default:
+						System.out.println("Error parsing arguments - Unknown argument: " + arg + " - try using --help");
+						System.exit(1);
+						break;
+				}
+			}
+		} catch (NumberFormatException | NoSuchElementException e) {
+			System.out.println("Error parsing arguments - Invalid or missing value - try using --help");
+			System.exit(1);
+		}
+
+		// Generate the dataset
+		try {
+			long start = System.nanoTime();
+			long rows = new DatasetGenerator(numDevices, span, interval, numFiles, outOfOrderRatio, malformedRatio, seed).generate(Paths.get(output));
+			System.out.println("Generated " + rows + " observations for " + numDevices + " devices in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms at " + output);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error generating dataset - " + e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.out.println("Error writing dataset to " + output);
+			System.exit(1);
+		}
+	}
+}
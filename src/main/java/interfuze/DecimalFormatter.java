@@ -0,0 +1,197 @@
+package interfuze;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats numbers to at most two decimal places, producing the same text as DecimalFormat("#.##")
+ * without its per-call overhead.
+ *
+ * Values are rounded half-even (ties are decided by the exact binary value, as DecimalFormat does). The
+ * result is found with double arithmetic unless the value is close to a rounding tie or too large to
+ * scale exactly, in which case BigDecimal is used. Negative values that round to zero are formatted as "-0", as
+ * DecimalFormat does.
+ */
+public final class DecimalFormatter {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Formatter using '.' as the decimal separator and ASCII digits (for machine-readable output)
+	 */
+	public static final DecimalFormatter PLAIN = new DecimalFormatter('0', '.', '-', "NaN", "Infinity");
+
+	/**
+	 * Largest magnitude formatted with double arithmetic, small enough that the error of scaling by 100 is
+	 * well within the tie margin (larger values are formatted with BigDecimal)
+	 */
+	private static final double MAX_FAST = 1e9;
+
+	/**
+	 * Distance from a rounding tie (in hundredths) within which BigDecimal is used
+	 */
+	private static final double TIE_MARGIN = 1e-4;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Zero digit
+	 */
+	private final char zeroDigit;
+
+	/**
+	 * Decimal separator
+	 */
+	private final char decimalSeparator;
+
+	/**
+	 * Minus sign
+	 */
+	private final char minusSign;
+
+	/**
+	 * Text for NaN
+	 */
+	private final String nan;
+
+	/**
+	 * Text for infinity
+	 */
+	private final String infinity;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param zeroDigit The zero digit
+	 * @param decimalSeparator The decimal separator
+	 * @param minusSign The minus sign
+	 * @param nan The text for NaN
+	 * @param infinity The text for infinity
+	 */
+	private DecimalFormatter(char zeroDigit, char decimalSeparator, char minusSign, String nan, String infinity) {
+		this.zeroDigit = zeroDigit;
+		this.decimalSeparator = decimalSeparator;
+		this.minusSign = minusSign;
+		this.nan = nan;
+		this.infinity = infinity;
+	}
+
+	/**
+	 * Creates a formatter using the symbols of the default locale (matching DecimalFormat("#.##"))
+	 *
+	 * @return The formatter
+	 */
+	public static DecimalFormatter forDefaultLocale() {
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+		return new DecimalFormatter(symbols.getZeroDigit(), symbols.getDecimalSeparator(), symbols.getMinusSign(), symbols.getNaN(), symbols.getInfinity());
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Formats a number to at most two decimal places
+	 *
+	 * @param value The number
+	 * @return The formatted number
+	 */
+	public String format(double value) {
+		StringBuilder builder = new StringBuilder(16);
+		append(builder, value);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends a number formatted to at most two decimal places
+	 *
+	 * @param builder The builder to append to
+	 * @param value The number
+	 */
+	public void append(StringBuilder builder, double value) {
+		// Special values
+		if (Double.isNaN(value)) {
+			builder.append(nan);
+			return;
+		}
+		boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+		if (negative) { builder.append(minusSign); }
+		if (Double.isInfinite(value)) {
+			builder.append(infinity);
+			return;
+		}
+		double magnitude = Math.abs(value);
+
+		// Large values
+		if (magnitude >= MAX_FAST) {
+			appendSlow(builder, magnitude);
+			return;
+		}
+
+		// Round to hundredths (ties and values close to them are rounded exactly)
+		double scaled = magnitude * 100;
+		double floor = Math.floor(scaled);
+		double fraction = scaled - floor;
+		if (Math.abs(fraction - 0.5) < TIE_MARGIN) {
+			appendSlow(builder, magnitude);
+			return;
+		}
+		long hundredths = (long) floor + (fraction > 0.5 ? 1 : 0);
+		appendHundredths(builder, hundredths / 100, (int) (hundredths % 100));
+	}
+
+	/**
+	 * Appends a non-negative number rounded with BigDecimal. As with DecimalFormat, the shortest decimal
+	 * representation of the number is rounded, except that a tie in that representation is rounded
+	 * according to the exact binary value.
+	 *
+	 * @param builder The builder to append to
+	 * @param magnitude The number (not negative)
+	 */
+	private void appendSlow(StringBuilder builder, double magnitude) {
+		BigDecimal shortest = new BigDecimal(Double.toString(magnitude));
+		BigDecimal rounded = shortest.setScale(2, RoundingMode.HALF_EVEN);
+		if (shortest.setScale(2, RoundingMode.HALF_UP).compareTo(shortest.setScale(2, RoundingMode.HALF_DOWN)) != 0) {
+			int comparison = new BigDecimal(magnitude).compareTo(shortest);
+			if (comparison != 0) { rounded = shortest.setScale(2, comparison > 0 ? RoundingMode.UP : RoundingMode.DOWN); }
+		}
+		BigDecimal[] parts = rounded.divideAndRemainder(BigDecimal.ONE);
+		String integer = parts[0].toBigInteger().toString();
+		for (int i = 0; i < integer.length(); i++) {
+			builder.append((char) (zeroDigit + (integer.charAt(i) - '0')));
+		}
+		appendFraction(builder, parts[1].movePointRight(2).intValue());
+	}
+
+	/**
+	 * Appends a non-negative number given as its integer part and hundredths
+	 *
+	 * @param builder The builder to append to
+	 * @param integer The integer part
+	 * @param hundredths The hundredths (0 to 99)
+	 */
+	private void appendHundredths(StringBuilder builder, long integer, int hundredths) {
+		if (zeroDigit == '0') {
+			builder.append(integer);
+		} else {
+			String digits = Long.toString(integer);
+			for (int i = 0; i < digits.length(); i++) {
+				builder.append((char) (zeroDigit + (digits.charAt(i) - '0')));
+			}
+		}
+		appendFraction(builder, hundredths);
+	}
+
+	/**
+	 * Appends the fractional digits, omitting trailing zeros
+	 *
+	 * @param builder The builder to append to
+	 * @param hundredths The hundredths (0 to 99)
+	 */
+	private void appendFraction(StringBuilder builder, int hundredths) {
+		if (hundredths == 0) { return; }
+		builder.append(decimalSeparator).append((char) (zeroDigit + hundredths / 10));
+		if (hundredths % 10 != 0) { builder.append((char) (zeroDigit + hundredths % 10)); }
+	}
+}
@@ -1,12 +1,29 @@
 package interfuze;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Stores the information of a device.
  */
 public class Device {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Initial capacity of the observation arrays
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Estimated size of a Device object (header, 3 ints, 9 references, 2 longs and 2 booleans, with
+	 * compressed references)
+	 */
+	private static final int OBJECT_BYTES = (int) StringDictionary.align(12 + 3 * Integer.BYTES + 9 * 4 + 2 * Long.BYTES + 2);
+
+	/**
+	 * Estimated size of the rollup edges method reference (header and the captured device)
+	 */
+	private static final int EDGES_BYTES = 16;
 	
 	// ---- Variables ---- //
 
@@ -26,9 +43,69 @@ public class Device {
 	private final String location;
 
 	/**
-	 * List of observations
+	 * Observation times (stored as epoch milliseconds, parallel to rainfalls, null if stored off-heap)
+	 */
+	private long[] observationTimes = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Observation rainfall amounts (parallel to observationTimes, null if stored off-heap)
+	 */
+	private int[] rainfalls = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Capacity of the observation storage (a power of two)
+	 */
+	private int capacity = INITIAL_CAPACITY;
+
+	/**
+	 * Off-heap store holding the observations instead of the arrays (null unless enabled)
+	 */
+	private OffHeapObservationStore store = null;
+
+	/**
+	 * Address of the block of the observations in the off-heap store
+	 */
+	private long address = -1;
+
+	/**
+	 * Number of observations
 	 */
-	private List<Observation> observations = new ArrayList<>();
+	private int numObservations = 0;
+
+	/**
+	 * True if the observations are in time order (observations added out of order are sorted when next queried)
+	 */
+	private boolean sorted = true;
+
+	/**
+	 * Incremental aggregator for the lookback window (null unless enabled)
+	 */
+	private SlidingWindowAggregator windowAggregator = null;
+
+	/**
+	 * True if the window aggregator must be rebuilt from the observations (e.g. after an out of order observation)
+	 */
+	private boolean windowAggregatorStale = false;
+
+	/**
+	 * Time-bucketed rollups of the observations (null unless enabled)
+	 */
+	private ObservationRollup rollup = null;
+
+	/**
+	 * Adds the raw observations at the edges of a rollup query (null unless rollups are enabled)
+	 */
+	private ObservationRollup.Edges rollupEdges = null;
+
+	/**
+	 * Sketch of the rainfall of all of the observations (null unless enabled)
+	 */
+	private QuantileSketch quantileSketch = null;
+
+	/**
+	 * Observations at or before this time are no longer needed and are discarded (Long.MIN_VALUE keeps all observations)
+	 */
+	private long retentionBound = Long.MIN_VALUE;
 
 	// ---- Constructor ---- //
 
@@ -51,18 +128,20 @@ public class Device {
 	 * Calculates the average rainfall since a given time in millimeters (mm)
 	 * 
 	 * @param time The time to get the average rainfall since
-	 * @return The average rainfall since the given time in millimeters (mm)
+	 * @return The average rainfall since the given time in millimeters (mm), 0 if there are no observations since the time
 	 */
 	public double getAverageRainfallSince(long time) {
+		SlidingWindowAggregator aggregator = getWindowAggregatorSince(time);
+		if (aggregator != null) { return aggregator.getAverageRainfall(); }
+		if (rollup != null) { return getWindowSummarySince(time, Integer.MAX_VALUE).getAverageRainfall(); }
+
 		double totalRainfall = 0;
-		int count = 0;
-		for (Observation observation : observations) {
-			if (observation.getObservationTime() > time) {
-				totalRainfall += observation.getRainfall();
-				count++;
-			}
+		int start = indexAfter(time);
+		if (start == numObservations) { return 0; }
+		for (int i = start; i < numObservations; i++) {
+			totalRainfall += getRainfall(i);
 		}
-		return (double) (totalRainfall / count);
+		return (double) (totalRainfall / (numObservations - start));
 	}
 
 	/**
@@ -72,26 +151,21 @@ public class Device {
 	 * @return The change in rainfall since the given time in millimeters (mm)
 	 */
 	public double getChangeInRainfallSince(long time) {
-		// Sorting the observations by time	
-		observations.sort((o1, o2) -> Long.compare(o1.getObservationTime(), o2.getObservationTime()));
+		SlidingWindowAggregator aggregator = getWindowAggregatorSince(time);
+		if (aggregator != null) { return aggregator.getChangeInRainfall(); }
+		if (rollup != null) { return getWindowSummarySince(time, Integer.MAX_VALUE).getChangeInRainfall(); }
 
 		// Getting the first observation
-		Observation first = null;
-		for (Observation observation : observations) {
-			if (observation.getObservationTime() > time) {
-				first = observation;
-				break;
-			}
-		}
+		int first = indexAfter(time);
 
 		// Checking if there are no observations
-		if (first == null) { return 0; }
+		if (first == numObservations) { return 0; }
 
 		// Getting the last observation
-		Observation last = observations.get(observations.size() - 1);
+		int last = numObservations - 1;
 
 		// Calculating the change in rainfall
-		return last.getRainfall() - first.getRainfall();
+		return getRainfall(last) - getRainfall(first);
 	}
 
 	/**
@@ -102,14 +176,313 @@ public class Device {
 	 * @return True if the observations exceed the threshold since the given time, false otherwise
 	 */
 	public boolean isObservationsExceedingThresholdSince(int threshold, long time) {
-		for (Observation observation : observations) {
-			if (observation.getObservationTime() > time && observation.getRainfall() > threshold) {
+		SlidingWindowAggregator aggregator = getWindowAggregatorSince(time);
+		if (aggregator != null) { return aggregator.isExceedingThreshold(threshold); }
+		if (rollup != null) { return getWindowSummarySince(time, threshold).isExceedingThreshold(); }
+
+		for (int i = indexAfter(time); i < numObservations; i++) {
+			if (getRainfall(i) > threshold) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Summarises the observations since a given time in a single pass
+	 * 
+	 * @param time The time to summarise the observations since
+	 * @param threshold The rainfall threshold to check
+	 * @return The summary of the observations since the given time
+	 */
+	public WindowSummary getWindowSummarySince(long time, int threshold) {
+		SlidingWindowAggregator aggregator = getWindowAggregatorSince(time);
+		if (aggregator != null) { return aggregator.getSummary(threshold); }
+		if (rollup != null) { return getWindowSummaryBetween(time, Long.MAX_VALUE, threshold); }
+
+		// Checking if there are no observations
+		int start = indexAfter(time);
+		if (start == numObservations) { return new WindowSummary(0, 0, 0, 0, 0, false); }
+
+		// Calculating the total and maximum rainfall
+		long totalRainfall = 0;
+		int maxRainfall = Integer.MIN_VALUE;
+		for (int i = start; i < numObservations; i++) {
+			int rainfall = getRainfall(i);
+			totalRainfall += rainfall;
+			if (rainfall > maxRainfall) { maxRainfall = rainfall; }
+		}
+
+		return new WindowSummary(numObservations - start, totalRainfall, maxRainfall, getRainfall(start), getRainfall(numObservations - 1), maxRainfall > threshold);
+	}
+
+	/**
+	 * Summarises the observations since each of several times in a single pass. The observations are
+	 * scanned from the newest back to the earliest time, taking a summary each time the scan passes one
+	 * of the times, so the cost is that of summarising the longest window.
+	 * 
+	 * @param times The times to summarise the observations since (in any order)
+	 * @param threshold The rainfall threshold to check
+	 * @return The summary of the observations since each time (in the same order as the times)
+	 */
+	public WindowSummary[] getWindowSummariesSince(long[] times, int threshold) {
+		WindowSummary[] summaries = new WindowSummary[times.length];
+		// A single window, or windows answered from the rollups, are summarised separately
+		if (times.length == 1 || rollup != null) {
+			for (int i = 0; i < times.length; i++) {
+				summaries[i] = getWindowSummarySince(times[i], threshold);
+			}
+			return summaries;
+		}
+
+		// Order the times from the latest to the earliest (there are only a few, so an insertion sort is used)
+		int[] order = new int[times.length];
+		for (int i = 0; i < times.length; i++) {
+			int j = i;
+			for (; j > 0 && times[order[j - 1]] < times[i]; j--) { order[j] = order[j - 1]; }
+			order[j] = i;
+		}
+
+		// Scan the observations from the newest, summarising each window as its start is passed
+		if (!sorted) { sortObservations(); }
+		long totalRainfall = 0;
+		int maxRainfall = Integer.MIN_VALUE;
+		int i = numObservations - 1;
+		for (int window : order) {
+			for (; i >= 0 && getTime(i) > times[window]; i--) {
+				int rainfall = getRainfall(i);
+				totalRainfall += rainfall;
+				if (rainfall > maxRainfall) { maxRainfall = rainfall; }
+			}
+			int count = numObservations - 1 - i;
+			summaries[window] = count == 0 ? new WindowSummary(0, 0, 0, 0, 0, false)
+					: new WindowSummary(count, totalRainfall, maxRainfall, getRainfall(i + 1), getRainfall(numObservations - 1), maxRainfall > threshold);
+		}
+		return summaries;
+	}
+
+	/**
+	 * Summarises the observations in the times (from, to]. With rollups enabled the whole buckets inside
+	 * the range are combined and only the raw observations at its edges are scanned; an edge whose raw
+	 * observations may have been discarded (before the retention bound) is widened to the enclosing 5
+	 * minute bucket.
+	 * 
+	 * @param from The start of the range (exclusive)
+	 * @param to The end of the range (inclusive)
+	 * @param threshold The rainfall threshold to check
+	 * @return The summary of the observations in the range
+	 */
+	public WindowSummary getWindowSummaryBetween(long from, long to, int threshold) {
+		ObservationRollup.Summary summary = new ObservationRollup.Summary();
+		if (rollup != null) {
+			rollup.summarise(from, to, retentionBound, rollupEdges, summary);
+		} else {
+			summariseRaw(from, to, summary);
+		}
+		return summary.toWindowSummary(threshold);
+	}
+
+	/**
+	 * Adds the raw observations in the times (from, to] to a summary
+	 * 
+	 * @param from The start of the range (exclusive)
+	 * @param to The end of the range (inclusive)
+	 * @param summary The summary
+	 */
+	private void summariseRaw(long from, long to, ObservationRollup.Summary summary) {
+		if (from >= to) { return; }
+		int end = indexAfter(to);
+		for (int i = indexAfter(from); i < end; i++) {
+			summary.add(getRainfall(i));
+		}
+	}
+
+	/**
+	 * Enables time-bucketed rollups of the observations (including those already added). Once enabled,
+	 * window queries combine whole buckets and only scan the raw observations at the edges of the window,
+	 * and observations at or before the retention bound are still added to the rollups.
+	 */
+	public void enableRollups() {
+		if (rollup == null) {
+			rollup = new ObservationRollup();
+			rollupEdges = this::summariseRaw;
+			for (int i = 0; i < numObservations; i++) {
+				rollup.add(getTime(i), getRainfall(i));
+			}
+		}
+	}
+
+	/**
+	 * Moves the observations to an off-heap store (including those already added), so they no longer
+	 * take up heap space. Window queries read the observations straight from the store.
+	 *
+	 * @param store The off-heap store
+	 * @throws OutOfMemoryError If the store does not have space for the observations
+	 */
+	public void enableOffHeap(OffHeapObservationStore store) {
+		if (this.store != null) { return; }
+		long block = store.allocate(capacity);
+		for (int i = 0; i < numObservations; i++) {
+			store.set(block, i, observationTimes[i], rainfalls[i]);
+		}
+		this.store = store;
+		this.address = block;
+		observationTimes = null;
+		rainfalls = null;
+	}
+
+	/**
+	 * Enables a quantile sketch of the rainfall of all of the observations (including those already
+	 * added, and those later discarded by the retention bound).
+	 */
+	public void enableQuantileSketch() {
+		if (quantileSketch == null) {
+			quantileSketch = new QuantileSketch();
+			for (int i = 0; i < numObservations; i++) {
+				quantileSketch.update(getRainfall(i));
+			}
+		}
+	}
+
+	/**
+	 * Sketches the rainfall of the observations since a given time, reading the observations once without
+	 * sorting them by rainfall
+	 *
+	 * @param time The time to sketch the observations since
+	 * @return The quantile sketch of the rainfall since the given time
+	 */
+	public QuantileSketch getQuantileSketchSince(long time) {
+		QuantileSketch sketch = new QuantileSketch();
+		for (int i = indexAfter(time); i < numObservations; i++) {
+			sketch.update(getRainfall(i));
+		}
+		return sketch;
+	}
+
+	/**
+	 * Estimates the heap memory used by the device, excluding its raw observations (the device itself and
+	 * its window aggregator, rollups and quantile sketch when they are enabled)
+	 *
+	 * @return The estimated size (bytes)
+	 */
+	public long estimateMemoryBytes() {
+		long bytes = OBJECT_BYTES;
+		if (windowAggregator != null) { bytes += windowAggregator.estimateMemoryBytes(); }
+		if (rollup != null) { bytes += EDGES_BYTES + rollup.estimateMemoryBytes(); }
+		if (quantileSketch != null) { bytes += quantileSketch.estimateMemoryBytes(); }
+		return bytes;
+	}
+
+	/**
+	 * Enables incremental aggregation of the lookback window. Once enabled, queries whose lookback time
+	 * does not move backwards cost O(1) (plus evicting the observations that left the window).
+	 */
+	public void enableWindowAggregator() {
+		if (windowAggregator == null) {
+			windowAggregator = new SlidingWindowAggregator();
+			windowAggregatorStale = true;
+		}
+	}
+
+	/**
+	 * Gets the window aggregator moved to a given lookback time, rebuilding it if needed.
+	 * 
+	 * @param time The lookback time
+	 * @return The window aggregator, or null if it is not enabled
+	 */
+	private SlidingWindowAggregator getWindowAggregatorSince(long time) {
+		if (windowAggregator == null) { return null; }
+
+		// Move the window forward
+		if (!windowAggregatorStale && windowAggregator.advanceTo(time)) { return windowAggregator; }
+
+		// Rebuild the window from the observations
+		windowAggregator.reset(time);
+		for (int i = indexAfter(time); i < numObservations; i++) {
+			windowAggregator.add(getTime(i), getRainfall(i));
+		}
+		windowAggregatorStale = false;
+		return windowAggregator;
+	}
+
+	/**
+	 * Finds the index of the first observation after a given time, sorting the observations first if needed.
+	 * 
+	 * @param time The time to search after
+	 * @return The index of the first observation after the given time (numObservations if there are none)
+	 */
+	private int indexAfter(long time) {
+		// Sorting the observations by time
+		if (!sorted) { sortObservations(); }
+
+		// Binary search for the first observation after the time
+		int low = 0;
+		int high = numObservations;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getTime(middle) > time) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Sorts the observations by time (a stable sort, so observations with the same time keep the order they were added in)
+	 */
+	private void sortObservations() {
+		// Sort the off-heap block
+		if (store != null) {
+			address = store.sort(address, capacity, numObservations);
+			sorted = true;
+			return;
+		}
+
+		// Bottom up merge sort of the parallel arrays
+		long[] times = observationTimes;
+		int[] values = rainfalls;
+		long[] timesBuffer = new long[times.length];
+		int[] valuesBuffer = new int[values.length];
+		for (int width = 1; width < numObservations; width *= 2) {
+			for (int left = 0; left < numObservations; left += 2 * width) {
+				int middle = Math.min(left + width, numObservations);
+				int right = Math.min(left + 2 * width, numObservations);
+
+				// Runs that are already in order are copied without merging
+				if (middle == right || times[middle - 1] <= times[middle]) {
+					System.arraycopy(times, left, timesBuffer, left, right - left);
+					System.arraycopy(values, left, valuesBuffer, left, right - left);
+					continue;
+				}
+
+				int a = left;
+				int b = middle;
+				for (int k = left; k < right; k++) {
+					if (a < middle && (b >= right || times[a] <= times[b])) {
+						timesBuffer[k] = times[a];
+						valuesBuffer[k] = values[a++];
+					} else {
+						timesBuffer[k] = times[b];
+						valuesBuffer[k] = values[b++];
+					}
+				}
+			}
+
+			// Swap the arrays
+			long[] swapTimes = times;
+			times = timesBuffer;
+			timesBuffer = swapTimes;
+			int[] swapValues = values;
+			values = valuesBuffer;
+			valuesBuffer = swapValues;
+		}
+		observationTimes = times;
+		rainfalls = values;
+		sorted = true;
+	}
+
 	// ---- Setters ---- //
 
 	/**
@@ -118,11 +491,150 @@ public class Device {
 	 * @param observation The observation to add
 	 */
 	public void addObservation(Observation observation) {
-		observations.add(observation);
+		addObservation(observation.getObservationTime(), observation.getRainfall());
+	}
+
+	/**
+	 * Adds an observation to the device
+	 * 
+	 * @param observationTime The time of the observation (epoch milliseconds)
+	 * @param rainfall The amount of rainfall
+	 */
+	public void addObservation(long observationTime, int rainfall) {
+		// Update the rollups and quantile sketch (which keep the observations discarded below)
+		if (rollup != null) { rollup.add(observationTime, rainfall); }
+		if (quantileSketch != null) { quantileSketch.update(rainfall); }
+
+		// Ignore observations that are no longer needed
+		if (observationTime <= retentionBound) { return; }
+
+		// Discard old observations or grow the storage if it is full
+		if (numObservations == capacity) {
+			if (retentionBound != Long.MIN_VALUE) { discardObservations(); }
+			if (numObservations * 4 > capacity * 3) { resize(capacity * 2); }
+		}
+
+		// Check if the observation is out of order
+		if (numObservations > 0 && observationTime < getTime(numObservations - 1)) { sorted = false; }
+
+		// Store the observation
+		setObservation(numObservations, observationTime, rainfall);
+		numObservations++;
+
+		// Update the window aggregator (an out of order observation means it must be rebuilt)
+		if (windowAggregator != null && !windowAggregatorStale && !windowAggregator.add(observationTime, rainfall)) {
+			windowAggregatorStale = true;
+		}
+	}
+
+	/**
+	 * Sets the time at or before which observations are no longer needed. Older observations are discarded
+	 * when the arrays next fill up (or when compact is called) and new ones are ignored, so the memory used
+	 * stays proportional to the observations after the bound. The bound never moves backwards.
+	 * 
+	 * @param time The retention bound
+	 */
+	public void setRetentionBound(long time) {
+		if (time > retentionBound) { retentionBound = time; }
+	}
+
+	/**
+	 * Discards the observations at or before the retention bound and shrinks the arrays to fit
+	 */
+	public void compact() {
+		discardObservations();
+		int fitted = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(numObservations, 1) - 1) << 1);
+		if (fitted < capacity) { resize(fitted); }
+	}
+
+	/**
+	 * Removes the observations at or before the retention bound, keeping the order of the remaining observations
+	 */
+	private void discardObservations() {
+		int kept = 0;
+		for (int i = 0; i < numObservations; i++) {
+			long time = getTime(i);
+			if (time > retentionBound) {
+				setObservation(kept, time, getRainfall(i));
+				kept++;
+			}
+		}
+		numObservations = kept;
+	}
+
+	// -- Storage -- //
+
+	/**
+	 * Gets the time of an observation
+	 *
+	 * @param index The index of the observation
+	 * @return The time of the observation
+	 */
+	private long getTime(int index) {
+		return store == null ? observationTimes[index] : store.getTime(address, index);
+	}
+
+	/**
+	 * Gets the rainfall of an observation
+	 *
+	 * @param index The index of the observation
+	 * @return The amount of rainfall
+	 */
+	private int getRainfall(int index) {
+		return store == null ? rainfalls[index] : store.getRainfall(address, index);
+	}
+
+	/**
+	 * Sets an observation
+	 *
+	 * @param index The index of the observation
+	 * @param time The time of the observation
+	 * @param rainfall The amount of rainfall
+	 */
+	private void setObservation(int index, long time, int rainfall) {
+		if (store == null) {
+			observationTimes[index] = time;
+			rainfalls[index] = rainfall;
+		} else {
+			store.set(address, index, time, rainfall);
+		}
+	}
+
+	/**
+	 * Resizes the observation storage, keeping the observations
+	 *
+	 * @param newCapacity The new capacity (a power of two)
+	 */
+	private void resize(int newCapacity) {
+		if (store == null) {
+			observationTimes = Arrays.copyOf(observationTimes, newCapacity);
+			rainfalls = Arrays.copyOf(rainfalls, newCapacity);
+		} else {
+			address = store.reallocate(address, capacity, newCapacity, numObservations);
+		}
+		capacity = newCapacity;
 	}
 
 	// ---- Getters ---- //
 
+	/**
+	 * Gets the number of observations
+	 * 
+	 * @return The number of observations
+	 */
+	public int getNumObservations() {
+		return numObservations;
+	}
+
+	/**
+	 * Gets the quantile sketch of the rainfall of all of the observations
+	 * 
+	 * @return The quantile sketch, or null if it is not enabled
+	 */
+	public QuantileSketch getQuantileSketch() {
+		return quantileSketch;
+	}
+
 	/**
 	 * Gets the device ID
 	 * 
@@ -0,0 +1,252 @@
+package interfuze;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Registry of the devices, keyed by device ID.
+ *
+ * Device IDs are looked up in an open addressing hash table of primitive ints (with linear probing), so
+ * finding the device of an observation does not box the ID or allocate. The devices are stored in the
+ * order they were added, and their names and locations are dictionary encoded so that devices with the
+ * same location (or name) share a single string.
+ */
+public class DeviceRegistry {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Marks an empty slot of the hash table
+	 */
+	private static final int EMPTY = -1;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Device IDs of the slots of the hash table
+	 */
+	private int[] keys;
+
+	/**
+	 * Index of the device of each slot of the hash table (EMPTY if the slot is empty)
+	 */
+	private int[] slots;
+
+	/**
+	 * The devices, in the order they were added
+	 */
+	private Device[] devices;
+
+	/**
+	 * Code of the location of each device (parallel to devices)
+	 */
+	private int[] locationCodes;
+
+	/**
+	 * Number of devices
+	 */
+	private int size = 0;
+
+	/**
+	 * Dictionary of the device names
+	 */
+	private final StringDictionary names = new StringDictionary();
+
+	/**
+	 * Dictionary of the device locations
+	 */
+	private final StringDictionary locations = new StringDictionary();
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 */
+	public DeviceRegistry() {
+		this(16);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param expectedSize The expected number of devices
+	 */
+	public DeviceRegistry(int expectedSize) {
+		int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize)) * 4);
+		keys = new int[capacity];
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		devices = new Device[Math.max(16, expectedSize)];
+		locationCodes = new int[devices.length];
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Adds a device, replacing any device with the same ID
+	 *
+	 * @param deviceID The unique ID of the device
+	 * @param deviceName The name of the device
+	 * @param location The location of the device
+	 * @return The device
+	 */
+	public Device add(int deviceID, String deviceName, String location) {
+		int locationCode = locations.encode(location);
+		Device device = new Device(deviceID, names.intern(deviceName), locations.decode(locationCode));
+
+		// Replace an existing device
+		int slot = find(deviceID);
+		if (slots[slot] != EMPTY) {
+			int index = slots[slot];
+			devices[index] = device;
+			locationCodes[index] = locationCode;
+			return device;
+		}
+
+		// Grow the devices arrays if they are full
+		if (size == devices.length) {
+			int capacity = size * 2;
+			devices = Arrays.copyOf(devices, capacity);
+			locationCodes = Arrays.copyOf(locationCodes, capacity);
+		}
+		devices[size] = device;
+		locationCodes[size] = locationCode;
+		keys[slot] = deviceID;
+		slots[slot] = size++;
+
+		// Keep the hash table at most half full
+		if (size * 2 > keys.length) { rehash(keys.length * 2); }
+		return device;
+	}
+
+	/**
+	 * Gets a device by its ID (without allocating)
+	 *
+	 * @param deviceID The unique ID of the device
+	 * @return The device, or null if there is no device with the ID
+	 */
+	public Device get(int deviceID) {
+		int index = slots[find(deviceID)];
+		return index == EMPTY ? null : devices[index];
+	}
+
+	/**
+	 * Gets the location code of a device (devices at the same location have the same code)
+	 *
+	 * @param deviceID The unique ID of the device
+	 * @return The location code, or -1 if there is no device with the ID
+	 * @see #getLocations()
+	 */
+	public int getLocationCode(int deviceID) {
+		int index = slots[find(deviceID)];
+		return index == EMPTY ? -1 : locationCodes[index];
+	}
+
+	/**
+	 * Gets a view of the devices, in the order they were added
+	 *
+	 * @return The devices
+	 */
+	public List<Device> values() {
+		return new AbstractList<Device>() {
+			@Override
+			public Device get(int index) {
+				if (index >= size) { throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size); }
+				return devices[index];
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Estimates the memory used by the registry (the hash table, the devices excluding their raw
+	 * observations and the dictionaries)
+	 *
+	 * @return The estimated size (bytes)
+	 */
+	public long estimateMemoryBytes() {
+		long table = 2 * StringDictionary.align(16 + 4L * keys.length);
+		long arrays = StringDictionary.align(16 + 4L * devices.length) + StringDictionary.align(16 + 4L * locationCodes.length);
+		long bytes = table + arrays + names.estimateMemoryBytes() + locations.estimateMemoryBytes();
+		for (int i = 0; i < size; i++) {
+			bytes += devices[i].estimateMemoryBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Finds the slot of a device ID in the hash table
+	 *
+	 * @param deviceID The device ID
+	 * @return The slot holding the ID, or the empty slot where it would be added
+	 */
+	private int find(int deviceID) {
+		int mask = keys.length - 1;
+		int slot = hash(deviceID) & mask;
+		while (slots[slot] != EMPTY && keys[slot] != deviceID) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Rebuilds the hash table with a new capacity
+	 *
+	 * @param capacity The new capacity (a power of two)
+	 */
+	private void rehash(int capacity) {
+		keys = new int[capacity];
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		for (int i = 0; i < size; i++) {
+			int slot = find(devices[i].getDeviceID());
+			keys[slot] = devices[i].getDeviceID();
+			slots[slot] = i;
+		}
+	}
+
+	/**
+	 * Spreads the bits of a device ID (sequential IDs would otherwise fill runs of adjacent slots)
+	 *
+	 * @param deviceID The device ID
+	 * @return The hash
+	 */
+	private static int hash(int deviceID) {
+		int hash = deviceID * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the number of devices
+	 *
+	 * @return The number of devices
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the dictionary of the device names
+	 *
+	 * @return The dictionary of the device names
+	 */
+	public StringDictionary getNames() {
+		return names;
+	}
+
+	/**
+	 * Gets the dictionary of the device locations
+	 *
+	 * @return The dictionary of the device locations
+	 */
+	public StringDictionary getLocations() {
+		return locations;
+	}
+}
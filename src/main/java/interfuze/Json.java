@@ -0,0 +1,50 @@
+package interfuze;
+
+/**
+ * Helpers for writing JSON.
+ */
+public final class Json {
+
+	/**
+	 * Constructor (not used)
+	 */
+	private Json() {
+	}
+
+	/**
+	 * Appends a string as a quoted JSON string
+	 *
+	 * @param builder The builder to append to
+	 * @param value The string (null is written as null)
+	 */
+	public static void appendString(StringBuilder builder, String value) {
+		if (value == null) {
+			builder.append("null");
+			return;
+		}
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+
+	/**
+	 * Quotes a string for JSON
+	 *
+	 * @param value The string
+	 * @return The quoted and escaped string
+	 */
+	public static String quote(String value) {
+		StringBuilder builder = new StringBuilder(value == null ? 4 : value.length() + 2);
+		appendString(builder, value);
+		return builder.toString();
+	}
+}
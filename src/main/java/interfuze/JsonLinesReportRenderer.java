@@ -0,0 +1,91 @@
+package interfuze;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the report as JSON lines, with one JSON object per device.
+ *
+ * Each object holds a summary for each lookback window, along with the thresholds exceeded in it.
+ *
+ * Numbers are written to at most two decimal places with '.' as the decimal separator.
+ */
+public class JsonLinesReportRenderer implements ReportRenderer {
+
+	// ---- Variables ---- //
+
+	/**
+	 * The output
+	 */
+	private final Writer out;
+
+	/**
+	 * Lengths of the lookback windows (milliseconds)
+	 */
+	private final long[] windows;
+
+	/**
+	 * The rainfall thresholds (in increasing order)
+	 */
+	private final int[] thresholds;
+
+	/**
+	 * Builder of the current line
+	 */
+	private final StringBuilder line = new StringBuilder(256);
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param out The output
+	 * @param windows The lengths of the lookback windows (milliseconds)
+	 * @param thresholds The rainfall thresholds (in increasing order)
+	 */
+	public JsonLinesReportRenderer(Writer out, long[] windows, int[] thresholds) {
+		this.out = out;
+		this.windows = windows;
+		this.thresholds = thresholds;
+	}
+
+	// ---- Methods ---- //
+
+	@Override
+	public void writeHeader() throws IOException {
+		// No header
+	}
+
+	@Override
+	public void writeRow(Device device, WindowSummary[] summaries) throws IOException {
+		line.setLength(0);
+		line.append("{\"deviceID\":").append(device.getDeviceID()).append(",\"deviceName\":");
+		Json.appendString(line, device.getDeviceName());
+		line.append(",\"location\":");
+		Json.appendString(line, device.getLocation());
+		line.append(",\"windows\":[");
+		for (int i = 0; i < summaries.length; i++) {
+			WindowSummary summary = summaries[i];
+			line.append(i == 0 ? "{" : ",{").append("\"windowMinutes\":").append(TimeUnit.MILLISECONDS.toMinutes(windows[i]));
+			line.append(",\"observations\":").append(summary.getCount()).append(",\"averageRainfall\":");
+			DecimalFormatter.PLAIN.append(line, summary.getAverageRainfall());
+			line.append(",\"changeInRainfall\":").append(summary.getChangeInRainfall()).append(",\"thresholdsExceeded\":[");
+			boolean first = true;
+			for (int threshold : thresholds) {
+				if (summary.isExceeding(threshold)) {
+					line.append(first ? "" : ",").append(threshold);
+					first = false;
+				}
+			}
+			line.append("]}");
+		}
+		line.append("]}\n");
+		out.append(line);
+	}
+
+	@Override
+	public void writeFooter() throws IOException {
+		// No footer
+	}
+}
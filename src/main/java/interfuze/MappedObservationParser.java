@@ -0,0 +1,455 @@
+package interfuze;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses observations CSV files directly from a memory mapped file.
+ *
+ * This parser only supports the fixed observations schema (a "Device ID,Time,Rainfall" header followed
+ * by unquoted ASCII rows with exactly three fields) and decodes the device ID, time and rainfall straight
+ * from the mapped bytes. Any file using other CSV features (quoting, other columns, non-ASCII characters,
+ * etc.) is reported as unsupported so that it can be parsed with Commons CSV instead.
+ *
+ * Input that cannot be mapped (e.g. a decompressed stream) is parsed with the same row parser, a buffer
+ * at a time.
+ */
+public class MappedObservationParser {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Expected header row of an observations CSV
+	 */
+	private static final byte[] HEADER = "Device ID,Time,Rainfall".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Maximum number of bytes mapped at once (mapped buffers are limited to 2 GB)
+	 */
+	private static final int MAX_WINDOW_SIZE = 1 << 30;
+
+	/**
+	 * Initial size of the buffer used when parsing a stream (grown if a row does not fit)
+	 */
+	private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Returned by the parsing methods when the input cannot be handled by this parser
+	 */
+	static final int UNSUPPORTED = -1;
+
+	/**
+	 * Returned by parseHeader when more input is needed to check the header
+	 */
+	static final int INCOMPLETE = -2;
+
+	/**
+	 * Returned by parseInt when the bytes are not a valid integer
+	 */
+	private static final long INVALID_INT = Long.MIN_VALUE;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Batch the parsed observations are added to
+	 */
+	private final ObservationBatch batch;
+
+	/**
+	 * Decoder for observation times
+	 */
+	private final TimestampDecoder timestampDecoder = App.TIMESTAMP_DECODER;
+
+	/**
+	 * Error messages for skipped rows (printed once the whole file is known to be supported)
+	 */
+	private final List<String> messages = new ArrayList<>();
+
+	/**
+	 * Window size used when mapping files (configurable for testing)
+	 */
+	private final int windowSize;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param batch The batch the parsed observations are added to
+	 */
+	public MappedObservationParser(ObservationBatch batch) {
+		this(batch, MAX_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param batch The batch the parsed observations are added to
+	 * @param windowSize The maximum number of bytes to map at once
+	 */
+	MappedObservationParser(ObservationBatch batch, int windowSize) {
+		this.batch = batch;
+		this.windowSize = windowSize;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Parses an observations CSV file through a memory mapping.
+	 *
+	 * @param path The path of the observations CSV
+	 * @throws IOException If there is an error reading the file
+	 * @return The batch of observations, or null if the file is not supported by this parser
+	 */
+	public static ObservationBatch read(Path path) throws IOException {
+		MappedObservationParser parser = new MappedObservationParser(new ObservationBatch());
+		return parser.readFile(path) ? parser.batch : null;
+	}
+
+	/**
+	 * Parses an observations CSV from a stream, such as a decompressed file.
+	 *
+	 * @param in The stream of the observations CSV (not closed)
+	 * @throws IOException If there is an error reading the stream
+	 * @return The batch of observations, or null if the input is not supported by this parser (in which
+	 *         case the stream has been partly read)
+	 */
+	public static ObservationBatch read(InputStream in) throws IOException {
+		MappedObservationParser parser = new MappedObservationParser(new ObservationBatch());
+		if (!parser.readStream(in)) { return null; }
+		parser.printMessages();
+		return parser.batch;
+	}
+
+	/**
+	 * Parses an observations CSV from a stream a buffer at a time. The incomplete row at the end of each
+	 * buffer is moved to the start of the buffer before reading more.
+	 *
+	 * @param in The stream of the observations CSV
+	 * @throws IOException If there is an error reading the stream
+	 * @return True if the stream was parsed, false if it is not supported by this parser
+	 */
+	boolean readStream(InputStream in) throws IOException {
+		byte[] bytes = new byte[STREAM_BUFFER_SIZE];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		int length = 0;
+		boolean headerParsed = false;
+		boolean endOfInput = false;
+		while (!endOfInput) {
+			// Read more of the stream
+			int read = in.read(bytes, length, bytes.length - length);
+			if (read < 0) { endOfInput = true; } else { length += read; }
+
+			// Check the header (empty input is left to Commons CSV)
+			int from = 0;
+			if (!headerParsed) {
+				from = parseHeader(buffer, 0, length, endOfInput);
+				if (from == INCOMPLETE) { continue; }
+				if (from < 0) { return false; }
+				headerParsed = true;
+			}
+
+			// Parse the complete rows in the buffer
+			int to = parseRows(buffer, from, length, endOfInput);
+			if (to == UNSUPPORTED) { return false; }
+
+			// Keep the incomplete row, growing the buffer if it fills the buffer
+			System.arraycopy(bytes, to, bytes, 0, length - to);
+			length -= to;
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+				buffer = ByteBuffer.wrap(bytes);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses an observations CSV file through one or more memory mapped windows.
+	 *
+	 * @param path The path of the observations CSV
+	 * @throws IOException If there is an error reading the file
+	 * @return True if the file was parsed, false if it is not supported by this parser
+	 */
+	boolean readFile(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+
+			// Leave empty files to Commons CSV
+			if (fileSize == 0) { return false; }
+
+			// Parse the whole file
+			if (readRange(channel, 0, fileSize, true) == UNSUPPORTED) { return false; }
+		}
+
+		// Print the error messages for skipped rows
+		printMessages();
+		return true;
+	}
+
+	/**
+	 * Parses the rows in a range of a file through one or more memory mapped windows. The header is
+	 * checked when the range starts at the beginning of the file. Error messages for skipped rows are
+	 * kept until printMessages is called.
+	 *
+	 * @param channel The file channel
+	 * @param start The position of the start of the first row (or 0 for the header)
+	 * @param end The position after the last byte of the range
+	 * @param endOfInput True if the range ends at the end of the input (the last row does not need a line ending)
+	 * @throws IOException If there is an error reading the file
+	 * @return The position after the last complete row parsed, or UNSUPPORTED if the file is not supported by this parser
+	 */
+	long readRange(FileChannel channel, long start, long end, boolean endOfInput) throws IOException {
+		// Map the range a window at a time, always starting a window at the start of a row
+		long position = start;
+		boolean headerParsed = start > 0;
+		while (position < end) {
+			int length = (int) Math.min(windowSize, end - position);
+			boolean lastWindow = position + length == end;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+			// Check the header
+			int from = 0;
+			if (!headerParsed) {
+				from = parseHeader(buffer, 0, length, endOfInput && lastWindow);
+				if (from == INCOMPLETE && lastWindow && !endOfInput) { break; }
+				if (from < 0) { return UNSUPPORTED; }
+				headerParsed = true;
+			}
+
+			// Parse the rows in the window
+			int to = parseRows(buffer, from, length, endOfInput && lastWindow);
+			if (to == UNSUPPORTED) { return UNSUPPORTED; }
+
+			// Stop at an incomplete row at the end of the range (a row longer than a window can not be parsed)
+			if (to == 0) {
+				if (lastWindow) { break; }
+				return UNSUPPORTED;
+			}
+			position += to;
+		}
+		return position;
+	}
+
+	/**
+	 * Checks the header row of an observations CSV.
+	 *
+	 * @param buffer The buffer containing the header
+	 * @param start The index of the start of the header
+	 * @param end The index after the last byte available
+	 * @param endOfInput True if there is no more input after the end index
+	 * @return The index of the first row after the header, UNSUPPORTED if the header is not supported, or
+	 *         INCOMPLETE if the available bytes are the start of a supported header
+	 */
+	int parseHeader(ByteBuffer buffer, int start, int end, boolean endOfInput) {
+		// Check the header names
+		for (int i = 0; i < HEADER.length; i++) {
+			if (start + i == end) { return endOfInput ? UNSUPPORTED : INCOMPLETE; }
+			if (buffer.get(start + i) != HEADER[i]) { return UNSUPPORTED; }
+		}
+
+		// Check the header line ending
+		int index = start + HEADER.length;
+		if (index == end) { return endOfInput ? index : INCOMPLETE; }
+		if (buffer.get(index) == '\n') { return index + 1; }
+		if (buffer.get(index) == '\r') {
+			if (index + 1 == end) { return endOfInput ? UNSUPPORTED : INCOMPLETE; }
+			if (buffer.get(index + 1) == '\n') { return index + 2; }
+		}
+		return UNSUPPORTED;
+	}
+
+	/**
+	 * Parses the complete rows in a buffer and adds them to the batch.
+	 *
+	 * @param buffer The buffer containing the rows
+	 * @param start The index of the start of the first row
+	 * @param end The index after the last byte available
+	 * @param endOfInput True if there is no more input after the end index (the last row does not need a line ending)
+	 * @return The index after the last complete row parsed, or UNSUPPORTED if a row is not supported
+	 */
+	int parseRows(ByteBuffer buffer, int start, int end, boolean endOfInput) {
+		int rowStart = start;
+		while (rowStart < end) {
+			// Find the field separators and the end of the row
+			int firstComma = -1;
+			int secondComma = -1;
+			int numCommas = 0;
+			int numCarriageReturns = 0;
+			int index = rowStart;
+			int rowEnd = -1;
+			while (index < end) {
+				byte b = buffer.get(index);
+				if (b == '\n') {
+					rowEnd = index;
+					break;
+				} else if (b == ',') {
+					if (numCommas == 0) { firstComma = index; } else if (numCommas == 1) { secondComma = index; }
+					numCommas++;
+				} else if (b == '\r') {
+					numCarriageReturns++;
+				} else if (b == '"' || b < 0) {
+					// Quoted fields and non-ASCII characters are left to Commons CSV
+					return UNSUPPORTED;
+				}
+				index++;
+			}
+
+			// Handle a row without a line ending
+			int next;
+			if (rowEnd == -1) {
+				if (!endOfInput) { break; }
+				rowEnd = end;
+				next = end;
+			} else {
+				next = rowEnd + 1;
+			}
+
+			// Remove the carriage return of a CRLF line ending (a lone carriage return is left to Commons CSV)
+			if (numCarriageReturns > 0) {
+				if (numCarriageReturns > 1 || buffer.get(rowEnd - 1) != '\r') { return UNSUPPORTED; }
+				rowEnd--;
+			}
+
+			// Skip empty rows
+			if (rowEnd == rowStart) {
+				rowStart = next;
+				continue;
+			}
+
+			// Rows must have exactly three fields
+			if (numCommas != 2) { return UNSUPPORTED; }
+
+			// Parse the row
+			parseRow(buffer, rowStart, firstComma, secondComma, rowEnd);
+			rowStart = next;
+		}
+		return rowStart;
+	}
+
+	/**
+	 * Parses a single row and adds it to the batch, or records an error if it can not be parsed.
+	 *
+	 * @param buffer The buffer containing the row
+	 * @param rowStart The index of the start of the row
+	 * @param firstComma The index of the first field separator
+	 * @param secondComma The index of the second field separator
+	 * @param rowEnd The index of the end of the row
+	 */
+	private void parseRow(ByteBuffer buffer, int rowStart, int firstComma, int secondComma, int rowEnd) {
+		// Parse the device ID
+		long deviceID = parseInt(buffer, rowStart, firstComma);
+		if (deviceID == INVALID_INT) {
+			String value = decode(buffer, rowStart, firstComma);
+			messages.add(App.ANSI_RED + "Error" + App.ANSI_RESET + " parsing observation - Device ID = " + (value.equals("") ? "N/A" : value) + " - Skipping record");
+			batch.addError();
+			return;
+		}
+
+		// Parse the observation time
+		long observationTime;
+		try {
+			observationTime = timestampDecoder.decode(buffer, firstComma + 1, secondComma);
+		} catch (ParseException e) {
+			String time = decode(buffer, firstComma + 1, secondComma);
+			messages.add(App.ANSI_RED + "Error" + App.ANSI_RESET + " parsing observation time - Observation Time = " + (time.equals("") ? "N/A" : time) + " - Skipping record");
+			batch.addError();
+			return;
+		}
+
+		// Parse the rainfall
+		long rainfall = parseInt(buffer, secondComma + 1, rowEnd);
+		if (rainfall == INVALID_INT) {
+			String value = decode(buffer, rowStart, firstComma);
+			messages.add(App.ANSI_RED + "Error" + App.ANSI_RESET + " parsing observation - Device ID = " + (value.equals("") ? "N/A" : value) + " - Skipping record");
+			batch.addError();
+			return;
+		}
+
+		// Add the observation to the batch
+		batch.add((int) deviceID, observationTime, (int) rainfall);
+	}
+
+	/**
+	 * Prints the error messages for skipped rows
+	 */
+	void printMessages() {
+		for (String message : messages) {
+			System.out.println(message);
+		}
+		messages.clear();
+	}
+
+	/**
+	 * Parses an integer from ASCII bytes with the same rules as Integer.parseInt.
+	 *
+	 * @param buffer The buffer containing the integer
+	 * @param start The index of the first byte
+	 * @param end The index after the last byte
+	 * @return The integer, or INVALID_INT if the bytes are not a valid integer
+	 */
+	static long parseInt(ByteBuffer buffer, int start, int end) {
+		if (start >= end) { return INVALID_INT; }
+
+		// Parse the sign
+		boolean negative = false;
+		int index = start;
+		byte first = buffer.get(index);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			index++;
+			if (index == end) { return INVALID_INT; }
+		}
+
+		// Parse the digits (accumulated negatively so that Integer.MIN_VALUE can be represented)
+		long result = 0;
+		for (; index < end; index++) {
+			int digit = buffer.get(index) - '0';
+			if (digit < 0 || digit > 9) { return INVALID_INT; }
+			result = result * 10 - digit;
+			if (result < Integer.MIN_VALUE) { return INVALID_INT; }
+		}
+
+		// Apply the sign
+		if (negative) { return result; }
+		if (result == Integer.MIN_VALUE) { return INVALID_INT; }
+		return -result;
+	}
+
+	/**
+	 * Decodes ASCII bytes into a String (only used for values that need a String)
+	 *
+	 * @param buffer The buffer containing the value
+	 * @param start The index of the first byte
+	 * @param end The index after the last byte
+	 * @return The decoded String
+	 */
+	private static String decode(ByteBuffer buffer, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = (char) buffer.get(i);
+		}
+		return new String(chars);
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the batch the parsed observations are added to
+	 *
+	 * @return The batch
+	 */
+	public ObservationBatch getBatch() {
+		return batch;
+	}
+}
@@ -0,0 +1,521 @@
+package interfuze;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of runtime metrics: counters, timers, per-file statistics and per-phase resource usage.
+ *
+ * Metrics are disabled by default, in which case every method returns after checking a single static
+ * flag (timers do not even read the clock), so the calls can be left in the hot paths. Counters and
+ * timers use LongAdders so they can be updated from worker threads without contention. The metrics can
+ * be written as JSON or, for the phases, printed as a table.
+ */
+public final class Metrics {
+
+	// ---- Variables ---- //
+
+	/**
+	 * True if metrics are being recorded
+	 */
+	private static boolean enabled = false;
+
+	/**
+	 * Counters by name
+	 */
+	private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Timers by name
+	 */
+	private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	/**
+	 * Statistics of each file read, by file name
+	 */
+	private static final Map<String, FileStats> files = new ConcurrentHashMap<>();
+
+	/**
+	 * Completed phases
+	 */
+	private static final List<Phase> phases = new ArrayList<>();
+
+	/**
+	 * The running phase (null if no phase is running)
+	 */
+	private static Phase phase = null;
+
+	/**
+	 * Stages of the observations pipeline
+	 */
+	private static final List<PipelineStage> stages = new ArrayList<>();
+
+	/**
+	 * Bytes allocated by worker threads (see trackAllocations)
+	 */
+	private static final LongAdder workerAllocatedBytes = new LongAdder();
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor (not used)
+	 */
+	private Metrics() {
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Enables recording metrics (must be called before any worker threads are started)
+	 */
+	public static void enable() {
+		enabled = true;
+	}
+
+	/**
+	 * Checks if metrics are being recorded
+	 *
+	 * @return True if metrics are being recorded
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Disables recording metrics and discards the recorded metrics
+	 */
+	static synchronized void reset() {
+		enabled = false;
+		counters.clear();
+		timers.clear();
+		files.clear();
+		phases.clear();
+		phase = null;
+		stages.clear();
+		workerAllocatedBytes.reset();
+	}
+
+	/**
+	 * Adds to a counter
+	 *
+	 * @param name The name of the counter
+	 * @param delta The amount to add
+	 */
+	public static void increment(String name, long delta) {
+		if (!enabled) { return; }
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * Starts timing an operation
+	 *
+	 * @return The start time to pass to stopTimer (0 if metrics are disabled)
+	 */
+	public static long startTimer() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Stops timing an operation and records its duration
+	 *
+	 * @param name The name of the timer
+	 * @param start The start time returned by startTimer
+	 * @return The duration of the operation in nanoseconds (0 if metrics are disabled)
+	 */
+	public static long stopTimer(String name, long start) {
+		if (!enabled) { return 0; }
+		long duration = System.nanoTime() - start;
+		recordTime(name, duration);
+		return duration;
+	}
+
+	/**
+	 * Records the duration of an operation
+	 *
+	 * @param name The name of the timer
+	 * @param duration The duration in nanoseconds
+	 */
+	public static void recordTime(String name, long duration) {
+		if (!enabled) { return; }
+		timers.computeIfAbsent(name, k -> new Timer()).record(duration);
+	}
+
+	/**
+	 * Records reading (part of) a file
+	 *
+	 * @param name The file name
+	 * @param rows The number of rows read
+	 * @param rejected The number of rows that could not be parsed
+	 * @param bytes The number of bytes read
+	 * @param duration The time taken to read the rows in nanoseconds
+	 */
+	public static void recordFile(String name, long rows, long rejected, long bytes, long duration) {
+		if (!enabled) { return; }
+		FileStats stats = files.computeIfAbsent(name, k -> new FileStats());
+		stats.rows.add(rows);
+		stats.rejected.add(rejected);
+		stats.bytes.add(bytes);
+		stats.nanos.add(duration);
+		increment("rows.parsed", rows);
+		increment("rows.rejected", rejected);
+		increment("bytes.read", bytes);
+	}
+
+	/**
+	 * Runs a task on a worker thread, adding the bytes it allocates to the running phase
+	 *
+	 * @param <T> The result type of the task
+	 * @param task The task
+	 * @throws Exception If the task throws an exception
+	 * @return The result of the task
+	 */
+	public static <T> T trackAllocations(Callable<T> task) throws Exception {
+		if (!enabled) { return task.call(); }
+		long allocated = threadAllocatedBytes();
+		try {
+			return task.call();
+		} finally {
+			if (allocated >= 0) { workerAllocatedBytes.add(threadAllocatedBytes() - allocated); }
+		}
+	}
+
+	/**
+	 * Starts a phase of the run. Worker threads used by the phase should run their tasks through
+	 * trackAllocations so their allocations are included.
+	 *
+	 * @param name The name of the phase
+	 */
+	public static synchronized void startPhase(String name) {
+		if (!enabled) { return; }
+		if (phase != null) { throw new IllegalStateException("Phase " + phase.name + " has not ended"); }
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) { pool.resetPeakUsage(); }
+		}
+		phase = new Phase(name);
+		phase.allocatedBytes = -threadAllocatedBytes() - workerAllocatedBytes.sum();
+		phase.gcMillis = -gcMillis();
+		phase.nanos = -System.nanoTime();
+	}
+
+	/**
+	 * Ends the running phase
+	 *
+	 * @param rows The number of rows processed by the phase
+	 */
+	public static synchronized void endPhase(long rows) {
+		if (!enabled) { return; }
+		if (phase == null) { throw new IllegalStateException("No phase has started"); }
+		phase.nanos += System.nanoTime();
+		phase.gcMillis += gcMillis();
+		phase.allocatedBytes += threadAllocatedBytes() + workerAllocatedBytes.sum();
+		phase.rows = rows;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) { phase.peakHeapBytes += pool.getPeakUsage().getUsed(); }
+		}
+		phases.add(phase);
+		phase = null;
+	}
+
+	/**
+	 * Records the statistics of a stage of the observations pipeline (once the pipeline has finished)
+	 *
+	 * @param stage The stage
+	 */
+	public static synchronized void recordStage(PipelineStage stage) {
+		if (!enabled) { return; }
+		stages.add(stage);
+	}
+
+	/**
+	 * Gets the value of a counter
+	 *
+	 * @param name The name of the counter
+	 * @return The value of the counter (0 if it has not been incremented)
+	 */
+	public static long getCounter(String name) {
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Writes the metrics as JSON
+	 *
+	 * @param path The file to write
+	 * @throws IOException If there is an error writing the file
+	 */
+	public static void writeJSON(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write(toJSON());
+		}
+	}
+
+	/**
+	 * Formats the metrics as JSON
+	 *
+	 * @return The JSON object
+	 */
+	static synchronized String toJSON() {
+		StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+		String separator = "";
+		for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+			json.append(separator).append("\n    ").append(Json.quote(counter.getKey())).append(": ").append(counter.getValue().sum());
+			separator = ",";
+		}
+
+		json.append("\n  },\n  \"timers\": {");
+		separator = "";
+		for (Map.Entry<String, Timer> timer : new TreeMap<>(timers).entrySet()) {
+			json.append(separator).append("\n    ").append(Json.quote(timer.getKey())).append(": {\"count\": ").append(timer.getValue().count.sum())
+					.append(", \"totalMillis\": ").append(millis(timer.getValue().nanos.sum()))
+					.append(", \"maxMillis\": ").append(millis(timer.getValue().max.get())).append("}");
+			separator = ",";
+		}
+
+		json.append("\n  },\n  \"files\": [");
+		separator = "";
+		for (Map.Entry<String, FileStats> file : new TreeMap<>(files).entrySet()) {
+			FileStats stats = file.getValue();
+			json.append(separator).append("\n    {\"file\": ").append(Json.quote(file.getKey())).append(", \"rows\": ").append(stats.rows.sum())
+					.append(", \"rejected\": ").append(stats.rejected.sum()).append(", \"bytes\": ").append(stats.bytes.sum())
+					.append(", \"parseMillis\": ").append(millis(stats.nanos.sum())).append("}");
+			separator = ",";
+		}
+
+		json.append("\n  ],\n  \"phases\": [");
+		separator = "";
+		for (Phase completed : phases) {
+			json.append(separator).append("\n    {\"phase\": ").append(Json.quote(completed.name)).append(", \"wallMillis\": ").append(millis(completed.nanos))
+					.append(", \"rows\": ").append(completed.rows).append(", \"allocatedBytes\": ").append(Math.max(completed.allocatedBytes, 0))
+					.append(", \"gcMillis\": ").append(completed.gcMillis).append(", \"peakHeapBytes\": ").append(completed.peakHeapBytes).append("}");
+			separator = ",";
+		}
+
+		json.append("\n  ],\n  \"stages\": [");
+		separator = "";
+		for (PipelineStage stage : stages) {
+			json.append(separator).append("\n    {\"stage\": ").append(Json.quote(stage.getName())).append(", \"threads\": ").append(stage.getThreads())
+					.append(", \"blocks\": ").append(stage.getBlocks()).append(", \"rows\": ").append(stage.getRows()).append(", \"bytes\": ").append(stage.getBytes())
+					.append(", \"busyMillis\": ").append(millis(stage.getBusyNanos())).append(", \"waitingMillis\": ").append(millis(stage.getWaitingNanos()))
+					.append(", \"blockedMillis\": ").append(millis(stage.getBlockedNanos()))
+					.append(", \"averageQueueDepth\": ").append(Math.round(stage.getAverageQueueDepth() * 100) / 100.0)
+					.append(", \"maxQueueDepth\": ").append(stage.getMaxQueueDepth()).append("}");
+			separator = ",";
+		}
+		json.append("\n  ]\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Prints the table of phases
+	 *
+	 * @param out The stream to print to
+	 */
+	public static synchronized void printPhases(PrintStream out) {
+		out.printf("-------------------------------------------------------------------------------------------------------------------------------\n");
+		out.printf("| %-20s | %-15s | %-15s | %-15s | %-14s | %-14s | %-11s |\n", "Phase", "Wall Time (ms)", "Rows", "Rows/sec", "Allocated (MB)", "Peak Heap (MB)", "GC Time (ms)");
+		out.printf("-------------------------------------------------------------------------------------------------------------------------------\n");
+		long totalNanos = 0;
+		long totalAllocated = 0;
+		long maxHeap = 0;
+		long totalGC = 0;
+		for (Phase completed : phases) {
+			double seconds = completed.nanos / (double) TimeUnit.SECONDS.toNanos(1);
+			out.printf("| %-20s | %15.1f | %15d | %15.0f | %14.1f | %14.1f | %12d |\n", completed.name, millis(completed.nanos), completed.rows, seconds > 0 ? completed.rows / seconds : 0,
+					megabytes(completed.allocatedBytes), megabytes(completed.peakHeapBytes), completed.gcMillis);
+			totalNanos += completed.nanos;
+			totalAllocated += completed.allocatedBytes;
+			maxHeap = Math.max(maxHeap, completed.peakHeapBytes);
+			totalGC += completed.gcMillis;
+		}
+		out.printf("-------------------------------------------------------------------------------------------------------------------------------\n");
+		out.printf("| %-20s | %15.1f | %15s | %15s | %14.1f | %14.1f | %12d |\n", "Total", millis(totalNanos), "", "", megabytes(totalAllocated), megabytes(maxHeap), totalGC);
+		out.printf("-------------------------------------------------------------------------------------------------------------------------------\n");
+	}
+
+	/**
+	 * Prints the table of pipeline stages (nothing if the pipeline was not used)
+	 *
+	 * @param out The stream to print to
+	 */
+	public static synchronized void printStages(PrintStream out) {
+		if (stages.isEmpty()) { return; }
+		out.printf("-------------------------------------------------------------------------------------------------------------------------------\n");
+		out.printf("| %-10s | %-7s | %-8s | %-10s | %-9s | %-10s | %-12s | %-12s | %-9s | %-9s |\n", "Stage", "Threads", "Blocks", "Rows", "Busy MB/s", "Busy (ms)", "Waiting (ms)", "Blocked (ms)", "Queue Avg", "Queue Max");
+		out.printf("-------------------------------------------------------------------------------------------------------------------------------\n");
+		for (PipelineStage stage : stages) {
+			out.printf("| %-10s | %7d | %8d | %10d | %9.1f | %10.1f | %12.1f | %12.1f | %9.1f | %9d |\n", stage.getName(), stage.getThreads(), stage.getBlocks(), stage.getRows(),
+					stage.getBusyThroughput(), millis(stage.getBusyNanos()), millis(stage.getWaitingNanos()), millis(stage.getBlockedNanos()),
+					stage.getAverageQueueDepth(), stage.getMaxQueueDepth());
+		}
+		out.printf("-------------------------------------------------------------------------------------------------------------------------------\n");
+	}
+
+	/**
+	 * Gets the number of bytes allocated by the current thread
+	 *
+	 * @return The number of bytes, or -1 if the JVM does not support measuring allocations
+	 */
+	private static long threadAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the total time spent in garbage collection
+	 *
+	 * @return The collection time in milliseconds
+	 */
+	private static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(collector.getCollectionTime(), 0);
+		}
+		return total;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds
+	 *
+	 * @param nanos The time in nanoseconds
+	 * @return The time in milliseconds (rounded to microseconds)
+	 */
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	/**
+	 * Converts bytes to megabytes
+	 *
+	 * @param bytes The number of bytes
+	 * @return The number of megabytes
+	 */
+	private static double megabytes(long bytes) {
+		return bytes / (1024.0 * 1024.0);
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Count, total and maximum duration of a timed operation
+	 */
+	private static final class Timer {
+
+		/**
+		 * Number of operations
+		 */
+		final LongAdder count = new LongAdder();
+
+		/**
+		 * Total duration (nanoseconds)
+		 */
+		final LongAdder nanos = new LongAdder();
+
+		/**
+		 * Maximum duration (nanoseconds)
+		 */
+		final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Records an operation
+		 *
+		 * @param duration The duration in nanoseconds
+		 */
+		void record(long duration) {
+			count.increment();
+			nanos.add(duration);
+			max.accumulate(duration);
+		}
+	}
+
+	/**
+	 * Statistics of a file
+	 */
+	private static final class FileStats {
+
+		/**
+		 * Number of rows read
+		 */
+		final LongAdder rows = new LongAdder();
+
+		/**
+		 * Number of rows that could not be parsed
+		 */
+		final LongAdder rejected = new LongAdder();
+
+		/**
+		 * Number of bytes read
+		 */
+		final LongAdder bytes = new LongAdder();
+
+		/**
+		 * Time spent reading the file (nanoseconds)
+		 */
+		final LongAdder nanos = new LongAdder();
+	}
+
+	/**
+	 * Resource usage of a phase of the run (fields hold start values negated while the phase is running)
+	 */
+	private static final class Phase {
+
+		/**
+		 * Name of the phase
+		 */
+		final String name;
+
+		/**
+		 * Wall time (nanoseconds)
+		 */
+		long nanos;
+
+		/**
+		 * Number of rows processed
+		 */
+		long rows;
+
+		/**
+		 * Bytes allocated by the main thread and tracked worker tasks
+		 */
+		long allocatedBytes;
+
+		/**
+		 * Time spent in garbage collection (milliseconds)
+		 */
+		long gcMillis;
+
+		/**
+		 * Sum of the peak usage of the heap memory pools (bytes)
+		 */
+		long peakHeapBytes;
+
+		/**
+		 * Constructor
+		 *
+		 * @param name The name of the phase
+		 */
+		Phase(String name) {
+			this.name = name;
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package interfuze;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the observations parsed from a single observations CSV before they are added to the devices.
+ *
+ * Parsing into a batch allows files to be parsed on worker threads while the observations are still
+ * added to the devices on a single thread, and in the same order as a sequential parse.
+ */
+public class ObservationBatch {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Initial capacity of the batch
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Device IDs of the observations
+	 */
+	private int[] deviceIDs = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Observation times of the observations (stored as epoch milliseconds)
+	 */
+	private long[] observationTimes = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Rainfall amounts of the observations
+	 */
+	private int[] rainfalls = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Number of observations in the batch
+	 */
+	private int size = 0;
+
+	/**
+	 * The current time (the time of the last observation in the batch)
+	 */
+	private long currentTime = Long.MIN_VALUE;
+
+	/**
+	 * The time of the earliest observation in the batch
+	 */
+	private long earliestTime = Long.MAX_VALUE;
+
+	/**
+	 * Number of records read (including records that could not be parsed)
+	 */
+	private int numRecords = 0;
+
+	/**
+	 * Number of records that could not be parsed
+	 */
+	private int numErrors = 0;
+
+	/**
+	 * Size of the source file when it was read (-1 if unknown)
+	 */
+	private long sourceSize = -1;
+
+	/**
+	 * Last modified time of the source file when it was read (-1 if unknown)
+	 */
+	private long sourceLastModified = -1;
+
+	// ---- Methods ---- //
+
+	/**
+	 * Joins batches into a single batch, keeping the observations in order (e.g. the batches of the parts
+	 * of a file parsed separately)
+	 *
+	 * @param batches The batches, in order
+	 * @return The joined batch
+	 */
+	public static ObservationBatch concat(List<ObservationBatch> batches) {
+		ObservationBatch result = new ObservationBatch();
+		int total = 0;
+		for (ObservationBatch batch : batches) {
+			total += batch.size;
+		}
+		result.deviceIDs = new int[Math.max(total, INITIAL_CAPACITY)];
+		result.observationTimes = new long[result.deviceIDs.length];
+		result.rainfalls = new int[result.deviceIDs.length];
+
+		// Copy the observations and statistics
+		for (ObservationBatch batch : batches) {
+			System.arraycopy(batch.deviceIDs, 0, result.deviceIDs, result.size, batch.size);
+			System.arraycopy(batch.observationTimes, 0, result.observationTimes, result.size, batch.size);
+			System.arraycopy(batch.rainfalls, 0, result.rainfalls, result.size, batch.size);
+			result.size += batch.size;
+			result.numRecords += batch.numRecords;
+			result.numErrors += batch.numErrors;
+			if (batch.currentTime > result.currentTime) { result.currentTime = batch.currentTime; }
+			if (batch.earliestTime < result.earliestTime) { result.earliestTime = batch.earliestTime; }
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the observations in the batch to the devices, in the order they were parsed.
+	 *
+	 * @param devices The registry of devices
+	 * @return The current time (the time of the last observation in the batch)
+	 */
+	public long applyTo(DeviceRegistry devices) {
+		return applyTo(devices, Long.MIN_VALUE);
+	}
+
+	/**
+	 * Adds the observations in the batch to the devices, in the order they were parsed, discarding the
+	 * observations at or before a retention bound.
+	 *
+	 * @param devices The registry of devices
+	 * @param retentionBound The time at or before which observations are no longer needed (Long.MIN_VALUE keeps all observations)
+	 * @return The current time (the time of the last observation in the batch)
+	 */
+	public long applyTo(DeviceRegistry devices, long retentionBound) {
+		for (int i = 0; i < size; i++) {
+			// Add the observation to the device
+			Device device = devices.get(deviceIDs[i]);
+			if (retentionBound != Long.MIN_VALUE) { device.setRetentionBound(retentionBound); }
+			device.addObservation(observationTimes[i], rainfalls[i]);
+
+			// Verbose output
+			if (App.VERBOSE) { System.out.println(new Observation(deviceIDs[i], observationTimes[i], rainfalls[i]).toString()); }
+		}
+
+		return currentTime;
+	}
+
+	// ---- Setters ---- //
+
+	/**
+	 * Adds a successfully parsed observation to the batch
+	 *
+	 * @param deviceID The unique ID of the device
+	 * @param observationTime The time of the observation
+	 * @param rainfall The amount of rainfall
+	 */
+	public void add(int deviceID, long observationTime, int rainfall) {
+		// Grow the arrays if they are full
+		if (size == deviceIDs.length) {
+			int capacity = size * 2;
+			deviceIDs = Arrays.copyOf(deviceIDs, capacity);
+			observationTimes = Arrays.copyOf(observationTimes, capacity);
+			rainfalls = Arrays.copyOf(rainfalls, capacity);
+		}
+
+		// Store the observation
+		deviceIDs[size] = deviceID;
+		observationTimes[size] = observationTime;
+		rainfalls[size] = rainfall;
+		size++;
+		numRecords++;
+
+		// Update the current and earliest times
+		if (observationTime > currentTime) { currentTime = observationTime; }
+		if (observationTime < earliestTime) { earliestTime = observationTime; }
+	}
+
+	/**
+	 * Records a row that could not be parsed and was skipped
+	 */
+	public void addError() {
+		numRecords++;
+		numErrors++;
+	}
+
+	/**
+	 * Records rows that could not be parsed and were skipped
+	 *
+	 * @param count The number of rows
+	 */
+	public void addErrors(int count) {
+		numRecords += count;
+		numErrors += count;
+	}
+
+	/**
+	 * Sets the size and last modified time of the source file, as they were before it was read
+	 *
+	 * @param size The size of the source file
+	 * @param lastModified The last modified time of the source file
+	 */
+	public void setSourceStamp(long size, long lastModified) {
+		this.sourceSize = size;
+		this.sourceLastModified = lastModified;
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the number of observations in the batch
+	 *
+	 * @return The number of observations
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the device ID of an observation
+	 *
+	 * @param index The index of the observation
+	 * @return The device ID
+	 */
+	public int getDeviceID(int index) {
+		return deviceIDs[index];
+	}
+
+	/**
+	 * Gets the time of an observation
+	 *
+	 * @param index The index of the observation
+	 * @return The observation time
+	 */
+	public long getObservationTime(int index) {
+		return observationTimes[index];
+	}
+
+	/**
+	 * Gets the rainfall amount of an observation
+	 *
+	 * @param index The index of the observation
+	 * @return The rainfall amount
+	 */
+	public int getRainfall(int index) {
+		return rainfalls[index];
+	}
+
+	/**
+	 * Gets the current time (the time of the last observation in the batch)
+	 *
+	 * @return The current time, or Long.MIN_VALUE if the batch is empty
+	 */
+	public long getCurrentTime() {
+		return currentTime;
+	}
+
+	/**
+	 * Gets the time of the earliest observation in the batch
+	 *
+	 * @return The earliest time, or Long.MAX_VALUE if the batch is empty
+	 */
+	public long getEarliestTime() {
+		return earliestTime;
+	}
+
+	/**
+	 * Gets the number of records read (including records that could not be parsed)
+	 *
+	 * @return The number of records
+	 */
+	public int getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Gets the number of records that could not be parsed
+	 *
+	 * @return The number of errors
+	 */
+	public int getNumErrors() {
+		return numErrors;
+	}
+
+	/**
+	 * Gets the size of the source file when it was read
+	 *
+	 * @return The size, or -1 if unknown
+	 */
+	public long getSourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * Gets the last modified time of the source file when it was read
+	 *
+	 * @return The last modified time, or -1 if unknown
+	 */
+	public long getSourceLastModified() {
+		return sourceLastModified;
+	}
+}
@@ -0,0 +1,273 @@
+package interfuze;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sidecar manifest of the time range of each observations CSV, used to skip files that only hold
+ * observations before the lookback windows without opening them.
+ *
+ * The manifest records each file's size and last modified time alongside the times of its earliest and
+ * latest observations and its number of rows. An entry is only used while the file's size and last
+ * modified time still match, so a changed file is parsed again and its entry rebuilt. The manifest is a
+ * text file with a header line followed by a tab separated line per file:
+ * <pre>
+ * size, lastModified, rows, earliestTime, latestTime, path
+ * </pre>
+ */
+public class ObservationManifest {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Header line of a manifest file (including the format version)
+	 */
+	private static final String HEADER = "interfuze observations manifest 1";
+
+	// ---- Variables ---- //
+
+	/**
+	 * Path of the manifest file
+	 */
+	private final Path path;
+
+	/**
+	 * Entries of the manifest, by source file path
+	 */
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param path The path of the manifest file
+	 */
+	private ObservationManifest(Path path) {
+		this.path = path;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Opens a manifest, reading its entries if there is a valid manifest file.
+	 *
+	 * @param path The path of the manifest file
+	 * @throws IOException If there is an error reading the manifest
+	 * @return The manifest
+	 */
+	public static ObservationManifest open(Path path) throws IOException {
+		ObservationManifest manifest = new ObservationManifest(path);
+		if (Files.isRegularFile(path) && !manifest.readEntries()) {
+			System.out.println(App.ANSI_YELLOW + "Warning" + App.ANSI_RESET + " ignoring invalid manifest " + path);
+			manifest.entries.clear();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Reads the entries of the manifest file.
+	 *
+	 * @throws IOException If there is an error reading the manifest
+	 * @return True if the manifest is valid
+	 */
+	private boolean readEntries() throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(reader.readLine())) { return false; }
+			for (String line; (line = reader.readLine()) != null; ) {
+				String[] fields = line.split("\t", 6);
+				if (fields.length != 6) { return false; }
+				try {
+					entries.put(fields[5], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the files that only hold observations at or before a bound, based on the manifest entries
+	 * of the unchanged files. Files that are not in the manifest or have changed are always kept.
+	 *
+	 * @param files The observations CSVs
+	 * @param window The largest lookback window (milliseconds)
+	 * @return The files to parse, in the same order
+	 */
+	public File[] prune(File[] files, long window) {
+		// The current time is at least the latest observation of the unchanged files
+		long latestTime = getLatestTime(files);
+		if (latestTime == Long.MIN_VALUE) { return files; }
+		long bound = latestTime - window;
+
+		// Keep the files with observations after the bound
+		List<File> kept = new ArrayList<>(files.length);
+		for (File file : files) {
+			Entry entry = lookup(file);
+			if (entry != null && entry.latestTime <= bound) {
+				if (App.VERBOSE) { System.out.println("Skipped " + file.getName() + " (no observations in the lookback windows)"); }
+				Metrics.increment("manifest.skipped", 1);
+				continue;
+			}
+			kept.add(file);
+		}
+		return kept.toArray(new File[0]);
+	}
+
+	/**
+	 * Gets the time of the latest observation in the unchanged files
+	 *
+	 * @param files The observations CSVs
+	 * @return The latest time, or Long.MIN_VALUE if none of the files are in the manifest
+	 */
+	public long getLatestTime(File[] files) {
+		long latestTime = Long.MIN_VALUE;
+		for (File file : files) {
+			Entry entry = lookup(file);
+			if (entry != null) { latestTime = Math.max(latestTime, entry.latestTime); }
+		}
+		return latestTime;
+	}
+
+	/**
+	 * Records the time range of a parsed file
+	 *
+	 * @param file The observations CSV
+	 * @param batch The batch of observations parsed from the file (with the source stamp set)
+	 */
+	public void record(File file, ObservationBatch batch) {
+		record(file, batch.getSourceSize(), batch.getSourceLastModified(), batch.getNumRecords(), batch.getEarliestTime(), batch.getCurrentTime());
+	}
+
+	/**
+	 * Records the time range of a parsed file
+	 *
+	 * @param file The observations CSV
+	 * @param size The size of the file when it was read
+	 * @param lastModified The last modified time of the file when it was read
+	 * @param rows The number of rows in the file (including rows that could not be parsed)
+	 * @param earliestTime The time of the earliest observation (Long.MAX_VALUE if there are none)
+	 * @param latestTime The time of the latest observation (Long.MIN_VALUE if there are none)
+	 */
+	public void record(File file, long size, long lastModified, int rows, long earliestTime, long latestTime) {
+		if (size < 0) { return; }
+		entries.put(key(file), new Entry(size, lastModified, rows, earliestTime, latestTime));
+	}
+
+	/**
+	 * Writes the manifest, keeping only the entries of the given files that are unchanged. The new
+	 * manifest is written alongside the old one and replaces it once complete.
+	 *
+	 * @param files The observations CSVs
+	 * @throws IOException If there is an error writing the manifest
+	 */
+	public void save(File[] files) throws IOException {
+		Path newPath = Paths.get(path.toString() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(newPath, StandardCharsets.UTF_8)) {
+			writer.write(HEADER);
+			writer.newLine();
+			for (File file : files) {
+				Entry entry = lookup(file);
+				if (entry == null) { continue; }
+				writer.write(entry.size + "\t" + entry.lastModified + "\t" + entry.rows + "\t" + entry.earliestTime + "\t" + entry.latestTime + "\t" + key(file));
+				writer.newLine();
+			}
+		}
+		Files.move(newPath, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Gets the entry of a file, if the file has not changed since it was recorded
+	 *
+	 * @param file The observations CSV
+	 * @return The entry, or null if the file is not in the manifest or has changed
+	 */
+	private Entry lookup(File file) {
+		Entry entry = entries.get(key(file));
+		if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) { return null; }
+		return entry;
+	}
+
+	/**
+	 * Gets the key of a file in the manifest
+	 *
+	 * @param file The file
+	 * @return The absolute path of the file
+	 */
+	private static String key(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the number of entries in the manifest
+	 *
+	 * @return The number of entries
+	 */
+	public int getNumEntries() {
+		return entries.size();
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Source file details and time range of a file in the manifest
+	 */
+	private static final class Entry {
+
+		/**
+		 * Size of the source file
+		 */
+		final long size;
+
+		/**
+		 * Last modified time of the source file
+		 */
+		final long lastModified;
+
+		/**
+		 * Number of rows in the file (including rows that could not be parsed)
+		 */
+		final int rows;
+
+		/**
+		 * Time of the earliest observation (Long.MAX_VALUE if there are none)
+		 */
+		final long earliestTime;
+
+		/**
+		 * Time of the latest observation (Long.MIN_VALUE if there are none)
+		 */
+		final long latestTime;
+
+		/**
+		 * Constructor
+		 *
+		 * @param size The size of the source file
+		 * @param lastModified The last modified time of the source file
+		 * @param rows The number of rows in the file
+		 * @param earliestTime The time of the earliest observation
+		 * @param latestTime The time of the latest observation
+		 */
+		Entry(long size, long lastModified, int rows, long earliestTime, long latestTime) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.rows = rows;
+			this.earliestTime = earliestTime;
+			this.latestTime = latestTime;
+		}
+	}
+}
@@ -0,0 +1,622 @@
+package interfuze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Ingests observations CSVs through a pipeline of read, parse and apply stages connected by bounded
+ * queues.
+ *
+ * A reader thread reads the files in directory order into blocks of whole rows, a pool of parser threads
+ * parses the blocks with the memory mapped parser's row parser, and the calling thread adds the parsed
+ * blocks to the devices in the order they were read, so the result is the same as a sequential parse. The
+ * number of blocks in flight is bounded, so a slow stage holds back the stages before it instead of
+ * letting the blocks pile up in memory. The reader can run on a virtual thread (on a JVM that supports
+ * them) as it spends most of its time waiting on the storage. The busy, waiting and blocked time and the
+ * queue depths of each stage are recorded in the metrics to show which stage is the bottleneck.
+ *
+ * If a block uses CSV features the row parser does not support, the rest of its file (from the start of
+ * the block) is parsed with Commons CSV.
+ */
+public class ObservationPipeline {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Default size of a block (blocks end at the last line ending, so they are usually a little smaller)
+	 */
+	private static final int BLOCK_SIZE = 1 << 18;
+
+	/**
+	 * Capacity of each queue per parser thread
+	 */
+	private static final int QUEUE_CAPACITY = 2;
+
+	/**
+	 * Marks the end of the blocks for a parser thread or the aggregator
+	 */
+	private static final Block END = new Block(-1, -1, 0, null, 0, true);
+
+	// ---- Variables ---- //
+
+	/**
+	 * Registry of devices
+	 */
+	private final DeviceRegistry devices;
+
+	/**
+	 * The observations CSVs, in the order their observations are added
+	 */
+	private final File[] files;
+
+	/**
+	 * Snapshot of previously parsed files (null if not enabled)
+	 */
+	private final ObservationSnapshot snapshot;
+
+	/**
+	 * Manifest of the time range of each file (null if not enabled)
+	 */
+	private final ObservationManifest manifest;
+
+	/**
+	 * Number of parser threads
+	 */
+	private final int numParsers;
+
+	/**
+	 * True if the reader should run on a virtual thread
+	 */
+	private final boolean virtualThreads;
+
+	/**
+	 * Size of a block
+	 */
+	private final int blockSize;
+
+	/**
+	 * Blocks read but not yet parsed
+	 */
+	private final BlockingQueue<Block> blocks;
+
+	/**
+	 * Blocks parsed but not yet taken by the aggregator
+	 */
+	private final BlockingQueue<Block> parsed;
+
+	/**
+	 * Permits for the blocks in flight (released once a block has been added to the devices)
+	 */
+	private final Semaphore inFlight;
+
+	/**
+	 * Block buffers that can be reused by the reader
+	 */
+	private final BlockingQueue<byte[]> buffers;
+
+	/**
+	 * Size of each file before it was read
+	 */
+	private final long[] sizes;
+
+	/**
+	 * Last modified time of each file before it was read
+	 */
+	private final long[] lastModified;
+
+	/**
+	 * Time each file started being read (see Metrics.startTimer)
+	 */
+	private final long[] starts;
+
+	/**
+	 * First error thrown by the reader or a parser thread
+	 */
+	private volatile Throwable failure = null;
+
+	/**
+	 * Statistics of the read stage
+	 */
+	private final PipelineStage readStage = new PipelineStage("read", 1);
+
+	/**
+	 * Statistics of the parse stage
+	 */
+	private final PipelineStage parseStage;
+
+	/**
+	 * Statistics of the apply stage
+	 */
+	private final PipelineStage applyStage = new PipelineStage("apply", 1);
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param devices The registry of devices
+	 * @param files The observations CSVs, in the order their observations are added
+	 * @param snapshot The snapshot of previously parsed files (null if not enabled)
+	 * @param manifest The manifest the time range of each file is recorded in (null if not enabled)
+	 * @param numParsers The number of parser threads
+	 * @param virtualThreads True if the reader should run on a virtual thread
+	 */
+	public ObservationPipeline(DeviceRegistry devices, File[] files, ObservationSnapshot snapshot, ObservationManifest manifest, int numParsers, boolean virtualThreads) {
+		this(devices, files, snapshot, manifest, numParsers, virtualThreads, BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param devices The registry of devices
+	 * @param files The observations CSVs, in the order their observations are added
+	 * @param snapshot The snapshot of previously parsed files (null if not enabled)
+	 * @param manifest The manifest the time range of each file is recorded in (null if not enabled)
+	 * @param numParsers The number of parser threads
+	 * @param virtualThreads True if the reader should run on a virtual thread
+	 * @param blockSize The size of a block
+	 */
+	ObservationPipeline(DeviceRegistry devices, File[] files, ObservationSnapshot snapshot, ObservationManifest manifest, int numParsers, boolean virtualThreads, int blockSize) {
+		this.devices = devices;
+		this.files = files;
+		this.snapshot = snapshot;
+		this.manifest = manifest;
+		this.numParsers = Math.max(numParsers, 1);
+		this.virtualThreads = virtualThreads;
+		this.blockSize = blockSize;
+		int capacity = this.numParsers * QUEUE_CAPACITY;
+		this.blocks = new ArrayBlockingQueue<>(capacity + this.numParsers);
+		this.parsed = new ArrayBlockingQueue<>(capacity + this.numParsers);
+		this.inFlight = new Semaphore(capacity * 2 + this.numParsers);
+		this.buffers = new ArrayBlockingQueue<>(capacity * 2 + this.numParsers);
+		this.sizes = new long[files.length];
+		this.lastModified = new long[files.length];
+		this.starts = new long[files.length];
+		this.parseStage = new PipelineStage("parse", this.numParsers);
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Runs the pipeline, adding the observations of every file to the devices on the calling thread.
+	 *
+	 * @throws IOException If there is an error reading a file or the snapshot
+	 * @return The current time (the time of the last observation parsed)
+	 */
+	public long run() throws IOException {
+		List<Thread> threads = new ArrayList<>(numParsers + 1);
+		try {
+			// Start the stages
+			threads.add(startReader());
+			for (int i = 0; i < numParsers; i++) {
+				Thread parser = new Thread(this::parse, "observation-parser-" + i);
+				parser.setDaemon(true);
+				parser.start();
+				threads.add(parser);
+			}
+
+			// Add the blocks to the devices in the order they were read
+			return aggregate();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing observations", e);
+		} finally {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			Metrics.recordStage(readStage);
+			Metrics.recordStage(parseStage);
+			Metrics.recordStage(applyStage);
+		}
+	}
+
+	/**
+	 * Starts the reader, on a virtual thread if requested and supported (virtual threads need Java 21,
+	 * so they are created through reflection).
+	 *
+	 * @return The reader thread
+	 */
+	private Thread startReader() {
+		if (virtualThreads) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Method start = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+				return (Thread) start.invoke(builder, (Runnable) this::read);
+			} catch (ReflectiveOperationException e) {
+				System.out.println(App.ANSI_YELLOW + "Warning" + App.ANSI_RESET + " virtual threads are not supported by this JVM - Using a platform thread");
+			}
+		}
+		Thread reader = new Thread(this::read, "observation-reader");
+		reader.setDaemon(true);
+		reader.start();
+		return reader;
+	}
+
+	// -- Read Stage -- //
+
+	/**
+	 * Reads every file into blocks (run by the reader thread)
+	 */
+	private void read() {
+		try {
+			Metrics.trackAllocations(() -> {
+				long sequence = 0;
+				for (int i = 0; i < files.length; i++) {
+					sequence = readFile(i, sequence);
+				}
+				return null;
+			});
+		} catch (InterruptedException e) {
+			// Pipeline stopped
+		} catch (Throwable e) {
+			failure = e;
+		} finally {
+			// Stop the parser threads
+			try {
+				for (int i = 0; i < numParsers; i++) {
+					blocks.put(END);
+				}
+			} catch (InterruptedException e) {
+				// Pipeline stopped
+			}
+		}
+	}
+
+	/**
+	 * Reads a file into blocks of whole rows. The incomplete row at the end of each block is carried over
+	 * to the start of the next block (the block is grown if a row does not fit). A cached file is passed on
+	 * as a single block.
+	 *
+	 * @param index The index of the file
+	 * @param sequence The sequence number of the first block
+	 * @throws IOException If there is an error reading the file or the snapshot
+	 * @throws InterruptedException If the pipeline is stopped
+	 * @return The sequence number of the next block
+	 */
+	private long readFile(int index, long sequence) throws IOException, InterruptedException {
+		File file = files[index];
+		starts[index] = Metrics.startTimer();
+		sizes[index] = file.length();
+		lastModified[index] = file.lastModified();
+
+		// Pass on the file from the snapshot
+		ObservationBatch cached = App.loadFromSnapshot(file, snapshot);
+		if (cached != null) {
+			Block block = new Block(sequence, index, 0, null, 0, true);
+			block.batch = cached;
+			block.cached = true;
+			emit(block);
+			return sequence + 1;
+		}
+
+		// Read the file a block at a time
+		try (InputStream in = App.isCompressed(file.getName()) ? App.openDecompressed(file.toPath()) : Files.newInputStream(file.toPath())) {
+			byte[] bytes = takeBuffer();
+			int length = 0;
+			long offset = 0;
+			while (true) {
+				// Fill the block
+				long start = System.nanoTime();
+				int read = 0;
+				while (length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) >= 0) {
+					length += read;
+				}
+				readStage.addBusy(System.nanoTime() - start);
+				boolean last = read < 0;
+
+				// Pass on the whole rows (or everything at the end of the file)
+				int end = last ? length : lastRowEnd(bytes, length);
+				if (end == 0 && !last) {
+					bytes = Arrays.copyOf(bytes, bytes.length * 2);
+					continue;
+				}
+				int carry = length - end;
+				byte[] next = last ? null : carry < blockSize ? takeBuffer() : new byte[carry * 2];
+				if (!last) { System.arraycopy(bytes, end, next, 0, carry); }
+				readStage.addBlock(0, end);
+				emit(new Block(sequence++, index, offset, bytes, end, last));
+				if (last) { return sequence; }
+				offset += end;
+				length = carry;
+				bytes = next;
+			}
+		}
+	}
+
+	/**
+	 * Passes a block on to the parse stage, waiting for a permit and space in the queue
+	 *
+	 * @param block The block
+	 * @throws InterruptedException If the pipeline is stopped
+	 */
+	private void emit(Block block) throws InterruptedException {
+		long start = System.nanoTime();
+		inFlight.acquire();
+		blocks.put(block);
+		readStage.addBlocked(System.nanoTime() - start);
+		readStage.sampleQueueDepth(blocks.size());
+	}
+
+	/**
+	 * Takes a reusable block buffer, or allocates a new one
+	 *
+	 * @return The buffer
+	 */
+	private byte[] takeBuffer() {
+		byte[] bytes = buffers.poll();
+		return bytes != null ? bytes : new byte[blockSize];
+	}
+
+	/**
+	 * Finds the end of the last complete row in a block
+	 *
+	 * @param bytes The block
+	 * @param length The number of bytes in the block
+	 * @return The index after the last line ending (0 if there is none)
+	 */
+	private static int lastRowEnd(byte[] bytes, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (bytes[i] == '\n') { return i + 1; }
+		}
+		return 0;
+	}
+
+	// -- Parse Stage -- //
+
+	/**
+	 * Parses blocks until the end of the blocks (run by each parser thread)
+	 */
+	private void parse() {
+		try {
+			Metrics.trackAllocations(() -> {
+				while (true) {
+					// Wait for a block
+					long start = System.nanoTime();
+					Block block = blocks.take();
+					parseStage.addWaiting(System.nanoTime() - start);
+					if (block == END) { return null; }
+
+					// Parse the block
+					start = System.nanoTime();
+					if (!block.cached) { parseBlock(block); }
+					parseStage.addBusy(System.nanoTime() - start);
+					parseStage.addBlock(block.batch == null ? 0 : block.batch.getNumRecords(), block.length);
+
+					// Pass on the parsed block
+					start = System.nanoTime();
+					parsed.put(block);
+					parseStage.addBlocked(System.nanoTime() - start);
+					parseStage.sampleQueueDepth(parsed.size());
+				}
+			});
+		} catch (InterruptedException e) {
+			// Pipeline stopped
+		} catch (Throwable e) {
+			failure = e;
+		} finally {
+			// Tell the aggregator this parser has stopped
+			try {
+				parsed.put(END);
+			} catch (InterruptedException e) {
+				// Pipeline stopped
+			}
+		}
+	}
+
+	/**
+	 * Parses the rows of a block, leaving the block's batch null if it is not supported by the row parser
+	 *
+	 * @param block The block
+	 */
+	private void parseBlock(Block block) {
+		if (App.MAPPED_PARSER) {
+			MappedObservationParser parser = new MappedObservationParser(new ObservationBatch());
+			ByteBuffer buffer = ByteBuffer.wrap(block.bytes);
+
+			// Check the header at the start of the file (an empty file is left to Commons CSV)
+			int from = block.offset == 0 ? parser.parseHeader(buffer, 0, block.length, block.last) : 0;
+			if (from >= 0 && parser.parseRows(buffer, from, block.length, block.last) == block.length) {
+				block.batch = parser.getBatch();
+				block.parser = parser;
+			}
+		}
+
+		// Reuse the buffer
+		if (block.bytes.length == blockSize) { buffers.offer(block.bytes); }
+		block.bytes = null;
+	}
+
+	// -- Apply Stage -- //
+
+	/**
+	 * Adds the parsed blocks to the devices in the order they were read (run by the calling thread)
+	 *
+	 * @throws IOException If there is an error reading a file or the snapshot
+	 * @throws InterruptedException If the thread is interrupted
+	 * @return The current time
+	 */
+	private long aggregate() throws IOException, InterruptedException {
+		long currentTime = Long.MIN_VALUE;
+		Map<Long, Block> pending = new HashMap<>();
+		long next = 0;
+		int stopped = 0;
+
+		// State of the file being added
+		List<ObservationBatch> fileBatches = new ArrayList<>();
+		int fileRecords = 0;
+		int fileErrors = 0;
+		long fileEarliest = Long.MAX_VALUE;
+		long fileLatest = Long.MIN_VALUE;
+		boolean fallback = false;
+
+		while (true) {
+			// Wait for the next block
+			Block block = pending.remove(next);
+			if (block == null) {
+				if (stopped == numParsers) {
+					checkFailure();
+					if (!pending.isEmpty()) { throw new IllegalStateException("Observations pipeline stopped with blocks missing"); }
+					return currentTime;
+				}
+				long start = System.nanoTime();
+				Block taken = parsed.take();
+				applyStage.addWaiting(System.nanoTime() - start);
+				if (taken == END) {
+					stopped++;
+					checkFailure();
+				} else {
+					pending.put(taken.sequence, taken);
+				}
+				continue;
+			}
+			next++;
+
+			// Add the block to the devices
+			long start = System.nanoTime();
+			File file = files[block.fileIndex];
+			if (block.offset == 0 && App.VERBOSE) { System.out.println("\n Loading Observations CSV: " + file.getName() + "\n"); }
+			if (!fallback) {
+				ObservationBatch batch = block.batch;
+				if (batch == null) {
+					// Parse the rest of the file with Commons CSV
+					if (App.VERBOSE && App.MAPPED_PARSER) { System.out.println("Falling back to Commons CSV for " + file.getPath()); }
+					batch = App.readObservationsCSVWithCommons(file, block.offset);
+					fallback = true;
+				} else if (block.parser != null) {
+					block.parser.printMessages();
+				}
+				currentTime = App.applyBatch(devices, batch, currentTime);
+				applyStage.addBlock(batch.getNumRecords(), block.length);
+				fileRecords += batch.getNumRecords();
+				fileErrors += batch.getNumErrors();
+				fileEarliest = Math.min(fileEarliest, batch.getEarliestTime());
+				fileLatest = Math.max(fileLatest, batch.getCurrentTime());
+				if (snapshot != null && !block.cached) { fileBatches.add(batch); }
+			}
+
+			// Finish the file
+			if (block.last) {
+				App.printStatistics(fileRecords, fileErrors);
+				if (!block.cached) {
+					Metrics.recordFile(file.getName(), fileRecords, fileErrors, sizes[block.fileIndex], Metrics.stopTimer("observations.parse", starts[block.fileIndex]));
+					if (snapshot != null) {
+						ObservationBatch batch = ObservationBatch.concat(fileBatches);
+						batch.setSourceStamp(sizes[block.fileIndex], lastModified[block.fileIndex]);
+						snapshot.record(file, batch);
+					}
+				} else if (snapshot != null) {
+					snapshot.record(file, block.batch);
+				}
+				if (manifest != null) { manifest.record(file, sizes[block.fileIndex], lastModified[block.fileIndex], fileRecords, fileEarliest, fileLatest); }
+				fileBatches.clear();
+				fileRecords = 0;
+				fileErrors = 0;
+				fileEarliest = Long.MAX_VALUE;
+				fileLatest = Long.MIN_VALUE;
+				fallback = false;
+			}
+			applyStage.addBusy(System.nanoTime() - start);
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Rethrows the error of the reader or a parser thread, if there was one
+	 *
+	 * @throws IOException If there was an error reading a file or the snapshot
+	 */
+	private void checkFailure() throws IOException {
+		Throwable cause = failure;
+		if (cause == null) { return; }
+		if (cause instanceof IOException) { throw (IOException) cause; }
+		if (cause instanceof UncheckedIOException) { throw ((UncheckedIOException) cause).getCause(); }
+		if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+		if (cause instanceof Error) { throw (Error) cause; }
+		throw new IOException(cause);
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Block of whole rows of a file, passed through the stages
+	 */
+	private static final class Block {
+
+		/**
+		 * Position of the block in the order the blocks were read
+		 */
+		final long sequence;
+
+		/**
+		 * Index of the file
+		 */
+		final int fileIndex;
+
+		/**
+		 * Position of the block in the (decompressed) file
+		 */
+		final long offset;
+
+		/**
+		 * Bytes of the block (null once parsed)
+		 */
+		byte[] bytes;
+
+		/**
+		 * Number of bytes in the block
+		 */
+		final int length;
+
+		/**
+		 * True if this is the last block of the file
+		 */
+		final boolean last;
+
+		/**
+		 * True if the block holds the file's observations from the snapshot
+		 */
+		boolean cached = false;
+
+		/**
+		 * Parsed observations (null if the block is not supported by the row parser)
+		 */
+		ObservationBatch batch = null;
+
+		/**
+		 * Parser holding the error messages of the block (null if the block is not supported)
+		 */
+		MappedObservationParser parser = null;
+
+		/**
+		 * Constructor
+		 *
+		 * @param sequence The position of the block in the order the blocks were read
+		 * @param fileIndex The index of the file
+		 * @param offset The position of the block in the (decompressed) file
+		 * @param bytes The bytes of the block
+		 * @param length The number of bytes in the block
+		 * @param last True if this is the last block of the file
+		 */
+		Block(long sequence, int fileIndex, long offset, byte[] bytes, int length, boolean last) {
+			this.sequence = sequence;
+			this.fileIndex = fileIndex;
+			this.offset = offset;
+			this.bytes = bytes;
+			this.length = length;
+			this.last = last;
+		}
+	}
+}
@@ -0,0 +1,559 @@
+package interfuze;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-aggregated observations of a device in 5 minute, hourly and daily buckets.
+ *
+ * Each bucket holds the count, total, maximum, first and last rainfall of the observations in it, and is
+ * updated as observations are added (in or out of order). A bucket covers the times (start, start + size],
+ * with buckets aligned to the epoch so each level's buckets nest inside the next level's. A range query
+ * is answered from the largest buckets that fit inside the range, with smaller buckets towards its ends
+ * and the raw observations only for the partial 5 minute buckets at the two edges, so its cost depends on
+ * the length of the range in days rather than on the number of observations in it.
+ */
+public class ObservationRollup {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Size of the buckets of each level, from the finest (each a multiple of the previous)
+	 */
+	static final long[] BUCKET_SIZES = { TimeUnit.MINUTES.toMillis(5), TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1) };
+
+	/**
+	 * Earliest time a range can start (earlier times are clamped so bucket arithmetic can not overflow)
+	 */
+	private static final long MIN_TIME = Long.MIN_VALUE / 2;
+
+	/**
+	 * Latest time a range can end (later times are clamped so bucket arithmetic can not overflow)
+	 */
+	private static final long MAX_TIME = Long.MAX_VALUE / 2;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Buckets of each level, from the finest
+	 */
+	private final Level[] levels = new Level[BUCKET_SIZES.length];
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 */
+	public ObservationRollup() {
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = new Level(BUCKET_SIZES[i]);
+		}
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Adds an observation to the bucket of each level containing its time
+	 *
+	 * @param time The time of the observation (epoch milliseconds)
+	 * @param rainfall The amount of rainfall
+	 */
+	public void add(long time, int rainfall) {
+		for (Level level : levels) {
+			level.add(time, rainfall);
+		}
+	}
+
+	/**
+	 * Summarises the observations in the times (from, to].
+	 *
+	 * @param from The start of the range (exclusive)
+	 * @param to The end of the range (inclusive)
+	 * @param rawBound The time at or before which the raw observations may have been discarded; an edge of
+	 *        the range whose partial 5 minute bucket starts before it is widened to the whole bucket
+	 * @param edges The raw observations, used for the partial buckets at the edges of the range
+	 * @param summary The summary the observations are added to (in time order)
+	 */
+	public void summarise(long from, long to, long rawBound, Edges edges, Summary summary) {
+		from = Math.max(from, MIN_TIME);
+		to = Math.min(to, MAX_TIME);
+		if (from < rawBound) { from = floorTo(from, BUCKET_SIZES[0]); }
+		if (floorTo(to, BUCKET_SIZES[0]) < rawBound) { to = ceilTo(to, BUCKET_SIZES[0]); }
+		if (from < to) { collect(0, from, to, edges, summary); }
+	}
+
+	/**
+	 * Summarises a range with the buckets of a level and the coarser levels, using the next finer level
+	 * (or the raw observations) for the parts of the range outside whole buckets of the level.
+	 *
+	 * @param level The level
+	 * @param from The start of the range (exclusive, aligned to the next finer level)
+	 * @param to The end of the range (inclusive, aligned to the next finer level)
+	 * @param edges The raw observations
+	 * @param summary The summary the observations are added to
+	 */
+	private void collect(int level, long from, long to, Edges edges, Summary summary) {
+		long size = BUCKET_SIZES[level];
+		long start = ceilTo(from, size);
+		long end = floorTo(to, size);
+
+		// The range does not contain a whole bucket of this level
+		if (start >= end) {
+			collectFiner(level, from, to, edges, summary);
+			return;
+		}
+
+		// Finer buckets before, whole buckets (of this level or coarser) and finer buckets after
+		collectFiner(level, from, start, edges, summary);
+		if (level + 1 < levels.length) {
+			collect(level + 1, start, end, edges, summary);
+		} else {
+			levels[level].summarise(start, end, summary);
+		}
+		collectFiner(level, end, to, edges, summary);
+	}
+
+	/**
+	 * Summarises a range with the buckets of the next finer level, or the raw observations
+	 *
+	 * @param level The level
+	 * @param from The start of the range (exclusive)
+	 * @param to The end of the range (inclusive)
+	 * @param edges The raw observations
+	 * @param summary The summary the observations are added to
+	 */
+	private void collectFiner(int level, long from, long to, Edges edges, Summary summary) {
+		if (from >= to) { return; }
+		if (level == 0) {
+			edges.summarise(from, to, summary);
+		} else {
+			levels[level - 1].summarise(from, to, summary);
+		}
+	}
+
+	/**
+	 * Rounds a time down to a multiple of a bucket size
+	 *
+	 * @param time The time
+	 * @param size The bucket size
+	 * @return The rounded time
+	 */
+	static long floorTo(long time, long size) {
+		return Math.floorDiv(time, size) * size;
+	}
+
+	/**
+	 * Rounds a time up to a multiple of a bucket size
+	 *
+	 * @param time The time
+	 * @param size The bucket size
+	 * @return The rounded time
+	 */
+	static long ceilTo(long time, long size) {
+		long floor = floorTo(time, size);
+		return floor == time ? time : floor + size;
+	}
+
+	/**
+	 * Estimates the heap memory used by the rollup (the object, its levels and their buckets and queues)
+	 *
+	 * @return The estimated size (bytes)
+	 */
+	public long estimateMemoryBytes() {
+		long bytes = StringDictionary.align(12 + 4) + StringDictionary.align(16 + 4L * levels.length);
+		for (Level level : levels) {
+			bytes += level.estimateMemoryBytes();
+		}
+		return bytes;
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Source of the raw observations at the edges of a range
+	 */
+	public interface Edges {
+
+		/**
+		 * Adds the raw observations in the times (from, to] to a summary, in time order
+		 *
+		 * @param from The start of the range (exclusive)
+		 * @param to The end of the range (inclusive)
+		 * @param summary The summary
+		 */
+		void summarise(long from, long to, Summary summary);
+	}
+
+	/**
+	 * Summary of observations built from buckets and raw observations, added in time order
+	 */
+	public static final class Summary {
+
+		/**
+		 * Number of observations
+		 */
+		private int count = 0;
+
+		/**
+		 * Total rainfall
+		 */
+		private long totalRainfall = 0;
+
+		/**
+		 * Maximum rainfall
+		 */
+		private int maxRainfall = Integer.MIN_VALUE;
+
+		/**
+		 * Rainfall of the first observation
+		 */
+		private int firstRainfall = 0;
+
+		/**
+		 * Rainfall of the last observation
+		 */
+		private int lastRainfall = 0;
+
+		/**
+		 * Adds an observation
+		 *
+		 * @param rainfall The amount of rainfall
+		 */
+		public void add(int rainfall) {
+			add(1, rainfall, rainfall, rainfall, rainfall);
+		}
+
+		/**
+		 * Adds a bucket of observations
+		 *
+		 * @param count The number of observations
+		 * @param total The total rainfall
+		 * @param max The maximum rainfall
+		 * @param first The rainfall of the first observation
+		 * @param last The rainfall of the last observation
+		 */
+		void add(int count, long total, int max, int first, int last) {
+			if (this.count == 0) { firstRainfall = first; }
+			this.count += count;
+			totalRainfall += total;
+			if (max > maxRainfall) { maxRainfall = max; }
+			lastRainfall = last;
+		}
+
+		/**
+		 * Creates the window summary
+		 *
+		 * @param threshold The rainfall threshold to check
+		 * @return The window summary
+		 */
+		public WindowSummary toWindowSummary(int threshold) {
+			if (count == 0) { return new WindowSummary(0, 0, 0, 0, 0, false); }
+			return new WindowSummary(count, totalRainfall, maxRainfall, firstRainfall, lastRainfall, maxRainfall > threshold);
+		}
+	}
+
+	/**
+	 * Buckets of one size, in order of time. Observations for buckets before the last bucket (out of
+	 * order) are queued and merged into the buckets in a single pass when the level is next queried.
+	 */
+	private static final class Level {
+
+		/**
+		 * Size of the buckets (milliseconds)
+		 */
+		final long bucketSize;
+
+		/**
+		 * Bucket numbers (bucket k covers the times (k * size, (k + 1) * size])
+		 */
+		long[] buckets = new long[4];
+
+		/**
+		 * Number of observations in each bucket
+		 */
+		int[] counts = new int[4];
+
+		/**
+		 * Total rainfall of each bucket
+		 */
+		long[] totals = new long[4];
+
+		/**
+		 * Maximum rainfall of each bucket
+		 */
+		int[] maxes = new int[4];
+
+		/**
+		 * Time of the first observation of each bucket
+		 */
+		long[] firstTimes = new long[4];
+
+		/**
+		 * Rainfall of the first observation of each bucket
+		 */
+		int[] firsts = new int[4];
+
+		/**
+		 * Time of the last observation of each bucket
+		 */
+		long[] lastTimes = new long[4];
+
+		/**
+		 * Rainfall of the last observation of each bucket
+		 */
+		int[] lasts = new int[4];
+
+		/**
+		 * Number of buckets
+		 */
+		int size = 0;
+
+		/**
+		 * Times of the queued out of order observations (null if none are queued)
+		 */
+		long[] queuedTimes = null;
+
+		/**
+		 * Rainfall of the queued out of order observations
+		 */
+		int[] queuedRainfalls = null;
+
+		/**
+		 * Number of queued out of order observations
+		 */
+		int numQueued = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param bucketSize The size of the buckets (milliseconds)
+		 */
+		Level(long bucketSize) {
+			this.bucketSize = bucketSize;
+		}
+
+		/**
+		 * Adds an observation to its bucket, creating the bucket if needed, or queues it if it belongs
+		 * before the last bucket
+		 *
+		 * @param time The time of the observation
+		 * @param rainfall The amount of rainfall
+		 */
+		void add(long time, int rainfall) {
+			long bucket = Math.floorDiv(time - 1, bucketSize);
+			if (size > 0 && bucket < buckets[size - 1]) {
+				queue(time, rainfall);
+				return;
+			}
+			if (size == 0 || buckets[size - 1] != bucket) {
+				if (size == buckets.length) { resize(size * 2); }
+				clear(size++, bucket);
+			}
+			update(size - 1, time, rainfall);
+		}
+
+		/**
+		 * Estimates the heap memory used by the level (the object, with a long, 10 references and 2 ints,
+		 * and its arrays)
+		 *
+		 * @return The estimated size (bytes)
+		 */
+		long estimateMemoryBytes() {
+			long longArray = StringDictionary.align(16 + 8L * buckets.length);
+			long intArray = StringDictionary.align(16 + 4L * buckets.length);
+			long bytes = StringDictionary.align(12 + Long.BYTES + 10 * 4 + 2 * Integer.BYTES) + 4 * longArray + 4 * intArray;
+			if (queuedTimes != null) { bytes += StringDictionary.align(16 + 8L * queuedTimes.length) + StringDictionary.align(16 + 4L * queuedRainfalls.length); }
+			return bytes;
+		}
+
+		/**
+		 * Queues an out of order observation
+		 *
+		 * @param time The time of the observation
+		 * @param rainfall The amount of rainfall
+		 */
+		private void queue(long time, int rainfall) {
+			if (queuedTimes == null) {
+				queuedTimes = new long[16];
+				queuedRainfalls = new int[16];
+			} else if (numQueued == queuedTimes.length) {
+				queuedTimes = Arrays.copyOf(queuedTimes, numQueued * 2);
+				queuedRainfalls = Arrays.copyOf(queuedRainfalls, numQueued * 2);
+			}
+			queuedTimes[numQueued] = time;
+			queuedRainfalls[numQueued] = rainfall;
+			numQueued++;
+		}
+
+		/**
+		 * Merges the queued observations into the buckets. The queued observations of each bucket are
+		 * applied in the order they were added, after the observations already in it (which were all
+		 * added earlier), so ties keep the same first and last observations as an in order add.
+		 */
+		private void flush() {
+			if (numQueued == 0) { return; }
+
+			// Order the queued observations by bucket (stable, so each bucket's keep the order they were added)
+			long[] keys = new long[numQueued];
+			for (int i = 0; i < numQueued; i++) {
+				keys[i] = Math.floorDiv(queuedTimes[i] - 1, bucketSize);
+			}
+			int[] order = sortByKey(keys, numQueued);
+
+			// Merge the existing buckets and the queued observations into new arrays
+			long[] oldBuckets = buckets;
+			int[] oldCounts = counts;
+			long[] oldTotals = totals;
+			int[] oldMaxes = maxes;
+			long[] oldFirstTimes = firstTimes;
+			int[] oldFirsts = firsts;
+			long[] oldLastTimes = lastTimes;
+			int[] oldLasts = lasts;
+			int oldSize = size;
+			buckets = new long[oldSize + numQueued];
+			counts = new int[buckets.length];
+			totals = new long[buckets.length];
+			maxes = new int[buckets.length];
+			firstTimes = new long[buckets.length];
+			firsts = new int[buckets.length];
+			lastTimes = new long[buckets.length];
+			lasts = new int[buckets.length];
+			size = 0;
+			int a = 0;
+			int q = 0;
+			while (a < oldSize || q < numQueued) {
+				// Copy the next existing bucket, or start a new one
+				if (a < oldSize && (q == numQueued || oldBuckets[a] <= keys[order[q]])) {
+					buckets[size] = oldBuckets[a];
+					counts[size] = oldCounts[a];
+					totals[size] = oldTotals[a];
+					maxes[size] = oldMaxes[a];
+					firstTimes[size] = oldFirstTimes[a];
+					firsts[size] = oldFirsts[a];
+					lastTimes[size] = oldLastTimes[a];
+					lasts[size] = oldLasts[a];
+					a++;
+				} else {
+					clear(size, keys[order[q]]);
+				}
+
+				// Apply the queued observations of the bucket
+				for (; q < numQueued && keys[order[q]] == buckets[size]; q++) {
+					update(size, queuedTimes[order[q]], queuedRainfalls[order[q]]);
+				}
+				size++;
+			}
+
+			// Release the queue
+			queuedTimes = null;
+			queuedRainfalls = null;
+			numQueued = 0;
+		}
+
+		/**
+		 * Sets a bucket to an empty bucket
+		 *
+		 * @param index The index of the bucket
+		 * @param bucket The bucket number
+		 */
+		private void clear(int index, long bucket) {
+			buckets[index] = bucket;
+			counts[index] = 0;
+			totals[index] = 0;
+		}
+
+		/**
+		 * Adds an observation to a bucket. Of observations with the same time, the first added is the
+		 * first and the last added is the last (as with the raw observations).
+		 *
+		 * @param index The index of the bucket
+		 * @param time The time of the observation
+		 * @param rainfall The amount of rainfall
+		 */
+		private void update(int index, long time, int rainfall) {
+			if (counts[index] == 0) {
+				maxes[index] = rainfall;
+				firstTimes[index] = time;
+				firsts[index] = rainfall;
+				lastTimes[index] = time;
+				lasts[index] = rainfall;
+			} else {
+				if (rainfall > maxes[index]) { maxes[index] = rainfall; }
+				if (time < firstTimes[index]) {
+					firstTimes[index] = time;
+					firsts[index] = rainfall;
+				}
+				if (time >= lastTimes[index]) {
+					lastTimes[index] = time;
+					lasts[index] = rainfall;
+				}
+			}
+			counts[index]++;
+			totals[index] += rainfall;
+		}
+
+		/**
+		 * Resizes the bucket arrays
+		 *
+		 * @param capacity The new capacity
+		 */
+		private void resize(int capacity) {
+			buckets = Arrays.copyOf(buckets, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			totals = Arrays.copyOf(totals, capacity);
+			maxes = Arrays.copyOf(maxes, capacity);
+			firstTimes = Arrays.copyOf(firstTimes, capacity);
+			firsts = Arrays.copyOf(firsts, capacity);
+			lastTimes = Arrays.copyOf(lastTimes, capacity);
+			lasts = Arrays.copyOf(lasts, capacity);
+		}
+
+		/**
+		 * Adds the buckets inside the times (from, to] to a summary
+		 *
+		 * @param from The start of the range (exclusive, a multiple of the bucket size)
+		 * @param to The end of the range (inclusive, a multiple of the bucket size)
+		 * @param summary The summary
+		 */
+		void summarise(long from, long to, Summary summary) {
+			flush();
+			long first = from / bucketSize;
+			long end = to / bucketSize;
+			int index = Arrays.binarySearch(buckets, 0, size, first);
+			if (index < 0) { index = -index - 1; }
+			for (; index < size && buckets[index] < end; index++) {
+				summary.add(counts[index], totals[index], maxes[index], firsts[index], lasts[index]);
+			}
+		}
+
+		/**
+		 * Orders indices by key with a stable bottom up merge sort
+		 *
+		 * @param keys The keys
+		 * @param count The number of keys
+		 * @return The indices of the keys in order
+		 */
+		private static int[] sortByKey(long[] keys, int count) {
+			int[] order = new int[count];
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			int[] buffer = new int[count];
+			for (int width = 1; width < count; width *= 2) {
+				for (int left = 0; left < count; left += 2 * width) {
+					int middle = Math.min(left + width, count);
+					int right = Math.min(left + 2 * width, count);
+					int a = left;
+					int b = middle;
+					for (int k = left; k < right; k++) {
+						buffer[k] = a < middle && (b >= right || keys[order[a]] <= keys[order[b]]) ? order[a++] : order[b++];
+					}
+				}
+				int[] swap = order;
+				order = buffer;
+				buffer = swap;
+			}
+			return order;
+		}
+	}
+}
@@ -0,0 +1,448 @@
+package interfuze;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the lookback window summaries of the loaded devices over HTTP, and ingests new observations.
+ *
+ * The endpoints are:
+ * - GET /devices - the summaries of every device, as JSON lines (the same as the jsonl report)
+ * - GET /devices/{id} - the summaries of a device, as a JSON object
+ * - GET /fleet - the summaries of every window across all devices, as a JSON object
+ * - POST /ingest - adds observations CSV rows (with the header row) to the devices
+ *
+ * The summaries are published as an immutable view through a volatile field, so queries never read
+ * the devices' observations and never wait for an ingest. Ingests are applied one at a time; each one
+ * re-summarises the devices it touched (or every device if the current time moved) and then publishes a
+ * new view.
+ */
+public class ObservationServer {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Content type of JSON responses
+	 */
+	private static final String JSON_TYPE = "application/json; charset=utf-8";
+
+	/**
+	 * Content type of JSON lines responses
+	 */
+	private static final String JSON_LINES_TYPE = "application/x-ndjson; charset=utf-8";
+
+	/**
+	 * Path of the devices endpoint
+	 */
+	private static final String DEVICES_PATH = "/devices";
+
+	// ---- Variables ---- //
+
+	/**
+	 * Registry of devices (only modified by ingests)
+	 */
+	private final DeviceRegistry devices;
+
+	/**
+	 * The devices in order of device ID
+	 */
+	private final Device[] sortedDevices;
+
+	/**
+	 * Index of each device in sortedDevices, by device ID
+	 */
+	private final Map<Integer, Integer> indexes = new HashMap<>();
+
+	/**
+	 * Number of threads used to summarise the devices
+	 */
+	private final int parallelism;
+
+	/**
+	 * Lock held while an ingest is applied (queries do not take it)
+	 */
+	private final Object ingestLock = new Object();
+
+	/**
+	 * The latest published summaries
+	 */
+	private volatile View view;
+
+	/**
+	 * The HTTP server (null if not started)
+	 */
+	private HttpServer server;
+
+	/**
+	 * Threads handling the requests
+	 */
+	private ExecutorService executor;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor (summarises the devices)
+	 *
+	 * @param devices The registry of devices, with the observations loaded
+	 * @param currentTime The current time (the time of the last observation parsed)
+	 * @param parallelism The number of threads used to summarise the devices
+	 */
+	public ObservationServer(DeviceRegistry devices, long currentTime, int parallelism) {
+		this.devices = devices;
+		this.sortedDevices = ReportAggregator.sortByDeviceID(devices.values());
+		this.parallelism = parallelism;
+		for (int i = 0; i < sortedDevices.length; i++) {
+			indexes.put(sortedDevices[i].getDeviceID(), i);
+		}
+		this.view = new View(currentTime, ReportAggregator.summarise(sortedDevices, lookbackTimes(currentTime), App.THRESHOLD, parallelism));
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Starts serving requests
+	 *
+	 * @param port The port to listen on (0 for any free port)
+	 * @throws IOException If the server can not be started
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext(DEVICES_PATH, exchange -> handle(exchange, "GET", this::handleDevices));
+		server.createContext("/fleet", exchange -> handle(exchange, "GET", this::handleFleet));
+		server.createContext("/ingest", exchange -> handle(exchange, "POST", this::handleIngest));
+		executor = Executors.newFixedThreadPool(Math.max(parallelism, 2));
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stops serving requests
+	 */
+	public void stop() {
+		if (server != null) { server.stop(0); }
+		if (executor != null) { executor.shutdownNow(); }
+	}
+
+	/**
+	 * Gets the port the server is listening on
+	 *
+	 * @return The port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Handles a request, checking its method and turning errors into error responses
+	 *
+	 * @param exchange The request and response
+	 * @param method The method accepted
+	 * @param handler The handler of the request
+	 * @throws IOException If there is an error writing the response
+	 */
+	private static void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+		long start = Metrics.startTimer();
+		try {
+			if (!exchange.getRequestMethod().equals(method)) {
+				exchange.getResponseHeaders().set("Allow", method);
+				respondError(exchange, 405, "Method " + exchange.getRequestMethod() + " is not allowed");
+			} else {
+				handler.handle(exchange);
+			}
+		} catch (IllegalArgumentException e) {
+			respondError(exchange, 400, e.getMessage());
+		} catch (Exception e) {
+			if (App.VERBOSE) { e.printStackTrace(); }
+			respondError(exchange, 500, "Internal server error");
+		} finally {
+			exchange.close();
+			Metrics.stopTimer("server" + exchange.getHttpContext().getPath().replace('/', '.'), start);
+		}
+	}
+
+	/**
+	 * Responds with the summaries of every device, or of the device in the path
+	 *
+	 * @param exchange The request and response
+	 * @throws IOException If there is an error writing the response
+	 */
+	private void handleDevices(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		View current = view;
+		StringWriter writer = new StringWriter();
+		ReportRenderer renderer = new JsonLinesReportRenderer(writer, App.WINDOWS, App.THRESHOLDS);
+
+		// Every device
+		if (path.equals(DEVICES_PATH) || path.equals(DEVICES_PATH + "/")) {
+			for (int i = 0; i < sortedDevices.length; i++) {
+				renderer.writeRow(sortedDevices[i], current.summaries[i]);
+			}
+			respond(exchange, 200, JSON_LINES_TYPE, writer.toString());
+			return;
+		}
+
+		// A single device
+		String id = path.substring(DEVICES_PATH.length() + 1);
+		Integer index;
+		try {
+			index = indexes.get(Integer.parseInt(id));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid device ID " + id);
+		}
+		if (index == null) {
+			respondError(exchange, 404, "Unknown device ID " + id);
+			return;
+		}
+		renderer.writeRow(sortedDevices[index], current.summaries[index]);
+		respond(exchange, 200, JSON_TYPE, writer.toString());
+	}
+
+	/**
+	 * Responds with the summaries of every window across all devices
+	 *
+	 * @param exchange The request and response
+	 * @throws IOException If there is an error writing the response
+	 */
+	private void handleFleet(HttpExchange exchange) throws IOException {
+		respond(exchange, 200, JSON_TYPE, view.fleet);
+	}
+
+	/**
+	 * Parses the observations CSV in the request body, adds its observations to the devices and responds
+	 * with the number of records read
+	 *
+	 * @param exchange The request and response
+	 * @throws IOException If there is an error reading the request or writing the response
+	 */
+	private void handleIngest(HttpExchange exchange) throws IOException {
+		// Read the whole body (so it can be parsed again by Commons CSV if needed)
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) >= 0; ) {
+				body.write(buffer, 0, read);
+			}
+		}
+		ObservationBatch batch = parse(body.toByteArray());
+		respond(exchange, 200, JSON_TYPE, ingest(batch));
+	}
+
+	/**
+	 * Parses an ingested observations CSV
+	 *
+	 * @param bytes The observations CSV (including the header row)
+	 * @throws IOException If there is an error parsing the CSV
+	 * @return The batch of observations
+	 */
+	static ObservationBatch parse(byte[] bytes) throws IOException {
+		if (App.MAPPED_PARSER) {
+			ObservationBatch batch = MappedObservationParser.read(new ByteArrayInputStream(bytes));
+			if (batch != null) { return batch; }
+		}
+		try {
+			return App.readObservationsCSVWithCommons(new StringReader(new String(bytes, StandardCharsets.UTF_8)), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			throw new IllegalArgumentException("Invalid observations CSV - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Adds a batch of observations to the devices and publishes the new summaries. A batch with an
+	 * unknown device ID is rejected without adding any of its observations.
+	 *
+	 * @param batch The batch of observations
+	 * @return The JSON response (the number of records and errors, and the current time)
+	 */
+	String ingest(ObservationBatch batch) {
+		// Check the devices before adding anything
+		for (int i = 0; i < batch.size(); i++) {
+			if (!indexes.containsKey(batch.getDeviceID(i))) { throw new IllegalArgumentException("Unknown device ID " + batch.getDeviceID(i)); }
+		}
+
+		synchronized (ingestLock) {
+			// Add the observations
+			View previous = view;
+			long currentTime = App.applyBatch(devices, batch, previous.currentTime);
+
+			// Re-summarise the devices that changed (or every device if the windows moved)
+			WindowSummary[][] summaries;
+			if (currentTime == previous.currentTime) {
+				summaries = previous.summaries.clone();
+				long[] times = lookbackTimes(currentTime);
+				for (int i = 0; i < batch.size(); i++) {
+					int index = indexes.get(batch.getDeviceID(i));
+					if (summaries[index] == previous.summaries[index]) { summaries[index] = sortedDevices[index].getWindowSummariesSince(times, App.THRESHOLD); }
+				}
+			} else {
+				summaries = ReportAggregator.summarise(sortedDevices, lookbackTimes(currentTime), App.THRESHOLD, parallelism);
+			}
+
+			// Publish the summaries
+			view = new View(currentTime, summaries);
+			Metrics.increment("server.ingested", batch.size());
+			return "{\"records\":" + batch.getNumRecords() + ",\"errors\":" + batch.getNumErrors() + ",\"currentTime\":" + currentTime + "}\n";
+		}
+	}
+
+	/**
+	 * Calculates the start of each lookback window
+	 *
+	 * @param currentTime The current time
+	 * @return The start of each lookback window
+	 */
+	private static long[] lookbackTimes(long currentTime) {
+		long[] times = new long[App.WINDOWS.length];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = currentTime - App.WINDOWS[i];
+		}
+		return times;
+	}
+
+	/**
+	 * Writes a response
+	 *
+	 * @param exchange The request and response
+	 * @param status The HTTP status code
+	 * @param contentType The content type of the body
+	 * @param body The body
+	 * @throws IOException If there is an error writing the response
+	 */
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Writes an error response
+	 *
+	 * @param exchange The request and response
+	 * @param status The HTTP status code
+	 * @param message The error message
+	 * @throws IOException If there is an error writing the response
+	 */
+	private static void respondError(HttpExchange exchange, int status, String message) throws IOException {
+		respond(exchange, status, JSON_TYPE, "{\"error\":" + Json.quote(message) + "}\n");
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the current time of the published summaries
+	 *
+	 * @return The current time
+	 */
+	public long getCurrentTime() {
+		return view.currentTime;
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Handler of a request
+	 */
+	private interface Handler {
+
+		/**
+		 * Handles a request
+		 *
+		 * @param exchange The request and response
+		 * @throws IOException If there is an error reading the request or writing the response
+		 */
+		void handle(HttpExchange exchange) throws IOException;
+	}
+
+	/**
+	 * Immutable summaries of the devices at a current time, published to the queries
+	 */
+	private static final class View {
+
+		/**
+		 * The current time
+		 */
+		final long currentTime;
+
+		/**
+		 * The summaries of the windows of each device (in order of device ID, never modified once published)
+		 */
+		final WindowSummary[][] summaries;
+
+		/**
+		 * The fleet summary response
+		 */
+		final String fleet;
+
+		/**
+		 * Constructor (builds the fleet summary)
+		 *
+		 * @param currentTime The current time
+		 * @param summaries The summaries of the windows of each device
+		 */
+		View(long currentTime, WindowSummary[][] summaries) {
+			this.currentTime = currentTime;
+			this.summaries = summaries;
+			this.fleet = summariseFleet(currentTime, summaries);
+		}
+
+		/**
+		 * Summarises each window across all devices
+		 *
+		 * @param currentTime The current time
+		 * @param summaries The summaries of the windows of each device
+		 * @return The fleet summary as a JSON object
+		 */
+		private static String summariseFleet(long currentTime, WindowSummary[][] summaries) {
+			StringBuilder json = new StringBuilder(256);
+			json.append("{\"currentTime\":").append(currentTime).append(",\"devices\":").append(summaries.length).append(",\"windows\":[");
+			for (int w = 0; w < App.WINDOWS.length; w++) {
+				long observations = 0;
+				long totalRainfall = 0;
+				int reporting = 0;
+				int maxRainfall = 0;
+				int[] exceeding = new int[App.THRESHOLDS.length];
+				for (WindowSummary[] device : summaries) {
+					WindowSummary summary = device[w];
+					if (summary.getCount() == 0) { continue; }
+					observations += summary.getCount();
+					totalRainfall += summary.getTotalRainfall();
+					reporting++;
+					maxRainfall = Math.max(maxRainfall, summary.getMaxRainfall());
+					for (int t = 0; t < exceeding.length; t++) {
+						if (summary.isExceeding(App.THRESHOLDS[t])) { exceeding[t]++; }
+					}
+				}
+
+				// Append the window
+				json.append(w == 0 ? "{" : ",{").append("\"windowMinutes\":").append(TimeUnit.MILLISECONDS.toMinutes(App.WINDOWS[w]));
+				json.append(",\"observations\":").append(observations).append(",\"reportingDevices\":").append(reporting).append(",\"averageRainfall\":");
+				DecimalFormatter.PLAIN.append(json, observations == 0 ? 0 : totalRainfall / (double) observations);
+				json.append(",\"maxRainfall\":").append(maxRainfall).append(",\"devicesExceeding\":[");
+				for (int t = 0; t < exceeding.length; t++) {
+					json.append(t == 0 ? "{" : ",{").append("\"threshold\":").append(App.THRESHOLDS[t]).append(",\"devices\":").append(exceeding[t]).append('}');
+				}
+				json.append("]}");
+			}
+			return json.append("]}\n").toString();
+		}
+	}
+}
@@ -0,0 +1,393 @@
+package interfuze;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary columnar cache of parsed observations CSVs, used to skip re-parsing files that have not changed.
+ *
+ * The snapshot file contains one entry per observations CSV, recording the file's path, size and last
+ * modified time followed by a device table (device IDs and observation counts) and the time and rainfall
+ * columns of each device. Entries are read through memory mappings. A new snapshot is written alongside
+ * the old one as the files are loaded (unchanged entries are copied across without decoding them) and
+ * replaces it when closed.
+ *
+ * Snapshot layout (big endian):
+ * <pre>
+ * int magic, int version
+ * entries: long entryLength, int pathLength, byte[] path (UTF-8), long size, long lastModified,
+ *          int numRecords, int numErrors, int numDevices, int[] deviceIDs, int[] counts,
+ *          long[] times, int[] rainfalls (grouped by device in device table order)
+ * </pre>
+ */
+public class ObservationSnapshot implements Closeable {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Magic number at the start of a snapshot file ("IFZS")
+	 */
+	private static final int MAGIC = 0x49465A53;
+
+	/**
+	 * Snapshot format version
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the snapshot file header (magic and version)
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Path of the snapshot file
+	 */
+	private final Path path;
+
+	/**
+	 * Path of the snapshot being written
+	 */
+	private final Path newPath;
+
+	/**
+	 * Channel of the previous snapshot (null if there is none)
+	 */
+	private final FileChannel oldChannel;
+
+	/**
+	 * Entries of the previous snapshot, by source file path
+	 */
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * Channel of the snapshot being written
+	 */
+	private final FileChannel newChannel;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param path The path of the snapshot file
+	 * @param oldChannel The channel of the previous snapshot (null if there is none)
+	 * @throws IOException If there is an error creating the new snapshot
+	 */
+	private ObservationSnapshot(Path path, FileChannel oldChannel) throws IOException {
+		this.path = path;
+		this.newPath = Paths.get(path.toString() + ".tmp");
+		this.oldChannel = oldChannel;
+		this.newChannel = FileChannel.open(newPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		// Write the header of the new snapshot
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		write(newChannel, header);
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Opens a snapshot, reading the entries of the previous snapshot if there is a valid one.
+	 *
+	 * @param path The path of the snapshot file
+	 * @throws IOException If there is an error creating the new snapshot
+	 * @return The snapshot
+	 */
+	public static ObservationSnapshot open(Path path) throws IOException {
+		// Open the previous snapshot
+		FileChannel oldChannel = null;
+		if (Files.isRegularFile(path)) {
+			oldChannel = FileChannel.open(path, StandardOpenOption.READ);
+		}
+
+		ObservationSnapshot snapshot = new ObservationSnapshot(path, oldChannel);
+		if (oldChannel != null && !snapshot.readEntries()) {
+			System.out.println(App.ANSI_YELLOW + "Warning" + App.ANSI_RESET + " ignoring invalid snapshot " + path);
+			snapshot.entries.clear();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Reads the entry index of the previous snapshot.
+	 *
+	 * @throws IOException If there is an error reading the snapshot
+	 * @return True if the snapshot is valid
+	 */
+	private boolean readEntries() throws IOException {
+		long size = oldChannel.size();
+		if (size < HEADER_SIZE) { return false; }
+
+		// Check the header
+		ByteBuffer header = oldChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) { return false; }
+
+		// Read the source file details of each entry
+		long position = HEADER_SIZE;
+		while (position < size) {
+			if (size - position < Long.BYTES + Integer.BYTES) { return false; }
+			ByteBuffer prefix = oldChannel.map(FileChannel.MapMode.READ_ONLY, position, Long.BYTES + Integer.BYTES);
+			long entryLength = prefix.getLong();
+			int pathLength = prefix.getInt();
+			if (entryLength < Integer.BYTES + pathLength + 2 * Long.BYTES || position + Long.BYTES + entryLength > size || pathLength < 0) { return false; }
+
+			// Read the path, size and last modified time
+			ByteBuffer details = oldChannel.map(FileChannel.MapMode.READ_ONLY, position + Long.BYTES + Integer.BYTES, pathLength + 2 * Long.BYTES);
+			byte[] pathBytes = new byte[pathLength];
+			details.get(pathBytes);
+			String source = new String(pathBytes, StandardCharsets.UTF_8);
+			entries.put(source, new Entry(position, Long.BYTES + entryLength, details.getLong(), details.getLong(), Long.BYTES + Integer.BYTES + pathLength + 2 * Long.BYTES));
+			position += Long.BYTES + entryLength;
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the observations of a file from the previous snapshot, if the file has not changed.
+	 * This method is thread-safe.
+	 *
+	 * @param file The observations CSV
+	 * @throws IOException If there is an error reading the snapshot
+	 * @return The batch of observations, or null if the file is not in the snapshot or has changed
+	 */
+	public ObservationBatch load(File file) throws IOException {
+		// Check the file has not changed
+		Entry entry = entries.get(key(file));
+		if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) { return null; }
+
+		// Read the device table
+		MappedByteBuffer buffer = oldChannel.map(FileChannel.MapMode.READ_ONLY, entry.position + entry.dataOffset, entry.length - entry.dataOffset);
+		int numRecords = buffer.getInt();
+		int numErrors = buffer.getInt();
+		int numDevices = buffer.getInt();
+		int[] deviceIDs = new int[numDevices];
+		int[] counts = new int[numDevices];
+		buffer.asIntBuffer().get(deviceIDs);
+		buffer.position(buffer.position() + numDevices * Integer.BYTES);
+		buffer.asIntBuffer().get(counts);
+		buffer.position(buffer.position() + numDevices * Integer.BYTES);
+
+		// Read the columns of each device
+		int total = numRecords - numErrors;
+		ByteBuffer times = buffer.slice();
+		buffer.position(buffer.position() + total * Long.BYTES);
+		ByteBuffer rainfalls = buffer.slice();
+		ObservationBatch batch = new ObservationBatch();
+		for (int device = 0; device < numDevices; device++) {
+			for (int i = 0; i < counts[device]; i++) {
+				batch.add(deviceIDs[device], times.getLong(), rainfalls.getInt());
+			}
+		}
+		batch.addErrors(numErrors);
+		batch.setSourceStamp(entry.size, entry.lastModified);
+		return batch;
+	}
+
+	/**
+	 * Records the observations of a file in the new snapshot. Entries that are unchanged from the
+	 * previous snapshot are copied across. Files must be recorded from a single thread.
+	 *
+	 * @param file The observations CSV
+	 * @param batch The batch of observations parsed from the file (with the source stamp set)
+	 * @throws IOException If there is an error writing the snapshot
+	 */
+	public void record(File file, ObservationBatch batch) throws IOException {
+		String source = key(file);
+
+		// Copy unchanged entries
+		Entry entry = entries.get(source);
+		if (entry != null && entry.size == batch.getSourceSize() && entry.lastModified == batch.getSourceLastModified()) {
+			long copied = 0;
+			while (copied < entry.length) {
+				copied += oldChannel.transferTo(entry.position + copied, entry.length - copied, newChannel);
+			}
+			return;
+		}
+
+		// Group the observations by device (keeping their order within each device)
+		Map<Integer, Integer> deviceIndexes = new HashMap<>();
+		int[] deviceIDs = new int[16];
+		int[] counts = new int[16];
+		for (int i = 0; i < batch.size(); i++) {
+			Integer index = deviceIndexes.get(batch.getDeviceID(i));
+			if (index == null) {
+				index = deviceIndexes.size();
+				deviceIndexes.put(batch.getDeviceID(i), index);
+				if (index == deviceIDs.length) {
+					deviceIDs = Arrays.copyOf(deviceIDs, index * 2);
+					counts = Arrays.copyOf(counts, index * 2);
+				}
+				deviceIDs[index] = batch.getDeviceID(i);
+			}
+			counts[index]++;
+		}
+		int numDevices = deviceIndexes.size();
+		int[] starts = new int[numDevices];
+		for (int device = 1; device < numDevices; device++) {
+			starts[device] = starts[device - 1] + counts[device - 1];
+		}
+
+		// Encode the entry (files too large for a single buffer are not cached)
+		byte[] pathBytes = source.getBytes(StandardCharsets.UTF_8);
+		long entryLength = Integer.BYTES + pathBytes.length + 2L * Long.BYTES + 3L * Integer.BYTES + 2L * numDevices * Integer.BYTES + (long) batch.size() * (Long.BYTES + Integer.BYTES);
+		if (Long.BYTES + entryLength > Integer.MAX_VALUE) { return; }
+		ByteBuffer buffer = ByteBuffer.allocate((int) (Long.BYTES + entryLength));
+		buffer.putLong(entryLength).putInt(pathBytes.length).put(pathBytes);
+		buffer.putLong(batch.getSourceSize()).putLong(batch.getSourceLastModified());
+		buffer.putInt(batch.getNumRecords()).putInt(batch.getNumErrors()).putInt(numDevices);
+		for (int device = 0; device < numDevices; device++) { buffer.putInt(deviceIDs[device]); }
+		for (int device = 0; device < numDevices; device++) { buffer.putInt(counts[device]); }
+		int timesOffset = buffer.position();
+		int rainfallsOffset = timesOffset + batch.size() * Long.BYTES;
+		for (int i = 0; i < batch.size(); i++) {
+			int index = starts[deviceIndexes.get(batch.getDeviceID(i))]++;
+			buffer.putLong(timesOffset + index * Long.BYTES, batch.getObservationTime(i));
+			buffer.putInt(rainfallsOffset + index * Integer.BYTES, batch.getRainfall(i));
+		}
+		buffer.position(buffer.capacity());
+		buffer.flip();
+		write(newChannel, buffer);
+	}
+
+	/**
+	 * Copies the entry of a file that was not loaded (e.g. skipped by the manifest) to the new snapshot,
+	 * if the file has not changed.
+	 *
+	 * @param file The observations CSV
+	 * @throws IOException If there is an error writing the snapshot
+	 */
+	public void keep(File file) throws IOException {
+		Entry entry = entries.get(key(file));
+		if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) { return; }
+		long copied = 0;
+		while (copied < entry.length) {
+			copied += oldChannel.transferTo(entry.position + copied, entry.length - copied, newChannel);
+		}
+	}
+
+	/**
+	 * Replaces the previous snapshot with the new snapshot
+	 *
+	 * @throws IOException If there is an error writing the snapshot
+	 */
+	@Override
+	public void close() throws IOException {
+		newChannel.force(false);
+		newChannel.close();
+		if (oldChannel != null) { oldChannel.close(); }
+		Files.move(newPath, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Discards the new snapshot, keeping the previous snapshot
+	 */
+	public void abort() {
+		try {
+			newChannel.close();
+			if (oldChannel != null) { oldChannel.close(); }
+			Files.deleteIfExists(newPath);
+		} catch (IOException e) {
+			// Nothing else to clean up
+		}
+	}
+
+	/**
+	 * Gets the key of a file in the snapshot
+	 *
+	 * @param file The file
+	 * @return The absolute path of the file
+	 */
+	private static String key(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	/**
+	 * Writes a buffer to a channel
+	 *
+	 * @param channel The channel
+	 * @param buffer The buffer
+	 * @throws IOException If there is an error writing to the channel
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the number of entries in the previous snapshot
+	 *
+	 * @return The number of entries
+	 */
+	public int getNumEntries() {
+		return entries.size();
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Location and source file details of an entry in the previous snapshot
+	 */
+	private static final class Entry {
+
+		/**
+		 * Position of the entry in the snapshot file
+		 */
+		final long position;
+
+		/**
+		 * Length of the entry (including its length prefix)
+		 */
+		final long length;
+
+		/**
+		 * Size of the source file
+		 */
+		final long size;
+
+		/**
+		 * Last modified time of the source file
+		 */
+		final long lastModified;
+
+		/**
+		 * Offset of the record counts from the start of the entry
+		 */
+		final long dataOffset;
+
+		/**
+		 * Constructor
+		 *
+		 * @param position The position of the entry
+		 * @param length The length of the entry
+		 * @param size The size of the source file
+		 * @param lastModified The last modified time of the source file
+		 * @param dataOffset The offset of the record counts from the start of the entry
+		 */
+		Entry(long position, long length, long size, long lastModified, long dataOffset) {
+			this.position = position;
+			this.length = length;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.dataOffset = dataOffset;
+		}
+	}
+}
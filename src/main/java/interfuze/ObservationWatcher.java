@@ -0,0 +1,394 @@
+package interfuze;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+
+/**
+ * Watches the observations directory and incrementally ingests appended rows and new observations CSVs.
+ *
+ * The byte offset of the last complete row read from each file is remembered, so only newly appended
+ * rows (or new files) are parsed when the directory changes. Rows are only read once they end with a
+ * line ending. Compressed observations CSVs (.csv.gz) cannot be read row by row as they are written, so
+ * they are read in full once the compressed stream is complete. When one grows (e.g. a gzip member is
+ * appended) it is read again and only the observations after those already added are new. The
+ * devices use incremental window aggregators, so the cost of a refresh depends on the
+ * new data rather than on all of the data loaded. The report is re-rendered at most a configured number
+ * of times per second.
+ */
+public class ObservationWatcher {
+
+	// ---- Constants ---- //
+
+	/**
+	 * ANSI escape that clears the terminal and moves the cursor to the top left
+	 */
+	private static final String ANSI_CLEAR = "\u001B[H\u001B[2J";
+
+	/**
+	 * Header names used when parsing appended rows with Commons CSV
+	 */
+	private static final String[] HEADER = { "Device ID", "Time", "Rainfall" };
+
+	// ---- Variables ---- //
+
+	/**
+	 * Registry of devices
+	 */
+	private final DeviceRegistry devices;
+
+	/**
+	 * Observations directory
+	 */
+	private final Path directory;
+
+	/**
+	 * Minimum time between refreshes of the report (milliseconds)
+	 */
+	private final long refreshInterval;
+
+	/**
+	 * Offset of the end of the last complete row read from each file
+	 */
+	private final Map<Path, Long> offsets = new HashMap<>();
+
+	/**
+	 * What has been read from each compressed file
+	 */
+	private final Map<Path, CompressedFile> compressedFiles = new HashMap<>();
+
+	/**
+	 * The current time (the time of the last observation parsed)
+	 */
+	private long currentTime = Long.MIN_VALUE;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param devices The registry of devices
+	 * @param directory The observations directory
+	 * @param refreshRate The maximum number of report refreshes per second
+	 */
+	public ObservationWatcher(DeviceRegistry devices, Path directory, int refreshRate) {
+		this.devices = devices;
+		this.directory = directory;
+		this.refreshInterval = TimeUnit.SECONDS.toMillis(1) / refreshRate;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Reads every observations CSV in the directory from its last offset.
+	 *
+	 * @throws IOException If there is an error reading a file
+	 * @return The number of observations read
+	 */
+	public int loadAll() throws IOException {
+		File[] files = directory.toFile().listFiles((d, name) -> App.isObservationsFile(name));
+		if (files == null) { throw new IOException("Unable to list observations directory " + directory); }
+		int read = 0;
+		for (File file : files) {
+			read += readAppended(file.toPath());
+		}
+		return read;
+	}
+
+	/**
+	 * Loads the observations CSVs, prints the report and then refreshes it as observations are appended
+	 * or added. This method only returns if the watch is interrupted.
+	 *
+	 * @throws IOException If there is an error reading a file or watching the directory
+	 */
+	public void watch() throws IOException {
+		// Use incremental window aggregation for the devices
+		for (Device device : devices.values()) {
+			device.enableWindowAggregator();
+		}
+
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			// Watch the directory before loading so that no changes are missed
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			loadAll();
+			App.recordRegistryFootprint(devices);
+			render();
+			long lastRender = System.currentTimeMillis();
+
+			// Wait for changes
+			boolean changed = false;
+			while (true) {
+				// Wait for the next change, or until the report can be refreshed
+				WatchKey key;
+				if (changed) {
+					long wait = lastRender + refreshInterval - System.currentTimeMillis();
+					key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : watchService.poll();
+				} else {
+					key = watchService.take();
+				}
+
+				// Read the changed files
+				if (key != null) {
+					changed |= processEvents(key);
+					if (!key.reset()) { throw new IOException("Observations directory is no longer accessible: " + directory); }
+				}
+
+				// Refresh the report
+				if (changed && System.currentTimeMillis() - lastRender >= refreshInterval) {
+					render();
+					lastRender = System.currentTimeMillis();
+					changed = false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// Watch service closed, stop watching
+		}
+	}
+
+	/**
+	 * Reads the files referenced by the events of a watch key.
+	 *
+	 * @param key The watch key
+	 * @throws IOException If there is an error reading a file
+	 * @return True if any observations were read
+	 */
+	private boolean processEvents(WatchKey key) throws IOException {
+		// Collect the changed files (an overflow means every file must be checked)
+		Set<Path> files = new LinkedHashSet<>();
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+			} else {
+				Path name = (Path) event.context();
+				if (App.isObservationsFile(name.toString())) { files.add(directory.resolve(name)); }
+			}
+		}
+
+		// Read the appended rows
+		int read = overflow ? loadAll() : 0;
+		for (Path file : files) {
+			read += readAppended(file);
+		}
+		return read > 0;
+	}
+
+	/**
+	 * Reads the complete rows appended to a file since it was last read and adds them to the devices.
+	 *
+	 * @param file The observations CSV
+	 * @throws IOException If there is an error reading the file
+	 * @return The number of observations read
+	 */
+	int readAppended(Path file) throws IOException {
+		if (App.isCompressed(file.getFileName().toString())) { return readCompressed(file); }
+		long start = Metrics.startTimer();
+		long offset = offsets.getOrDefault(file, 0L);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			// A file that has shrunk has been replaced, so read it from the start
+			if (size < offset) {
+				System.out.println(App.ANSI_YELLOW + "Warning" + App.ANSI_RESET + " observations CSV " + file.getFileName() + " was truncated - Reading from start");
+				offset = 0;
+			}
+			if (size == offset) { return 0; }
+
+			// Parse the complete rows with the memory mapped parser
+			ObservationBatch batch = new ObservationBatch();
+			MappedObservationParser parser = new MappedObservationParser(batch);
+			long end = App.MAPPED_PARSER ? parser.readRange(channel, offset, size, false) : MappedObservationParser.UNSUPPORTED;
+			if (end != MappedObservationParser.UNSUPPORTED) {
+				parser.printMessages();
+			} else {
+				// Parse the complete rows with Commons CSV
+				batch = readWithCommons(channel, offset, size);
+				end = offset + lastRowEnd(channel, offset, size);
+			}
+
+			// Add the observations to the devices
+			Metrics.recordFile(file.getFileName().toString(), batch.getNumRecords(), batch.getNumErrors(), end - offset, Metrics.stopTimer("observations.parse", start));
+			offsets.put(file, end);
+			currentTime = App.applyBatch(devices, batch, currentTime);
+			App.printStatistics(batch.getNumRecords(), batch.getNumErrors());
+			return batch.size();
+		}
+	}
+
+	/**
+	 * Reads a compressed observations CSV in full, if it has changed since it was last read, and adds the
+	 * observations after those already added from it to the devices. A file whose compressed stream is not
+	 * complete yet (it is still being written) is left until it changes again, and a file whose earlier
+	 * observations have changed is skipped rather than adding them twice.
+	 *
+	 * @param file The compressed observations CSV
+	 * @throws IOException If there is an error reading the file
+	 * @return The number of observations read
+	 */
+	private int readCompressed(Path file) throws IOException {
+		long start = Metrics.startTimer();
+		CompressedFile read = compressedFiles.computeIfAbsent(file, path -> new CompressedFile());
+		long size = Files.size(file);
+		if (size == read.size) { return 0; }
+
+		// Parse the whole file (a compressed stream can only be read from its start)
+		ObservationBatch batch;
+		try {
+			batch = App.readObservationsCSV(file.toString());
+		} catch (EOFException e) {
+			return 0;
+		}
+
+		// The observations already added must be unchanged
+		if (batch.size() < read.numObservations || batch.getNumErrors() < read.numErrors || fingerprint(batch, read.numObservations) != read.fingerprint) {
+			System.out.println(App.ANSI_YELLOW + "Warning" + App.ANSI_RESET + " observations CSV " + file.getFileName() + " was rewritten - Skipping file as its earlier observations have already been added");
+			read.size = size;
+			return 0;
+		}
+
+		// Take the observations after those already added
+		ObservationBatch added = batch;
+		if (read.numObservations > 0) {
+			added = new ObservationBatch();
+			for (int i = read.numObservations; i < batch.size(); i++) {
+				added.add(batch.getDeviceID(i), batch.getObservationTime(i), batch.getRainfall(i));
+			}
+			added.addErrors(batch.getNumErrors() - read.numErrors);
+		}
+
+		// Add the observations to the devices
+		Metrics.recordFile(file.getFileName().toString(), added.getNumRecords(), added.getNumErrors(), size - Math.max(read.size, 0), Metrics.stopTimer("observations.parse", start));
+		read.size = size;
+		read.numObservations = batch.size();
+		read.numErrors = batch.getNumErrors();
+		read.fingerprint = fingerprint(batch, batch.size());
+		currentTime = App.applyBatch(devices, added, currentTime);
+		App.printStatistics(added.getNumRecords(), added.getNumErrors());
+		return added.size();
+	}
+
+	/**
+	 * Calculates a fingerprint of the first observations of a batch, to check they are unchanged when a
+	 * file is read again
+	 *
+	 * @param batch The batch
+	 * @param count The number of observations
+	 * @return The fingerprint
+	 */
+	private static long fingerprint(ObservationBatch batch, int count) {
+		long hash = 1;
+		for (int i = 0; i < count; i++) {
+			hash = hash * 0x9E3779B97F4A7C15L + batch.getDeviceID(i);
+			hash = hash * 0x9E3779B97F4A7C15L + batch.getObservationTime(i);
+			hash = hash * 0x9E3779B97F4A7C15L + batch.getRainfall(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Parses the complete rows in a range of a file with Commons CSV.
+	 *
+	 * @param channel The file channel
+	 * @param start The position of the start of the first row (or 0 for the header)
+	 * @param end The position after the last byte available
+	 * @throws IOException If there is an error reading the file
+	 * @return The batch of observations
+	 */
+	private static ObservationBatch readWithCommons(FileChannel channel, long start, long end) throws IOException {
+		int length = lastRowEnd(channel, start, end);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) { }
+		String rows = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+		CSVFormat format = start == 0 ? CSVFormat.DEFAULT.withFirstRecordAsHeader() : CSVFormat.DEFAULT.withHeader(HEADER);
+		return App.readObservationsCSVWithCommons(new StringReader(rows), format);
+	}
+
+	/**
+	 * Finds the end of the last complete row in a range of a file.
+	 *
+	 * @param channel The file channel
+	 * @param start The position of the start of the range
+	 * @param end The position after the last byte available
+	 * @throws IOException If there is an error reading the file
+	 * @return The number of bytes from the start of the range to the end of the last line ending (0 if there is none)
+	 */
+	private static int lastRowEnd(FileChannel channel, long start, long end) throws IOException {
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		for (int i = buffer.limit() - 1; i >= 0; i--) {
+			if (buffer.get(i) == '\n') { return i + 1; }
+		}
+		return 0;
+	}
+
+	/**
+	 * Prints the report (clearing the terminal first when it is printed to the standard output)
+	 *
+	 * @throws IOException If there is an error writing the report
+	 */
+	private void render() throws IOException {
+		if (App.REPORT_FILE_PATH == null) { System.out.print(ANSI_CLEAR); }
+		App.printReport(devices, currentTime);
+		System.out.flush();
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the current time (the time of the last observation parsed)
+	 *
+	 * @return The current time
+	 */
+	public long getCurrentTime() {
+		return currentTime;
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * What has been read from a compressed observations CSV
+	 */
+	private static final class CompressedFile {
+
+		/**
+		 * Size of the file when it was last read (-1 if it has not been read)
+		 */
+		long size = -1;
+
+		/**
+		 * Number of observations added from the file
+		 */
+		int numObservations = 0;
+
+		/**
+		 * Number of rows of the file that could not be parsed
+		 */
+		int numErrors = 0;
+
+		/**
+		 * Fingerprint of the observations added from the file
+		 */
+		long fingerprint = 1;
+	}
+}
@@ -0,0 +1,326 @@
+package interfuze;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage of device observations, so the heap stays the same size however many observations
+ * are loaded (and the garbage collector never has to scan or copy them).
+ *
+ * The store reserves direct memory in slabs (up to a fixed capacity) as it is needed, and hands out blocks
+ * of fixed width (time, rainfall) records to the devices. Blocks hold a power of two number of records;
+ * blocks that are freed (e.g. when a device's block is grown) are kept on a free list for their size and
+ * reused. Once the capacity is reached, allocating a block throws an OutOfMemoryError describing the
+ * store's capacity.
+ *
+ * Record layout (native byte order):
+ * <pre>
+ * long time, int rainfall
+ * </pre>
+ *
+ * Records are read and written by the owning device. Blocks may be allocated and freed from any thread.
+ */
+public class OffHeapObservationStore {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Size of a record (bytes)
+	 */
+	public static final int RECORD_SIZE = Long.BYTES + Integer.BYTES;
+
+	/**
+	 * Maximum size of a slab of direct memory (bytes), which is also the largest block
+	 */
+	private static final int SLAB_SIZE = 1 << 28;
+
+	/**
+	 * Number of size classes of blocks (a block of size class k holds 2^k records)
+	 */
+	private static final int NUM_SIZE_CLASSES = 32;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Capacity of the store (bytes)
+	 */
+	private final long capacity;
+
+	/**
+	 * Slabs of direct memory reserved so far
+	 */
+	private ByteBuffer[] slabs = new ByteBuffer[4];
+
+	/**
+	 * Number of slabs reserved
+	 */
+	private int numSlabs = 0;
+
+	/**
+	 * Offset of the unused space in the last slab
+	 */
+	private int slabOffset = 0;
+
+	/**
+	 * Total size of the slabs reserved (bytes)
+	 */
+	private long reservedBytes = 0;
+
+	/**
+	 * Total size of the blocks in use (bytes)
+	 */
+	private long usedBytes = 0;
+
+	/**
+	 * Addresses of the free blocks of each size class
+	 */
+	private final long[][] freeBlocks = new long[NUM_SIZE_CLASSES][];
+
+	/**
+	 * Number of free blocks of each size class
+	 */
+	private final int[] numFreeBlocks = new int[NUM_SIZE_CLASSES];
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity The capacity of the store (bytes)
+	 */
+	public OffHeapObservationStore(long capacity) {
+		if (capacity < RECORD_SIZE) { throw new IllegalArgumentException("Off-heap store capacity must be at least " + RECORD_SIZE + " bytes"); }
+		this.capacity = capacity;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Allocates a block of records. The address of a block is its slab number (high 32 bits) and its offset
+	 * in the slab (low 32 bits).
+	 *
+	 * @param records The number of records (a power of two)
+	 * @throws OutOfMemoryError If the store does not have space for the block
+	 * @return The address of the block
+	 */
+	public synchronized long allocate(int records) {
+		int sizeClass = sizeClass(records);
+
+		// Reuse a free block
+		if (numFreeBlocks[sizeClass] > 0) {
+			usedBytes += blockSize(sizeClass);
+			return freeBlocks[sizeClass][--numFreeBlocks[sizeClass]];
+		}
+
+		// Reserve a new slab if the block does not fit in the last slab
+		long size = blockSize(sizeClass);
+		if (size > SLAB_SIZE) { throw new OutOfMemoryError("Off-heap observation store cannot hold more than " + SLAB_SIZE / RECORD_SIZE + " observations for one device"); }
+		if (numSlabs == 0 || slabOffset + size > slabs[numSlabs - 1].capacity()) {
+			int slabSize = (int) Math.min(SLAB_SIZE, capacity - reservedBytes);
+			if (slabSize < size) { throw full(size); }
+			if (numSlabs == slabs.length) { slabs = Arrays.copyOf(slabs, numSlabs * 2); }
+			try {
+				slabs[numSlabs] = ByteBuffer.allocateDirect(slabSize).order(ByteOrder.nativeOrder());
+			} catch (OutOfMemoryError e) {
+				throw new OutOfMemoryError("Unable to reserve " + slabSize + " bytes of direct memory for the off-heap observation store (raise -XX:MaxDirectMemorySize to at least the store capacity)");
+			}
+			numSlabs++;
+			slabOffset = 0;
+			reservedBytes += slabSize;
+		}
+
+		// Take the block from the end of the last slab
+		long address = ((long) (numSlabs - 1) << 32) | slabOffset;
+		slabOffset += size;
+		usedBytes += size;
+		return address;
+	}
+
+	/**
+	 * Frees a block of records so it can be reused
+	 *
+	 * @param address The address of the block
+	 * @param records The number of records in the block
+	 */
+	public synchronized void free(long address, int records) {
+		int sizeClass = sizeClass(records);
+		if (freeBlocks[sizeClass] == null) {
+			freeBlocks[sizeClass] = new long[16];
+		} else if (numFreeBlocks[sizeClass] == freeBlocks[sizeClass].length) {
+			freeBlocks[sizeClass] = Arrays.copyOf(freeBlocks[sizeClass], numFreeBlocks[sizeClass] * 2);
+		}
+		freeBlocks[sizeClass][numFreeBlocks[sizeClass]++] = address;
+		usedBytes -= blockSize(sizeClass);
+	}
+
+	/**
+	 * Moves the records of a block to a new block of a different size, freeing the old block
+	 *
+	 * @param address The address of the block
+	 * @param records The number of records in the block
+	 * @param newRecords The number of records in the new block (a power of two)
+	 * @param count The number of records to move
+	 * @throws OutOfMemoryError If the store does not have space for the new block
+	 * @return The address of the new block
+	 */
+	public long reallocate(long address, int records, int newRecords, int count) {
+		long newAddress = allocate(newRecords);
+		copy(address, 0, newAddress, 0, count);
+		free(address, records);
+		return newAddress;
+	}
+
+	/**
+	 * Sorts the records of a block by time with a stable bottom up merge sort (so records with the same
+	 * time keep their order), merging into a second block.
+	 *
+	 * @param address The address of the block
+	 * @param records The number of records in the block
+	 * @param count The number of records to sort
+	 * @throws OutOfMemoryError If the store does not have space for the second block
+	 * @return The address of the block holding the sorted records (the other block is freed)
+	 */
+	public long sort(long address, int records, int count) {
+		long source = address;
+		long target = allocate(records);
+		for (int width = 1; width < count; width *= 2) {
+			for (int left = 0; left < count; left += 2 * width) {
+				int middle = Math.min(left + width, count);
+				int right = Math.min(left + 2 * width, count);
+
+				// Runs that are already in order are copied without merging
+				if (middle == right || getTime(source, middle - 1) <= getTime(source, middle)) {
+					copy(source, left, target, left, right - left);
+					continue;
+				}
+
+				int a = left;
+				int b = middle;
+				for (int k = left; k < right; k++) {
+					int from = a < middle && (b >= right || getTime(source, a) <= getTime(source, b)) ? a++ : b++;
+					set(target, k, getTime(source, from), getRainfall(source, from));
+				}
+			}
+
+			// Swap the blocks
+			long swap = source;
+			source = target;
+			target = swap;
+		}
+		free(target, records);
+		return source;
+	}
+
+	/**
+	 * Gets the time of a record
+	 *
+	 * @param address The address of the block
+	 * @param index The index of the record in the block
+	 * @return The time of the observation
+	 */
+	public long getTime(long address, int index) {
+		return slabs[(int) (address >>> 32)].getLong((int) address + index * RECORD_SIZE);
+	}
+
+	/**
+	 * Gets the rainfall of a record
+	 *
+	 * @param address The address of the block
+	 * @param index The index of the record in the block
+	 * @return The amount of rainfall
+	 */
+	public int getRainfall(long address, int index) {
+		return slabs[(int) (address >>> 32)].getInt((int) address + index * RECORD_SIZE + Long.BYTES);
+	}
+
+	/**
+	 * Sets a record
+	 *
+	 * @param address The address of the block
+	 * @param index The index of the record in the block
+	 * @param time The time of the observation
+	 * @param rainfall The amount of rainfall
+	 */
+	public void set(long address, int index, long time, int rainfall) {
+		ByteBuffer slab = slabs[(int) (address >>> 32)];
+		int offset = (int) address + index * RECORD_SIZE;
+		slab.putLong(offset, time);
+		slab.putInt(offset + Long.BYTES, rainfall);
+	}
+
+	/**
+	 * Copies records between blocks (the ranges must not overlap unless copying to an earlier index)
+	 *
+	 * @param source The address of the source block
+	 * @param sourceIndex The index of the first record to copy
+	 * @param target The address of the target block
+	 * @param targetIndex The index to copy the first record to
+	 * @param count The number of records
+	 */
+	public void copy(long source, int sourceIndex, long target, int targetIndex, int count) {
+		for (int i = 0; i < count; i++) {
+			set(target, targetIndex + i, getTime(source, sourceIndex + i), getRainfall(source, sourceIndex + i));
+		}
+	}
+
+	/**
+	 * Creates the error thrown when the store is full
+	 *
+	 * @param size The size of the block that could not be allocated
+	 * @return The error
+	 */
+	private OutOfMemoryError full(long size) {
+		return new OutOfMemoryError(String.format("Off-heap observation store is full (capacity %d bytes, %d bytes in use, %d more requested) - increase the off-heap capacity", capacity, usedBytes, size));
+	}
+
+	/**
+	 * Gets the size class of a block
+	 *
+	 * @param records The number of records in the block (a power of two)
+	 * @return The size class
+	 */
+	private static int sizeClass(int records) {
+		if (records <= 0 || Integer.bitCount(records) != 1) { throw new IllegalArgumentException("Block size must be a power of two: " + records); }
+		return Integer.numberOfTrailingZeros(records);
+	}
+
+	/**
+	 * Gets the size of a block of a size class
+	 *
+	 * @param sizeClass The size class
+	 * @return The size of the block (bytes)
+	 */
+	private static long blockSize(int sizeClass) {
+		return (1L << sizeClass) * RECORD_SIZE;
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the capacity of the store
+	 *
+	 * @return The capacity (bytes)
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the size of the direct memory reserved so far
+	 *
+	 * @return The reserved size (bytes)
+	 */
+	public synchronized long getReservedBytes() {
+		return reservedBytes;
+	}
+
+	/**
+	 * Gets the size of the blocks in use
+	 *
+	 * @return The size of the blocks in use (bytes)
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+}
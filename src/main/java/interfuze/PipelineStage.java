@@ -0,0 +1,240 @@
+package interfuze;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of a stage of the observations pipeline.
+ *
+ * A stage's time is split into busy time (doing its work), waiting time (waiting for input from the
+ * previous stage) and blocked time (waiting for space in its full output queue). A stage that is mostly
+ * busy while the others wait is the bottleneck. The depth of the output queue is sampled each time an
+ * item is added to it. The statistics are LongAdders so the worker threads of a stage can share them.
+ */
+public class PipelineStage {
+
+	// ---- Variables ---- //
+
+	/**
+	 * Name of the stage
+	 */
+	private final String name;
+
+	/**
+	 * Number of threads running the stage
+	 */
+	private final int threads;
+
+	/**
+	 * Number of blocks processed
+	 */
+	private final LongAdder blocks = new LongAdder();
+
+	/**
+	 * Number of rows processed
+	 */
+	private final LongAdder rows = new LongAdder();
+
+	/**
+	 * Number of bytes processed
+	 */
+	private final LongAdder bytes = new LongAdder();
+
+	/**
+	 * Time spent working (nanoseconds, summed over the threads)
+	 */
+	private final LongAdder busyNanos = new LongAdder();
+
+	/**
+	 * Time spent waiting for input (nanoseconds, summed over the threads)
+	 */
+	private final LongAdder waitingNanos = new LongAdder();
+
+	/**
+	 * Time spent waiting for space in the output queue (nanoseconds, summed over the threads)
+	 */
+	private final LongAdder blockedNanos = new LongAdder();
+
+	/**
+	 * Sum of the sampled output queue depths
+	 */
+	private final LongAdder queueDepthTotal = new LongAdder();
+
+	/**
+	 * Number of output queue depth samples
+	 */
+	private final LongAdder queueDepthSamples = new LongAdder();
+
+	/**
+	 * Maximum sampled output queue depth
+	 */
+	private final LongAccumulator queueDepthMax = new LongAccumulator(Math::max, 0);
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param name The name of the stage
+	 * @param threads The number of threads running the stage
+	 */
+	public PipelineStage(String name, int threads) {
+		this.name = name;
+		this.threads = threads;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Records a processed block
+	 *
+	 * @param rows The number of rows in the block
+	 * @param bytes The number of bytes in the block
+	 */
+	public void addBlock(long rows, long bytes) {
+		blocks.increment();
+		this.rows.add(rows);
+		this.bytes.add(bytes);
+	}
+
+	/**
+	 * Records time spent working
+	 *
+	 * @param nanos The time (nanoseconds)
+	 */
+	public void addBusy(long nanos) {
+		busyNanos.add(nanos);
+	}
+
+	/**
+	 * Records time spent waiting for input
+	 *
+	 * @param nanos The time (nanoseconds)
+	 */
+	public void addWaiting(long nanos) {
+		waitingNanos.add(nanos);
+	}
+
+	/**
+	 * Records time spent waiting for space in the output queue
+	 *
+	 * @param nanos The time (nanoseconds)
+	 */
+	public void addBlocked(long nanos) {
+		blockedNanos.add(nanos);
+	}
+
+	/**
+	 * Records a sample of the output queue depth
+	 *
+	 * @param depth The number of items in the output queue
+	 */
+	public void sampleQueueDepth(int depth) {
+		queueDepthTotal.add(depth);
+		queueDepthSamples.increment();
+		queueDepthMax.accumulate(depth);
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the name of the stage
+	 *
+	 * @return The name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of threads running the stage
+	 *
+	 * @return The number of threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Gets the number of blocks processed
+	 *
+	 * @return The number of blocks
+	 */
+	public long getBlocks() {
+		return blocks.sum();
+	}
+
+	/**
+	 * Gets the number of rows processed
+	 *
+	 * @return The number of rows
+	 */
+	public long getRows() {
+		return rows.sum();
+	}
+
+	/**
+	 * Gets the number of bytes processed
+	 *
+	 * @return The number of bytes
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * Gets the time spent working
+	 *
+	 * @return The time (nanoseconds, summed over the threads)
+	 */
+	public long getBusyNanos() {
+		return busyNanos.sum();
+	}
+
+	/**
+	 * Gets the time spent waiting for input
+	 *
+	 * @return The time (nanoseconds, summed over the threads)
+	 */
+	public long getWaitingNanos() {
+		return waitingNanos.sum();
+	}
+
+	/**
+	 * Gets the time spent waiting for space in the output queue
+	 *
+	 * @return The time (nanoseconds, summed over the threads)
+	 */
+	public long getBlockedNanos() {
+		return blockedNanos.sum();
+	}
+
+	/**
+	 * Gets the throughput of the stage while busy (what it could sustain if it never waited)
+	 *
+	 * @return The throughput (megabytes per second)
+	 */
+	public double getBusyThroughput() {
+		long busy = getBusyNanos();
+		return busy == 0 ? 0 : getBytes() / (1024.0 * 1024.0) / (busy / 1e9 / threads);
+	}
+
+	/**
+	 * Gets the average sampled output queue depth
+	 *
+	 * @return The average depth (0 if the stage has no output queue)
+	 */
+	public double getAverageQueueDepth() {
+		long samples = queueDepthSamples.sum();
+		return samples == 0 ? 0 : queueDepthTotal.sum() / (double) samples;
+	}
+
+	/**
+	 * Gets the maximum sampled output queue depth
+	 *
+	 * @return The maximum depth (0 if the stage has no output queue)
+	 */
+	public long getMaxQueueDepth() {
+		return queueDepthMax.get();
+	}
+}
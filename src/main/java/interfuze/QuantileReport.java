@@ -0,0 +1,169 @@
+package interfuze;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Renders tables of rainfall percentiles for each device, for each location and for all of the devices,
+ * in each lookback window and over all of the observations.
+ *
+ * The percentiles come from quantile sketches: each device's sketch of its window (built from its raw
+ * observations) and its sketch of all of its observations are reported for the device and merged into the
+ * sketches of its location and of the fleet, so the exact amounts are never sorted.
+ */
+public class QuantileReport {
+
+	// ---- Variables ---- //
+
+	/**
+	 * Percentiles reported (e.g. 95 for the 95th percentile)
+	 */
+	private final double[] percentiles;
+
+	/**
+	 * Labels of the lookback windows
+	 */
+	private final String[] windows;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param percentiles The percentiles reported (e.g. 95 for the 95th percentile)
+	 * @param windows The labels of the lookback windows (e.g. "4 hrs")
+	 */
+	public QuantileReport(double[] percentiles, String[] windows) {
+		this.percentiles = percentiles;
+		this.windows = windows;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Writes the table of percentiles for each device, followed by the table for each location and all of
+	 * the devices
+	 *
+	 * @param out The output
+	 * @param devices The devices, in the order of the report (by device ID)
+	 * @param lookbackTimes The start of each lookback window
+	 * @throws IOException If there is an error writing the output
+	 */
+	public void write(Writer out, Device[] devices, long[] lookbackTimes) throws IOException {
+		// Device table header
+		StringBuilder row = new StringBuilder(String.format("| %-20s | %-20s | %-20s |", "Device Name", "Device ID", "Location"));
+		appendHeaders(row);
+		String rule = rule(row.length());
+		out.write(rule);
+		out.append(row).append('\n');
+		out.write(rule);
+
+		// A row for each device, merging its sketches into the sketches of its location and the fleet (the
+		// last sketch of each is of all of the observations)
+		Map<String, QuantileSketch[]> locations = new TreeMap<>();
+		Map<String, Integer> counts = new TreeMap<>();
+		QuantileSketch[] fleet = createSketches();
+		QuantileSketch[] sketches = new QuantileSketch[windows.length + 1];
+		for (Device device : devices) {
+			QuantileSketch[] location = locations.computeIfAbsent(device.getLocation(), name -> createSketches());
+			counts.merge(device.getLocation(), 1, Integer::sum);
+			for (int i = 0; i < lookbackTimes.length; i++) {
+				sketches[i] = device.getQuantileSketchSince(lookbackTimes[i]);
+			}
+			QuantileSketch history = device.getQuantileSketch();
+			sketches[lookbackTimes.length] = history != null ? history : new QuantileSketch();
+			for (int i = 0; i < sketches.length; i++) {
+				location[i].merge(sketches[i]);
+				fleet[i].merge(sketches[i]);
+			}
+			writeRow(out, String.format("| %-20s | %-20d | %-20s |", device.getDeviceName(), device.getDeviceID(), device.getLocation()), sketches);
+		}
+		out.write(rule);
+
+		// Location table header
+		out.write('\n');
+		row = new StringBuilder(String.format("| %-20s | %-8s |", "Location", "Devices"));
+		appendHeaders(row);
+		rule = rule(row.length());
+		out.write(rule);
+		out.append(row).append('\n');
+		out.write(rule);
+
+		// A row for each location, then the fleet
+		for (Map.Entry<String, QuantileSketch[]> location : locations.entrySet()) {
+			writeRow(out, String.format("| %-20s | %-8d |", location.getKey(), counts.get(location.getKey())), location.getValue());
+		}
+		out.write(rule);
+		writeRow(out, String.format("| %-20s | %-8d |", "All locations", devices.length), fleet);
+		out.write(rule);
+	}
+
+	/**
+	 * Appends the column headers of the percentiles in each lookback window and over all of the
+	 * observations
+	 *
+	 * @param row The header row
+	 */
+	private void appendHeaders(StringBuilder row) {
+		for (int i = 0; i <= windows.length; i++) {
+			for (double percentile : percentiles) {
+				row.append(String.format(" %-14s |", label(percentile) + " (" + (i < windows.length ? windows[i] : "all") + ")"));
+			}
+		}
+	}
+
+	/**
+	 * Writes a row of percentiles
+	 *
+	 * @param out The output
+	 * @param columns The leading columns of the row (identifying the device or location)
+	 * @param sketches The sketches of each lookback window and of all of the observations
+	 * @throws IOException If there is an error writing the output
+	 */
+	private void writeRow(Writer out, String columns, QuantileSketch[] sketches) throws IOException {
+		StringBuilder row = new StringBuilder(columns);
+		for (QuantileSketch sketch : sketches) {
+			for (double percentile : percentiles) {
+				row.append(String.format(" %-14s |", sketch.isEmpty() ? "-" : sketch.getQuantile(percentile / 100) + " mm"));
+			}
+		}
+		out.append(row).append('\n');
+	}
+
+	/**
+	 * Creates an empty sketch for each lookback window and one for all of the observations
+	 *
+	 * @return The sketches
+	 */
+	private QuantileSketch[] createSketches() {
+		QuantileSketch[] sketches = new QuantileSketch[windows.length + 1];
+		for (int i = 0; i < sketches.length; i++) {
+			sketches[i] = new QuantileSketch();
+		}
+		return sketches;
+	}
+
+	/**
+	 * Gets the label of a percentile
+	 *
+	 * @param percentile The percentile
+	 * @return The label (e.g. "p95" or "p99.9")
+	 */
+	static String label(double percentile) {
+		return percentile == Math.rint(percentile) ? "p" + (long) percentile : "p" + percentile;
+	}
+
+	/**
+	 * Creates a horizontal rule of the table
+	 *
+	 * @param width The width of the table
+	 * @return The rule (including the line break)
+	 */
+	private static String rule(int width) {
+		StringBuilder rule = new StringBuilder(width + 1);
+		while (rule.length() < width) { rule.append('-'); }
+		return rule.append('\n').toString();
+	}
+}
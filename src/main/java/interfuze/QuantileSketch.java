@@ -0,0 +1,322 @@
+package interfuze;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mergeable sketch of the distribution of rainfall amounts, answering quantile queries (e.g. the 95th
+ * percentile) in a bounded amount of memory however many amounts are added.
+ *
+ * The sketch is a KLL sketch: a stack of compactors, where each item at level h stands for 2^h of the
+ * amounts added. Amounts are added to level 0, and when a level reaches its capacity its items are
+ * sorted and every other item (starting at a random offset) is promoted to the level above, the rest
+ * being dropped. Capacities shrink by a factor of 2/3 for each level below the top, so the sketch holds
+ * about 3k items. Sketches are merged by combining their levels and compacting, so the sketches of many
+ * devices can be merged into a sketch of a location or the fleet.
+ *
+ * With the default k of 200 the rank of a quantile is typically within 1% of the requested rank (within
+ * about 2% with high probability).
+ */
+public class QuantileSketch {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Default size parameter (the capacity of the top level)
+	 */
+	public static final int DEFAULT_K = 200;
+
+	/**
+	 * Ratio of the capacity of each level to the level above it
+	 */
+	private static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+	/**
+	 * Minimum capacity of a level
+	 */
+	private static final int MIN_CAPACITY = 8;
+
+	/**
+	 * Source of the random seeds of new sketches (a fixed sequence, so runs are repeatable)
+	 */
+	private static final AtomicLong SEEDS = new AtomicLong();
+
+	// ---- Variables ---- //
+
+	/**
+	 * Size parameter (the capacity of the top level)
+	 */
+	private final int k;
+
+	/**
+	 * Items of each level (an item at level h has a weight of 2^h)
+	 */
+	private int[][] levels = new int[0][];
+
+	/**
+	 * Number of items in each level
+	 */
+	private int[] sizes = new int[0];
+
+	/**
+	 * Number of items held in all of the levels
+	 */
+	private int numRetained = 0;
+
+	/**
+	 * Number of items held at which the sketch is compacted
+	 */
+	private int maxRetained = 0;
+
+	/**
+	 * Number of amounts added
+	 */
+	private long count = 0;
+
+	/**
+	 * Smallest amount added
+	 */
+	private int min = Integer.MAX_VALUE;
+
+	/**
+	 * Largest amount added
+	 */
+	private int max = Integer.MIN_VALUE;
+
+	/**
+	 * State of the random generator choosing the items promoted by each compaction (xorshift)
+	 */
+	private long random;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor (with the default size parameter)
+	 */
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param k The size parameter (larger values are more accurate and use more memory)
+	 */
+	public QuantileSketch(int k) {
+		if (k < MIN_CAPACITY) { throw new IllegalArgumentException("Quantile sketch size must be at least " + MIN_CAPACITY); }
+		this.k = k;
+
+		// Seed the generator from the next seed (mixed, as consecutive seeds are similar)
+		long seed = SEEDS.incrementAndGet() * 0x9E3779B97F4A7C15L;
+		seed = (seed ^ (seed >>> 30)) * 0xBF58476D1CE4E5B9L;
+		this.random = (seed ^ (seed >>> 31)) | 1;
+		addLevel();
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Adds an amount to the sketch
+	 *
+	 * @param value The amount
+	 */
+	public void update(int value) {
+		append(0, value);
+		count++;
+		if (value < min) { min = value; }
+		if (value > max) { max = value; }
+		if (numRetained >= maxRetained) { compress(); }
+	}
+
+	/**
+	 * Merges another sketch into this sketch (the other sketch is unchanged)
+	 *
+	 * @param other The other sketch
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.count == 0) { return; }
+		while (levels.length < other.levels.length) { addLevel(); }
+		for (int h = 0; h < other.levels.length; h++) {
+			for (int i = 0; i < other.sizes[h]; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+		count += other.count;
+		if (other.min < min) { min = other.min; }
+		if (other.max > max) { max = other.max; }
+		while (numRetained >= maxRetained) { compress(); }
+	}
+
+	/**
+	 * Estimates the amount at a quantile (the smallest amount whose rank is at least the quantile)
+	 *
+	 * @param quantile The quantile, from 0 (the smallest amount) to 1 (the largest amount)
+	 * @throws IllegalStateException If the sketch is empty
+	 * @return The estimated amount
+	 */
+	public int getQuantile(double quantile) {
+		if (quantile < 0 || quantile > 1) { throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile); }
+		if (count == 0) { throw new IllegalStateException("Quantile sketch is empty"); }
+		if (quantile == 0) { return min; }
+		if (quantile == 1) { return max; }
+
+		// Sort the items by amount (packed with their level, so the weights follow the items)
+		long[] items = new long[numRetained];
+		int n = 0;
+		for (int h = 0; h < levels.length; h++) {
+			for (int i = 0; i < sizes[h]; i++) {
+				items[n++] = ((long) levels[h][i] << 32) | h;
+			}
+		}
+		Arrays.sort(items);
+
+		// Find the first item whose cumulative weight reaches the quantile
+		double target = quantile * count;
+		long weight = 0;
+		for (long item : items) {
+			weight += 1L << (int) item;
+			if (weight >= target) { return (int) (item >> 32); }
+		}
+		return max;
+	}
+
+	/**
+	 * Estimates the fraction of the amounts added that are at or below an amount
+	 *
+	 * @param value The amount
+	 * @return The estimated fraction (0 if the sketch is empty)
+	 */
+	public double getRank(int value) {
+		if (count == 0) { return 0; }
+		long weight = 0;
+		for (int h = 0; h < levels.length; h++) {
+			for (int i = 0; i < sizes[h]; i++) {
+				if (levels[h][i] <= value) { weight += 1L << h; }
+			}
+		}
+		return (double) weight / count;
+	}
+
+	/**
+	 * Appends an item to a level
+	 *
+	 * @param h The level
+	 * @param value The item
+	 */
+	private void append(int h, int value) {
+		if (sizes[h] == levels[h].length) { levels[h] = Arrays.copyOf(levels[h], Math.max(levels[h].length * 2, MIN_CAPACITY)); }
+		levels[h][sizes[h]++] = value;
+		numRetained++;
+	}
+
+	/**
+	 * Compacts the lowest level that is at its capacity (adding a level above it if it is the top level),
+	 * continuing up the levels until the sketch holds fewer items than its limit
+	 */
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			if (sizes[h] < capacity(h)) { continue; }
+			if (h + 1 == levels.length) { addLevel(); }
+			compact(h);
+			if (numRetained < maxRetained) { return; }
+		}
+	}
+
+	/**
+	 * Sorts the items of a level and promotes every other item to the level above, starting at a random
+	 * offset. With an odd number of items the smallest is kept at the level.
+	 *
+	 * @param h The level
+	 */
+	private void compact(int h) {
+		int[] items = levels[h];
+		int size = sizes[h];
+		Arrays.sort(items, 0, size);
+		int start = size % 2;
+		for (int i = start + (nextBit() ? 1 : 0); i < size; i += 2) {
+			append(h + 1, items[i]);
+		}
+		numRetained -= size - start;
+		sizes[h] = start;
+	}
+
+	/**
+	 * Adds a level to the top of the sketch (which lowers the capacities of the levels below it)
+	 */
+	private void addLevel() {
+		int numLevels = levels.length + 1;
+		levels = Arrays.copyOf(levels, numLevels);
+		sizes = Arrays.copyOf(sizes, numLevels);
+		levels[numLevels - 1] = new int[0];
+		maxRetained = 0;
+		for (int h = 0; h < numLevels; h++) {
+			maxRetained += capacity(h);
+		}
+	}
+
+	/**
+	 * Gets the capacity of a level
+	 *
+	 * @param h The level
+	 * @return The capacity
+	 */
+	private int capacity(int h) {
+		int depth = levels.length - 1 - h;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+	}
+
+	/**
+	 * Gets the next random bit
+	 *
+	 * @return The random bit
+	 */
+	private boolean nextBit() {
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		return random < 0;
+	}
+
+	/**
+	 * Estimates the heap memory used by the sketch (the object, with 5 ints, 2 longs and 2 references, and
+	 * its levels)
+	 *
+	 * @return The estimated size (bytes)
+	 */
+	public long estimateMemoryBytes() {
+		long bytes = StringDictionary.align(12 + 5 * Integer.BYTES + 2 * Long.BYTES + 2 * 4) + 2 * StringDictionary.align(16 + 4L * levels.length);
+		for (int[] level : levels) {
+			bytes += StringDictionary.align(16 + 4L * level.length);
+		}
+		return bytes;
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the number of amounts added
+	 *
+	 * @return The number of amounts
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the number of items held by the sketch (which stays bounded as amounts are added)
+	 *
+	 * @return The number of items
+	 */
+	public int getNumRetained() {
+		return numRetained;
+	}
+
+	/**
+	 * Checks if the sketch is empty
+	 *
+	 * @return True if no amounts have been added
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+}
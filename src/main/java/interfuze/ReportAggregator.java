@@ -0,0 +1,150 @@
+package interfuze;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Summarises the lookback windows of the devices for the report, in parallel across devices.
+ *
+ * The devices are sorted by device ID so the report does not depend on the iteration order of the device
+ * map. The summaries are computed with a fork/join pool that splits the devices into ranges (each device
+ * is only summarised by one thread, as summarising may sort its observations) and are stored in an array
+ * in the same order as the devices.
+ */
+public class ReportAggregator {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Number of devices below which a range of devices is summarised without splitting it further
+	 */
+	private static final int SPLIT_THRESHOLD = 64;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor (not used)
+	 */
+	private ReportAggregator() {
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Sorts devices by device ID
+	 *
+	 * @param devices The devices
+	 * @return The devices sorted by device ID
+	 */
+	public static Device[] sortByDeviceID(Collection<Device> devices) {
+		Device[] sorted = devices.toArray(new Device[0]);
+		Arrays.sort(sorted, Comparator.comparingInt(Device::getDeviceID));
+		return sorted;
+	}
+
+	/**
+	 * Summarises the lookback windows of each device
+	 *
+	 * @param devices The devices
+	 * @param times The start of each lookback window (observations after this time are summarised)
+	 * @param threshold The rainfall threshold to check
+	 * @param parallelism The number of threads to use
+	 * @return The summaries of the windows of each device (in the same order as the devices and times)
+	 */
+	public static WindowSummary[][] summarise(Device[] devices, long[] times, int threshold, int parallelism) {
+		WindowSummary[][] summaries = new WindowSummary[devices.length][];
+		SummaryTask task = new SummaryTask(devices, summaries, times, threshold, 0, devices.length);
+
+		// Summarise the devices on the calling thread
+		if (parallelism <= 1 || devices.length <= SPLIT_THRESHOLD) {
+			task.compute();
+			return summaries;
+		}
+
+		// Summarise the devices in parallel
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(task);
+		} finally {
+			pool.shutdown();
+		}
+		return summaries;
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Summarises a range of devices, splitting it in half until it is small enough to summarise directly
+	 */
+	private static final class SummaryTask extends RecursiveAction {
+
+		/**
+		 * Serial version UID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The devices
+		 */
+		private final Device[] devices;
+
+		/**
+		 * The summaries of the windows of each device
+		 */
+		private final WindowSummary[][] summaries;
+
+		/**
+		 * The start of each lookback window
+		 */
+		private final long[] times;
+
+		/**
+		 * The rainfall threshold
+		 */
+		private final int threshold;
+
+		/**
+		 * Index of the first device of the range
+		 */
+		private final int start;
+
+		/**
+		 * Index after the last device of the range
+		 */
+		private final int end;
+
+		/**
+		 * Constructor
+		 *
+		 * @param devices The devices
+		 * @param summaries The summaries of the windows of each device
+		 * @param times The start of each lookback window
+		 * @param threshold The rainfall threshold
+		 * @param start Index of the first device of the range
+		 * @param end Index after the last device of the range
+		 */
+		SummaryTask(Device[] devices, WindowSummary[][] summaries, long[] times, int threshold, int start, int end) {
+			this.devices = devices;
+			this.summaries = summaries;
+			this.times = times;
+			this.threshold = threshold;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= SPLIT_THRESHOLD) {
+				for (int i = start; i < end; i++) {
+					summaries[i] = devices[i].getWindowSummariesSince(times, threshold);
+				}
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new SummaryTask(devices, summaries, times, threshold, start, middle), new SummaryTask(devices, summaries, times, threshold, middle, end));
+		}
+	}
+}
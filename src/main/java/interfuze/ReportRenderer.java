@@ -0,0 +1,36 @@
+package interfuze;
+
+import java.io.IOException;
+
+/**
+ * Renders the report of the devices' lookback window summaries to an output.
+ *
+ * The header is written first, then one row per device (with a summary for each lookback window), then
+ * the footer. Renderers write to a buffered
+ * writer supplied by the caller, which is responsible for flushing or closing it.
+ */
+public interface ReportRenderer {
+
+	/**
+	 * Writes the header of the report
+	 *
+	 * @throws IOException If there is an error writing the output
+	 */
+	void writeHeader() throws IOException;
+
+	/**
+	 * Writes the row of a device
+	 *
+	 * @param device The device
+	 * @param summaries The summaries of the device's observations in each lookback window
+	 * @throws IOException If there is an error writing the output
+	 */
+	void writeRow(Device device, WindowSummary[] summaries) throws IOException;
+
+	/**
+	 * Writes the footer of the report
+	 *
+	 * @throws IOException If there is an error writing the output
+	 */
+	void writeFooter() throws IOException;
+}
@@ -0,0 +1,272 @@
+package interfuze;
+
+/**
+ * Incrementally aggregates the observations of a device within a sliding lookback window.
+ *
+ * Observations are added in time order and evicted as the lower bound of the window moves forward. A
+ * running total and count give the average, and a monotonic deque gives the maximum, so every query is
+ * O(1) and each observation is added and evicted at most once. Only the observations inside the window
+ * are kept.
+ */
+public class SlidingWindowAggregator {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Initial capacity of the window (must be a power of two)
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Lower bound of the window (only observations after this time are in the window)
+	 */
+	private long lowerBound = Long.MIN_VALUE;
+
+	/**
+	 * Time of the last observation added (used to check observations are added in order)
+	 */
+	private long lastTime = Long.MIN_VALUE;
+
+	/**
+	 * Observation times in the window (ring buffer indexed by sequence number)
+	 */
+	private long[] observationTimes = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Observation rainfall amounts in the window (ring buffer indexed by sequence number)
+	 */
+	private int[] rainfalls = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Sequence number of the first observation in the window
+	 */
+	private long head = 0;
+
+	/**
+	 * Sequence number after the last observation in the window
+	 */
+	private long tail = 0;
+
+	/**
+	 * Sequence numbers of the observations that could still become the window maximum, with decreasing rainfall
+	 * (ring buffer, a sub-sequence of the window)
+	 */
+	private long[] maxDeque = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Index of the first entry of the maximum deque
+	 */
+	private long maxHead = 0;
+
+	/**
+	 * Index after the last entry of the maximum deque
+	 */
+	private long maxTail = 0;
+
+	/**
+	 * Total rainfall in the window
+	 */
+	private long totalRainfall = 0;
+
+	// ---- Methods ---- //
+
+	/**
+	 * Adds an observation to the window. Observations must be added in time order.
+	 *
+	 * @param observationTime The time of the observation
+	 * @param rainfall The amount of rainfall
+	 * @return True if the observation was added, false if it is older than the last observation added
+	 */
+	public boolean add(long observationTime, int rainfall) {
+		if (observationTime < lastTime) { return false; }
+		lastTime = observationTime;
+
+		// Observations before the window are not stored
+		if (observationTime <= lowerBound) { return true; }
+
+		// Grow the buffers if they are full
+		if (tail - head == observationTimes.length) { grow(); }
+
+		// Store the observation
+		int mask = observationTimes.length - 1;
+		observationTimes[(int) (tail & mask)] = observationTime;
+		rainfalls[(int) (tail & mask)] = rainfall;
+		totalRainfall += rainfall;
+
+		// Remove observations that can no longer be the maximum and add this one
+		while (maxTail > maxHead && rainfalls[(int) (maxDeque[(int) ((maxTail - 1) & mask)] & mask)] <= rainfall) { maxTail--; }
+		maxDeque[(int) (maxTail & mask)] = tail;
+		maxTail++;
+		tail++;
+		return true;
+	}
+
+	/**
+	 * Moves the lower bound of the window forward, evicting the observations that are no longer after it.
+	 *
+	 * @param time The new lower bound of the window
+	 * @return True if the window was moved, false if the time is before the current lower bound
+	 */
+	public boolean advanceTo(long time) {
+		if (time < lowerBound) { return false; }
+		lowerBound = time;
+
+		// Evict observations from the front of the window
+		int mask = observationTimes.length - 1;
+		while (head < tail && observationTimes[(int) (head & mask)] <= time) {
+			totalRainfall -= rainfalls[(int) (head & mask)];
+			if (maxTail > maxHead && maxDeque[(int) (maxHead & mask)] == head) { maxHead++; }
+			head++;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all observations and resets the lower bound of the window
+	 *
+	 * @param time The new lower bound of the window
+	 */
+	public void reset(long time) {
+		lowerBound = time;
+		lastTime = Long.MIN_VALUE;
+		head = tail = 0;
+		maxHead = maxTail = 0;
+		totalRainfall = 0;
+	}
+
+	/**
+	 * Summarises the observations in the window
+	 *
+	 * @param threshold The rainfall threshold to check
+	 * @return The summary of the window
+	 */
+	public WindowSummary getSummary(int threshold) {
+		return new WindowSummary(getCount(), totalRainfall, getMaxRainfall(), getFirstRainfall(), getLastRainfall(), isExceedingThreshold(threshold));
+	}
+
+	/**
+	 * Doubles the capacity of the buffers (keeping the sequence numbers of the observations)
+	 */
+	private void grow() {
+		int oldMask = observationTimes.length - 1;
+		int capacity = observationTimes.length * 2;
+		int mask = capacity - 1;
+
+		// Copy the observations
+		long[] newTimes = new long[capacity];
+		int[] newRainfalls = new int[capacity];
+		for (long sequence = head; sequence < tail; sequence++) {
+			newTimes[(int) (sequence & mask)] = observationTimes[(int) (sequence & oldMask)];
+			newRainfalls[(int) (sequence & mask)] = rainfalls[(int) (sequence & oldMask)];
+		}
+
+		// Copy the maximum deque
+		long[] newMaxDeque = new long[capacity];
+		for (long index = maxHead; index < maxTail; index++) {
+			newMaxDeque[(int) (index & mask)] = maxDeque[(int) (index & oldMask)];
+		}
+
+		observationTimes = newTimes;
+		rainfalls = newRainfalls;
+		maxDeque = newMaxDeque;
+	}
+
+	/**
+	 * Estimates the heap memory used by the aggregator (the object, with 7 longs and 3 references, and its
+	 * buffers)
+	 *
+	 * @return The estimated size (bytes)
+	 */
+	public long estimateMemoryBytes() {
+		return StringDictionary.align(12 + 7 * Long.BYTES + 3 * 4) + StringDictionary.align(16 + 8L * observationTimes.length)
+				+ StringDictionary.align(16 + 4L * rainfalls.length) + StringDictionary.align(16 + 8L * maxDeque.length);
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the lower bound of the window
+	 *
+	 * @return The lower bound (only observations after this time are in the window)
+	 */
+	public long getLowerBound() {
+		return lowerBound;
+	}
+
+	/**
+	 * Gets the number of observations in the window
+	 *
+	 * @return The number of observations
+	 */
+	public int getCount() {
+		return (int) (tail - head);
+	}
+
+	/**
+	 * Gets the total rainfall in the window in millimeters (mm)
+	 *
+	 * @return The total rainfall
+	 */
+	public long getTotalRainfall() {
+		return totalRainfall;
+	}
+
+	/**
+	 * Gets the average rainfall in the window in millimeters (mm)
+	 *
+	 * @return The average rainfall, 0 if there are no observations
+	 */
+	public double getAverageRainfall() {
+		return head == tail ? 0 : (double) totalRainfall / (tail - head);
+	}
+
+	/**
+	 * Gets the maximum rainfall in the window in millimeters (mm)
+	 *
+	 * @return The maximum rainfall, 0 if there are no observations
+	 */
+	public int getMaxRainfall() {
+		if (head == tail) { return 0; }
+		int mask = observationTimes.length - 1;
+		return rainfalls[(int) (maxDeque[(int) (maxHead & mask)] & mask)];
+	}
+
+	/**
+	 * Gets the rainfall of the first observation in the window in millimeters (mm)
+	 *
+	 * @return The rainfall of the first observation, 0 if there are no observations
+	 */
+	public int getFirstRainfall() {
+		return head == tail ? 0 : rainfalls[(int) (head & (rainfalls.length - 1))];
+	}
+
+	/**
+	 * Gets the rainfall of the last observation in the window in millimeters (mm)
+	 *
+	 * @return The rainfall of the last observation, 0 if there are no observations
+	 */
+	public int getLastRainfall() {
+		return head == tail ? 0 : rainfalls[(int) ((tail - 1) & (rainfalls.length - 1))];
+	}
+
+	/**
+	 * Gets the change in rainfall across the window in millimeters (mm)
+	 *
+	 * @return The change in rainfall (last - first), 0 if there are no observations
+	 */
+	public int getChangeInRainfall() {
+		return getLastRainfall() - getFirstRainfall();
+	}
+
+	/**
+	 * Checks if an observation in the window exceeds a threshold
+	 *
+	 * @param threshold The threshold to check
+	 * @return True if an observation exceeds the threshold, false otherwise
+	 */
+	public boolean isExceedingThreshold(int threshold) {
+		return head != tail && getMaxRainfall() > threshold;
+	}
+}
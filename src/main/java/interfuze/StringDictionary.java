@@ -0,0 +1,138 @@
+package interfuze;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary encoding of strings that repeat heavily (e.g. device locations).
+ *
+ * Each distinct string is stored once and given a code (its index in the table), so the users of the
+ * dictionary share a single instance of each string.
+ */
+public class StringDictionary {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Estimated size of a String object, excluding its characters (header, hash, coder and value reference)
+	 */
+	private static final int STRING_BYTES = 24;
+
+	/**
+	 * Estimated size of an array header
+	 */
+	private static final int ARRAY_HEADER_BYTES = 16;
+
+	/**
+	 * Estimated size of a HashMap entry of the index (node and boxed code)
+	 */
+	private static final int ENTRY_BYTES = 48;
+
+	// ---- Variables ---- //
+
+	/**
+	 * Codes of the strings
+	 */
+	private final Map<String, Integer> codes = new HashMap<>();
+
+	/**
+	 * Strings of the codes
+	 */
+	private String[] strings = new String[16];
+
+	/**
+	 * Number of strings
+	 */
+	private int size = 0;
+
+	/**
+	 * Estimated size of the strings (bytes)
+	 */
+	private long stringBytes = 0;
+
+	// ---- Methods ---- //
+
+	/**
+	 * Encodes a string, adding it to the dictionary if it is new
+	 *
+	 * @param string The string
+	 * @return The code of the string
+	 */
+	public int encode(String string) {
+		Integer code = codes.get(string);
+		if (code != null) { return code; }
+
+		// Add the string
+		if (size == strings.length) { strings = Arrays.copyOf(strings, size * 2); }
+		strings[size] = string;
+		codes.put(string, size);
+		stringBytes += align(STRING_BYTES) + align(ARRAY_HEADER_BYTES + (long) string.length() * (isLatin1(string) ? 1 : 2));
+		return size++;
+	}
+
+	/**
+	 * Decodes a string
+	 *
+	 * @param code The code of the string
+	 * @return The string
+	 */
+	public String decode(int code) {
+		if (code < 0 || code >= size) { throw new IndexOutOfBoundsException("Unknown string code: " + code); }
+		return strings[code];
+	}
+
+	/**
+	 * Gets the shared instance of a string, adding it to the dictionary if it is new
+	 *
+	 * @param string The string
+	 * @return The instance of the string stored in the dictionary
+	 */
+	public String intern(String string) {
+		int code = encode(string);
+		return strings[code];
+	}
+
+	/**
+	 * Estimates the memory used by the dictionary
+	 *
+	 * @return The estimated size of the strings, table and index (bytes)
+	 */
+	public long estimateMemoryBytes() {
+		return stringBytes + align(ARRAY_HEADER_BYTES + 4L * strings.length) + (long) size * ENTRY_BYTES + align(ARRAY_HEADER_BYTES + 4L * Math.max(16, Integer.highestOneBit(Math.max(1, size * 4 / 3)) * 2));
+	}
+
+	/**
+	 * Rounds a size up to the 8 byte object alignment
+	 *
+	 * @param bytes The size
+	 * @return The aligned size
+	 */
+	static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * Checks if a string can be stored with one byte per character (compact strings)
+	 *
+	 * @param string The string
+	 * @return True if every character is Latin-1
+	 */
+	private static boolean isLatin1(String string) {
+		for (int i = 0; i < string.length(); i++) {
+			if (string.charAt(i) > 0xFF) { return false; }
+		}
+		return true;
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the number of distinct strings
+	 *
+	 * @return The number of strings
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,186 @@
+package interfuze;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders the report as the coloured table printed to the terminal, with an average and change in
+ * rainfall column for each lookback window.
+ *
+ * Each row is built in a reused StringBuilder, with the padding and two decimal place formatting done by
+ * hand rather than through String.format and DecimalFormat. The output is identical to formatting the
+ * rows with "| %-20s | %-20s | %-20s | %-Ns | %-28s |" and DecimalFormat("#.##").
+ */
+public class TableReportRenderer implements ReportRenderer {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Width of the table with a single lookback window
+	 */
+	private static final int BASE_WIDTH = 129;
+
+	/**
+	 * Width of the columns of each additional lookback window
+	 */
+	private static final int WINDOW_WIDTH = 59;
+
+	/**
+	 * Number of characters used by the ANSI colour codes of the legend
+	 */
+	private static final int LEGEND_ANSI_WIDTH = 36;
+
+	// ---- Variables ---- //
+
+	/**
+	 * The output
+	 */
+	private final Writer out;
+
+	/**
+	 * Labels of the lookback windows
+	 */
+	private final String[] windows;
+
+	/**
+	 * The rainfall thresholds (in increasing order)
+	 */
+	private final int[] thresholds;
+
+	/**
+	 * Horizontal rule of the table
+	 */
+	private final String rule;
+
+	/**
+	 * Number formatter (using the default locale, as DecimalFormat does)
+	 */
+	private final DecimalFormatter formatter = DecimalFormatter.forDefaultLocale();
+
+	/**
+	 * Builder of the current row
+	 */
+	private final StringBuilder row = new StringBuilder(256);
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param out The output
+	 * @param windows The labels of the lookback windows (e.g. "4 hrs")
+	 * @param thresholds The rainfall thresholds (in increasing order)
+	 */
+	public TableReportRenderer(Writer out, String[] windows, int[] thresholds) {
+		this.out = out;
+		this.windows = windows;
+		this.thresholds = thresholds;
+		StringBuilder rule = new StringBuilder();
+		pad(rule, BASE_WIDTH + WINDOW_WIDTH * (windows.length - 1), '-');
+		this.rule = rule.append('\n').toString();
+	}
+
+	// ---- Methods ---- //
+
+	@Override
+	public void writeHeader() throws IOException {
+		out.write(rule);
+		row.setLength(0);
+		row.append(String.format("| %-20s | %-20s | %-20s |", "Device Name", "Device ID", "Location"));
+		for (String window : windows) {
+			row.append(String.format(" %-25s | %-28s |", "Average Rainfall (" + window + ")", "Change in Rainfall (" + window + ")"));
+		}
+		out.append(row).append('\n');
+		out.write(rule);
+	}
+
+	@Override
+	public void writeRow(Device device, WindowSummary[] summaries) throws IOException {
+		row.setLength(0);
+		row.append("| ");
+		int start = row.length();
+		row.append(device.getDeviceName());
+		pad(row, start + 20, ' ');
+		row.append(" | ");
+		start = row.length();
+		row.append(device.getDeviceID());
+		pad(row, start + 20, ' ');
+		row.append(" | ");
+		start = row.length();
+		row.append(device.getLocation());
+		pad(row, start + 20, ' ');
+
+		for (WindowSummary summary : summaries) {
+			row.append(" | ");
+
+			// Average rainfall, coloured by its level (the column is widened to account for the ANSI colour codes)
+			start = row.length();
+			double averageRainfall = summary.getAverageRainfall();
+			boolean exceedThreshold = summary.isExceeding(thresholds[0]);
+			if (exceedThreshold) {
+				row.append(App.ANSI_RED);
+			} else if (averageRainfall < 10.0d) {
+				row.append(App.ANSI_GREEN);
+			} else if (averageRainfall < 15.0d) {
+				row.append(App.ANSI_YELLOW);
+			} else {
+				row.append(App.ANSI_RED);
+			}
+			formatter.append(row, averageRainfall);
+			row.append(App.ANSI_RESET).append(" mm");
+			if (exceedThreshold) {
+				row.append(' ').append(App.ANSI_RED).append("!!!");
+
+				// The highest threshold exceeded is shown when there are several
+				if (thresholds.length > 1) {
+					int highest = thresholds[0];
+					for (int threshold : thresholds) {
+						if (summary.isExceeding(threshold)) { highest = threshold; }
+					}
+					row.append(" >").append(highest);
+				}
+				row.append(App.ANSI_RESET);
+			}
+			pad(row, start + 34 + (exceedThreshold ? 9 : 0), ' ');
+			row.append(" | ");
+
+			// Change in rainfall
+			start = row.length();
+			formatter.append(row, summary.getChangeInRainfall());
+			row.append(" mm");
+			pad(row, start + 28, ' ');
+		}
+		row.append(" |\n");
+		out.append(row);
+	}
+
+	@Override
+	public void writeFooter() throws IOException {
+		out.write(rule);
+		row.setLength(0);
+		row.append("| Legend: " + App.ANSI_GREEN + "Green" + App.ANSI_RESET + " = Low (< 10 mm), " + App.ANSI_YELLOW + "Amber" + App.ANSI_RESET + " = Medium (< 15 mm), " + App.ANSI_RED + "Red" + App.ANSI_RESET + " = High (>= 15 mm), " + App.ANSI_RED + "!!!" + App.ANSI_RESET);
+		if (thresholds.length == 1) {
+			row.append(" = ").append(thresholds[0]).append(" mm Threshold Exceeded");
+		} else {
+			row.append(" >N = Highest Threshold Exceeded (");
+			for (int i = 0; i < thresholds.length; i++) {
+				row.append(i == 0 ? "" : ", ").append(thresholds[i]);
+			}
+			row.append(" mm)");
+		}
+		pad(row, rule.length() - 3 + LEGEND_ANSI_WIDTH, ' ');
+		out.append(row).append(" |\n");
+		out.write(rule);
+	}
+
+	/**
+	 * Pads the last column of the row (the column is not truncated if it is too wide)
+	 *
+	 * @param builder The row
+	 * @param end The length of the row after the padded column
+	 * @param padding The padding character
+	 */
+	private static void pad(StringBuilder builder, int end, char padding) {
+		while (builder.length() < end) { builder.append(padding); }
+	}
+}
@@ -0,0 +1,328 @@
+package interfuze;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes observation times in the form d/MM/yyyy h:mm into epoch milliseconds.
+ *
+ * The result is the same as parsing the time with a lenient SimpleDateFormat (including the time zone
+ * handling and "12:xx" being treated as 12 AM, as there is no AM/PM field). Well formed times are decoded
+ * without allocating by adding the time of day to a cached start of day epoch. Anything else (other
+ * layouts, trailing text, out of range values, days containing a time zone transition, etc.) is parsed
+ * with SimpleDateFormat.
+ *
+ * Instances are thread-safe.
+ */
+public class TimestampDecoder {
+
+	// ---- Constants ---- //
+
+	/**
+	 * Observation time format
+	 */
+	public static final String PATTERN = "d/MM/yyyy h:mm";
+
+	/**
+	 * Number of cached days (must be a power of two)
+	 */
+	private static final int CACHE_SIZE = 256;
+
+	/**
+	 * Milliseconds in an hour
+	 */
+	private static final long MILLIS_PER_HOUR = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * Milliseconds in a minute
+	 */
+	private static final long MILLIS_PER_MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Distance from the start of a day that must be free of time zone transitions for the fast path to be used
+	 */
+	private static final long TRANSITION_MARGIN = TimeUnit.HOURS.toMillis(26);
+
+	// ---- Variables ---- //
+
+	/**
+	 * Time zone the times are in
+	 */
+	private final TimeZone timeZone;
+
+	/**
+	 * Time zone rules used to find days containing a transition (null if the fast path can not be used)
+	 */
+	private final ZoneRules zoneRules;
+
+	/**
+	 * Calendar used to calculate the start of a day (guarded by itself)
+	 */
+	private final Calendar calendar;
+
+	/**
+	 * SimpleDateFormat for times that are not decoded by the fast path (not thread-safe, so one per thread)
+	 */
+	private final ThreadLocal<SimpleDateFormat> dateFormat;
+
+	/**
+	 * Cache of the start of day epochs, indexed by a hash of the date. Entries are immutable so a racing
+	 * thread either sees a complete entry or a stale one, which is checked against the date.
+	 */
+	private final DayEntry[] cache = new DayEntry[CACHE_SIZE];
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor (uses the default time zone, as SimpleDateFormat does)
+	 */
+	public TimestampDecoder() {
+		this(TimeZone.getDefault());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param timeZone The time zone the times are in
+	 */
+	public TimestampDecoder(TimeZone timeZone) {
+		this.timeZone = (TimeZone) timeZone.clone();
+		this.dateFormat = ThreadLocal.withInitial(() -> {
+			SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+			format.setTimeZone(this.timeZone);
+			return format;
+		});
+
+		// Use the same calendar as SimpleDateFormat (only the Gregorian calendar is supported by the fast path)
+		this.calendar = (Calendar) dateFormat.get().getCalendar().clone();
+		this.zoneRules = calendar.getClass() == GregorianCalendar.class ? zoneRules(this.timeZone) : null;
+	}
+
+	// ---- Methods ---- //
+
+	/**
+	 * Decodes an observation time.
+	 *
+	 * @param text The observation time
+	 * @throws ParseException If the observation time can not be parsed
+	 * @return The observation time in epoch milliseconds
+	 */
+	public long decode(CharSequence text) throws ParseException {
+		int length = text.length();
+
+		// Parse the fields (day, month, year, hour, minute) and their separators
+		int day = 0, month = 0, year = 0, hour = 0, minute = 0;
+		int field = 0;
+		int digits = 0;
+		int value = 0;
+		boolean valid = zoneRules != null;
+		for (int index = 0; valid && index <= length; index++) {
+			char c = index < length ? text.charAt(index) : '\0';
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				digits++;
+				continue;
+			}
+
+			// End of a field
+			switch (field) {
+				case 0: valid = c == '/' && digits >= 1 && digits <= 2; day = value; break;
+				case 1: valid = c == '/' && digits >= 1 && digits <= 2; month = value; break;
+				case 2: valid = c == ' ' && digits == 4; year = value; break;
+				case 3: valid = c == ':' && digits >= 1 && digits <= 2; hour = value; break;
+				default: valid = index == length && digits >= 1 && digits <= 2; minute = value; break;
+			}
+			field++;
+			digits = 0;
+			value = 0;
+		}
+
+		// Decode the fields, or fall back to SimpleDateFormat
+		if (valid && field == 5) {
+			long time = decodeFields(day, month, year, hour, minute);
+			if (time != Long.MIN_VALUE) { return time; }
+		}
+		return dateFormat.get().parse(text.toString()).getTime();
+	}
+
+	/**
+	 * Decodes an observation time from ASCII bytes.
+	 *
+	 * @param buffer The buffer containing the observation time
+	 * @param start The index of the first byte
+	 * @param end The index after the last byte
+	 * @throws ParseException If the observation time can not be parsed
+	 * @return The observation time in epoch milliseconds
+	 */
+	public long decode(ByteBuffer buffer, int start, int end) throws ParseException {
+		// Parse the fields (day, month, year, hour, minute) and their separators
+		int day = 0, month = 0, year = 0, hour = 0, minute = 0;
+		int field = 0;
+		int digits = 0;
+		int value = 0;
+		boolean valid = zoneRules != null;
+		for (int index = start; valid && index <= end; index++) {
+			int c = index < end ? buffer.get(index) : '\0';
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				digits++;
+				continue;
+			}
+
+			// End of a field
+			switch (field) {
+				case 0: valid = c == '/' && digits >= 1 && digits <= 2; day = value; break;
+				case 1: valid = c == '/' && digits >= 1 && digits <= 2; month = value; break;
+				case 2: valid = c == ' ' && digits == 4; year = value; break;
+				case 3: valid = c == ':' && digits >= 1 && digits <= 2; hour = value; break;
+				default: valid = index == end && digits >= 1 && digits <= 2; minute = value; break;
+			}
+			field++;
+			digits = 0;
+			value = 0;
+		}
+
+		// Decode the fields, or fall back to SimpleDateFormat
+		if (valid && field == 5) {
+			long time = decodeFields(day, month, year, hour, minute);
+			if (time != Long.MIN_VALUE) { return time; }
+		}
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = (char) (buffer.get(i) & 0xFF);
+		}
+		return dateFormat.get().parse(new String(chars)).getTime();
+	}
+
+	/**
+	 * Decodes the fields of an observation time using the cached start of the day.
+	 *
+	 * @param day The day of the month
+	 * @param month The month (1 based)
+	 * @param year The year
+	 * @param hour The hour (1 - 12, with 12 meaning 0 as there is no AM/PM field)
+	 * @param minute The minute
+	 * @return The observation time in epoch milliseconds, or Long.MIN_VALUE if it must be parsed by SimpleDateFormat
+	 */
+	private long decodeFields(int day, int month, int year, int hour, int minute) {
+		// Only times within the day are decoded directly (lenient overflow is left to SimpleDateFormat)
+		if (hour > 23 || minute > 59) { return Long.MIN_VALUE; }
+
+		// Get the start of the day from the cache
+		int key = year * 10000 + month * 100 + day;
+		int index = (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(CACHE_SIZE));
+		DayEntry entry = cache[index];
+		if (entry == null || entry.key != key) {
+			entry = computeDay(key, day, month, year);
+			cache[index] = entry;
+		}
+
+		// Days containing a time zone transition are left to SimpleDateFormat
+		if (!entry.uniform) { return Long.MIN_VALUE; }
+
+		// SimpleDateFormat treats hour 12 as 0 for the h (1 - 12) pattern
+		return entry.start + (hour == 12 ? 0 : hour) * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE;
+	}
+
+	/**
+	 * Calculates the start of a day and whether the day has a constant time zone offset.
+	 *
+	 * @param key The cache key of the day
+	 * @param day The day of the month
+	 * @param month The month (1 based)
+	 * @param year The year
+	 * @return The cache entry for the day
+	 */
+	private DayEntry computeDay(int key, int day, int month, int year) {
+		// Calculate the start of the day (with the same lenient calendar fields as SimpleDateFormat)
+		long start;
+		synchronized (calendar) {
+			calendar.clear();
+			calendar.set(Calendar.YEAR, year);
+			calendar.set(Calendar.MONTH, month - 1);
+			calendar.set(Calendar.DAY_OF_MONTH, day);
+			start = calendar.getTimeInMillis();
+		}
+
+		// Check for time zone transitions around the day
+		ZoneOffsetTransition transition = zoneRules.nextTransition(Instant.ofEpochMilli(start - TRANSITION_MARGIN));
+		boolean uniform = transition == null || transition.toEpochSecond() * 1000 > start + TRANSITION_MARGIN;
+
+		return new DayEntry(key, start, uniform);
+	}
+
+	/**
+	 * Gets the rules of a time zone, if they can be used to find transitions.
+	 *
+	 * @param timeZone The time zone
+	 * @return The time zone rules, or null if they are not known
+	 */
+	private static ZoneRules zoneRules(TimeZone timeZone) {
+		try {
+			ZoneRules rules = timeZone.toZoneId().getRules();
+
+			// Custom time zones may not match the rules of their ID
+			long now = System.currentTimeMillis();
+			if (rules.getOffset(Instant.ofEpochMilli(now)).getTotalSeconds() * 1000 != timeZone.getOffset(now)) { return null; }
+			if (!rules.isFixedOffset() && !timeZone.getID().equals(timeZone.toZoneId().getId())) { return null; }
+			return rules;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the time zone the times are in
+	 *
+	 * @return The time zone
+	 */
+	public TimeZone getTimeZone() {
+		return (TimeZone) timeZone.clone();
+	}
+
+	// ---- Classes ---- //
+
+	/**
+	 * Cached start of a day
+	 */
+	private static final class DayEntry {
+
+		/**
+		 * Date key (yyyyMMdd)
+		 */
+		final int key;
+
+		/**
+		 * Start of the day in epoch milliseconds
+		 */
+		final long start;
+
+		/**
+		 * True if the time zone offset is constant throughout the day
+		 */
+		final boolean uniform;
+
+		/**
+		 * Constructor
+		 *
+		 * @param key The date key
+		 * @param start The start of the day
+		 * @param uniform True if the time zone offset is constant throughout the day
+		 */
+		DayEntry(int key, long start, boolean uniform) {
+			this.key = key;
+			this.start = start;
+			this.uniform = uniform;
+		}
+	}
+}
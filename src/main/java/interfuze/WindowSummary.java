@@ -0,0 +1,190 @@
+package interfuze;
+
+/**
+ * Stores the summary of a device's observations within a lookback window.
+ */
+public class WindowSummary {
+
+	// ---- Variables ---- //
+
+	/**
+	 * Number of observations in the window
+	 */
+	private final int count;
+
+	/**
+	 * Total rainfall in the window in millimeters (mm)
+	 */
+	private final long totalRainfall;
+
+	/**
+	 * Maximum rainfall in the window in millimeters (mm), 0 if there are no observations
+	 */
+	private final int maxRainfall;
+
+	/**
+	 * Rainfall of the first observation in the window in millimeters (mm), 0 if there are no observations
+	 */
+	private final int firstRainfall;
+
+	/**
+	 * Rainfall of the last observation in the window in millimeters (mm), 0 if there are no observations
+	 */
+	private final int lastRainfall;
+
+	/**
+	 * True if an observation in the window exceeded the threshold
+	 */
+	private final boolean exceedingThreshold;
+
+	// ---- Constructor ---- //
+
+	/**
+	 * Constructor
+	 *
+	 * @param count The number of observations in the window
+	 * @param totalRainfall The total rainfall in the window
+	 * @param maxRainfall The maximum rainfall in the window
+	 * @param firstRainfall The rainfall of the first observation in the window
+	 * @param lastRainfall The rainfall of the last observation in the window
+	 * @param exceedingThreshold True if an observation in the window exceeded the threshold
+	 */
+	public WindowSummary(int count, long totalRainfall, int maxRainfall, int firstRainfall, int lastRainfall, boolean exceedingThreshold) {
+		this.count = count;
+		this.totalRainfall = totalRainfall;
+		this.maxRainfall = maxRainfall;
+		this.firstRainfall = firstRainfall;
+		this.lastRainfall = lastRainfall;
+		this.exceedingThreshold = exceedingThreshold;
+	}
+
+	// ---- Getters ---- //
+
+	/**
+	 * Gets the number of observations in the window
+	 *
+	 * @return The number of observations
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the total rainfall in the window in millimeters (mm)
+	 *
+	 * @return The total rainfall
+	 */
+	public long getTotalRainfall() {
+		return totalRainfall;
+	}
+
+	/**
+	 * Gets the average rainfall in the window in millimeters (mm)
+	 *
+	 * @return The average rainfall, 0 if there are no observations
+	 */
+	public double getAverageRainfall() {
+		return count == 0 ? 0 : (double) totalRainfall / count;
+	}
+
+	/**
+	 * Gets the maximum rainfall in the window in millimeters (mm)
+	 *
+	 * @return The maximum rainfall, 0 if there are no observations
+	 */
+	public int getMaxRainfall() {
+		return maxRainfall;
+	}
+
+	/**
+	 * Gets the rainfall of the first observation in the window in millimeters (mm)
+	 *
+	 * @return The rainfall of the first observation, 0 if there are no observations
+	 */
+	public int getFirstRainfall() {
+		return firstRainfall;
+	}
+
+	/**
+	 * Gets the rainfall of the last observation in the window in millimeters (mm)
+	 *
+	 * @return The rainfall of the last observation, 0 if there are no observations
+	 */
+	public int getLastRainfall() {
+		return lastRainfall;
+	}
+
+	/**
+	 * Gets the change in rainfall across the window in millimeters (mm)
+	 *
+	 * @return The change in rainfall (last - first), 0 if there are no observations
+	 */
+	public int getChangeInRainfall() {
+		return lastRainfall - firstRainfall;
+	}
+
+	/**
+	 * Checks if an observation in the window exceeded the threshold
+	 *
+	 * @return True if the threshold was exceeded, false otherwise
+	 */
+	public boolean isExceedingThreshold() {
+		return exceedingThreshold;
+	}
+
+	/**
+	 * Checks if an observation in the window exceeded a threshold
+	 *
+	 * @param threshold The threshold to check
+	 * @return True if an observation exceeded the threshold, false otherwise
+	 */
+	public boolean isExceeding(int threshold) {
+		return count > 0 && maxRainfall > threshold;
+	}
+
+	// ---- Primitive Methods ---- //
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + count;
+		result = prime * result + (int) (totalRainfall ^ (totalRainfall >>> 32));
+		result = prime * result + maxRainfall;
+		result = prime * result + firstRainfall;
+		result = prime * result + lastRainfall;
+		result = prime * result + (exceedingThreshold ? 1231 : 1237);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		WindowSummary other = (WindowSummary) obj;
+		if (count != other.count)
+			return false;
+		if (totalRainfall != other.totalRainfall)
+			return false;
+		if (maxRainfall != other.maxRainfall)
+			return false;
+		if (firstRainfall != other.firstRainfall)
+			return false;
+		if (lastRainfall != other.lastRainfall)
+			return false;
+		if (exceedingThreshold != other.exceedingThreshold)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "WindowSummary [count=" + count + ", totalRainfall=" + totalRainfall + ", maxRainfall=" + maxRainfall
+				+ ", firstRainfall=" + firstRainfall + ", lastRainfall=" + lastRainfall + ", exceedingThreshold="
+				+ exceedingThreshold + "]";
+	}
+}
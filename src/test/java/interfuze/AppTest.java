@@ -0,0 +1,177 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the App class
+ * 
+ * @see App
+ */
+public class AppTest {
+
+    /**
+     * Sample data directory
+     */
+    private static final String DATA_DIR = "./data";
+
+    /**
+     * Temporary folder for test data
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Restores the default options
+     */
+    @After
+    public void tearDown() {
+        App.THREADS = 1;
+        App.STREAMING = false;
+        App.CHUNK_SIZE = 64L << 20;
+        App.PIPELINE = false;
+    }
+
+    /**
+     * Loads the sample data with the given number of worker threads
+     *
+     * @param devices The registry of devices to load into
+     * @param threads The number of worker threads
+     * @return The current time
+     */
+    private static long load(DeviceRegistry devices, int threads) throws Exception {
+        App.THREADS = threads;
+        App.parseDevicesCSV(devices, DATA_DIR + "/" + App.DEVICE_CSV_FILE_NAME);
+        return App.parseObservationsCSVs(devices, DATA_DIR);
+    }
+
+    /**
+     * Tests that parallel ingestion produces the same results as sequential ingestion
+     */
+    @Test
+    public void testParallelIngestionMatchesSequential() throws Exception {
+        // Load the sample data sequentially and in parallel
+        DeviceRegistry sequential = new DeviceRegistry();
+        DeviceRegistry parallel = new DeviceRegistry();
+        long sequentialTime = load(sequential, 1);
+        long parallelTime = load(parallel, 4);
+
+        // The current time should match
+        assertEquals(sequentialTime, parallelTime);
+
+        // The per-device results should match
+        assertReportEquals(sequential, parallel, sequentialTime);
+    }
+
+    /**
+     * Tests that splitting the observations CSVs into ranges parsed concurrently produces the same results
+     * as sequential ingestion
+     */
+    @Test
+    public void testChunkedIngestionMatchesSequential() throws Exception {
+        DeviceRegistry sequential = new DeviceRegistry();
+        DeviceRegistry chunked = new DeviceRegistry();
+        long sequentialTime = load(sequential, 1);
+        App.CHUNK_SIZE = 128;
+        long chunkedTime = load(chunked, 4);
+
+        assertEquals(sequentialTime, chunkedTime);
+        assertReportEquals(sequential, chunked, sequentialTime);
+    }
+
+    /**
+     * Tests that pipelined ingestion produces the same results as sequential ingestion
+     */
+    @Test
+    public void testPipelineMatchesSequential() throws Exception {
+        DeviceRegistry sequential = new DeviceRegistry();
+        DeviceRegistry pipelined = new DeviceRegistry();
+        long sequentialTime = load(sequential, 1);
+        App.PIPELINE = true;
+        long pipelinedTime = load(pipelined, 3);
+
+        assertEquals(sequentialTime, pipelinedTime);
+        assertReportEquals(sequential, pipelined, sequentialTime);
+    }
+
+    /**
+     * Tests that streaming mode produces the same results as keeping every observation
+     */
+    @Test
+    public void testStreamingMatchesFullRetention() throws Exception {
+        // Load the sample data with and without streaming
+        DeviceRegistry full = new DeviceRegistry();
+        DeviceRegistry streamed = new DeviceRegistry();
+        long fullTime = load(full, 1);
+        App.STREAMING = true;
+        long streamedTime = load(streamed, 1);
+
+        // The current time and per-device results should match
+        assertEquals(fullTime, streamedTime);
+        assertReportEquals(full, streamed, fullTime);
+
+        // Only observations within the lookback window should be kept
+        long lookbackWindow = fullTime - App.LOOKBACK_WINDOW;
+        for (Device device : streamed.values()) {
+            assertEquals(device.getWindowSummarySince(lookbackWindow, App.THRESHOLD).getCount(), device.getNumObservations());
+        }
+    }
+
+    /**
+     * Tests that gzip compressed observations CSVs (parsed concurrently) give the same results as the
+     * plain CSVs
+     */
+    @Test
+    public void testCompressedMatchesPlain() throws Exception {
+        // Compress the sample observations CSVs into a temporary directory
+        File directory = folder.newFolder("compressed");
+        Files.copy(Paths.get(DATA_DIR, App.DEVICE_CSV_FILE_NAME), directory.toPath().resolve(App.DEVICE_CSV_FILE_NAME));
+        for (File file : new File(DATA_DIR).listFiles((d, name) -> App.isObservationsFile(name))) {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(directory.toPath().resolve(file.getName() + ".gz")))) {
+                Files.copy(file.toPath(), out);
+            }
+        }
+
+        // Load the plain and compressed CSVs
+        DeviceRegistry plain = new DeviceRegistry();
+        long plainTime = load(plain, 1);
+        DeviceRegistry compressed = new DeviceRegistry();
+        App.THREADS = 4;
+        App.parseDevicesCSV(compressed, directory.getPath() + "/" + App.DEVICE_CSV_FILE_NAME);
+        long compressedTime = App.parseObservationsCSVs(compressed, directory.getPath());
+
+        assertEquals(plainTime, compressedTime);
+        assertReportEquals(plain, compressed, plainTime);
+    }
+
+    /**
+     * Asserts that two sets of devices give the same report
+     *
+     * @param expected The expected devices
+     * @param actual The actual devices
+     * @param currentTime The current time
+     */
+    private static void assertReportEquals(DeviceRegistry expected, DeviceRegistry actual, long currentTime) {
+        long lookbackWindow = currentTime - App.LOOKBACK_WINDOW;
+        assertEquals(expected.size(), actual.size());
+        for (Device device : expected.values()) {
+            Device other = actual.get(device.getDeviceID());
+            assertNotNull(other);
+            assertEquals(device.getWindowSummarySince(lookbackWindow, App.THRESHOLD), other.getWindowSummarySince(lookbackWindow, App.THRESHOLD));
+            assertEquals(device.getAverageRainfallSince(lookbackWindow), other.getAverageRainfallSince(lookbackWindow), 0.0);
+            assertEquals(device.getChangeInRainfallSince(lookbackWindow), other.getChangeInRainfallSince(lookbackWindow), 0.0);
+            assertEquals(device.isObservationsExceedingThresholdSince(App.THRESHOLD, lookbackWindow), other.isObservationsExceedingThresholdSince(App.THRESHOLD, lookbackWindow));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the ChunkedObservationReader class
+ * 
+ * @see ChunkedObservationReader
+ */
+public class ChunkedObservationReaderTest {
+
+    /**
+     * Temporary folder for test CSVs
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a test CSV of random rows (including rows that cannot be parsed and CRLF line endings)
+     *
+     * @param rows The number of rows
+     * @param extra A row inserted in the middle of the file (null for none)
+     * @return The CSV file
+     */
+    private File write(int rows, String extra) throws Exception {
+        Random random = new Random(42);
+        StringBuilder content = new StringBuilder("Device ID,Time,Rainfall\r\n");
+        for (int i = 0; i < rows; i++) {
+            if (extra != null && i == rows / 2) { content.append(extra); }
+            content.append(random.nextInt(20) == 0 ? "x" : String.valueOf(random.nextInt(50))).append(',');
+            content.append(1 + random.nextInt(28)).append("/06/2020 ").append(random.nextInt(24)).append(':').append(10 + random.nextInt(50)).append(',');
+            content.append(random.nextInt(40)).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Asserts that two batches contain the same observations and statistics
+     *
+     * @param expected The expected batch
+     * @param actual The actual batch
+     */
+    private static void assertBatchEquals(ObservationBatch expected, ObservationBatch actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getNumRecords(), actual.getNumRecords());
+        assertEquals(expected.getNumErrors(), actual.getNumErrors());
+        assertEquals(expected.getCurrentTime(), actual.getCurrentTime());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getDeviceID(i), actual.getDeviceID(i));
+            assertEquals(expected.getObservationTime(i), actual.getObservationTime(i));
+            assertEquals(expected.getRainfall(i), actual.getRainfall(i));
+        }
+    }
+
+    /**
+     * Tests that parsing a file in ranges matches parsing it sequentially, for any number of ranges
+     */
+    @Test
+    public void testMatchesSequential() throws Exception {
+        File file = write(5000, null);
+        ObservationBatch expected = App.readObservationsCSVWithCommons(file.getPath());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int numChunks = 1; numChunks <= 64; numChunks *= 2) {
+                assertBatchEquals(expected, ChunkedObservationReader.submit(file, numChunks, executor).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that the ranges start at the beginning of a row
+     */
+    @Test
+    public void testSplit() throws Exception {
+        File file = write(100, null);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        long[] bounds = ChunkedObservationReader.split(file.toPath(), bytes.length, 10);
+        assertEquals(11, bounds.length);
+        assertEquals(0, bounds[0]);
+        assertEquals(bytes.length, bounds[bounds.length - 1]);
+        for (int i = 1; i < bounds.length - 1; i++) {
+            assertTrue(bounds[i] > bounds[i - 1]);
+            assertEquals('\n', bytes[(int) bounds[i] - 1]);
+        }
+
+        // A file with fewer rows than ranges is split into fewer ranges
+        assertEquals(2, ChunkedObservationReader.split(write(0, null).toPath(), 25, 8).length);
+    }
+
+    /**
+     * Tests that a file with a range the memory mapped parser does not support is parsed with Commons CSV
+     */
+    @Test
+    public void testUnsupportedFallsBack() throws Exception {
+        File file = write(2000, "\"7\",5/06/2020 9:00,\"multi\nline\"\n");
+        ObservationBatch expected = App.readObservationsCSVWithCommons(file.getPath());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertBatchEquals(expected, ChunkedObservationReader.submit(file, 8, executor).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package interfuze;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the DatasetGenerator class
+ * 
+ * @see DatasetGenerator
+ */
+public class DatasetGeneratorTest {
+
+    /**
+     * Temporary folder for generated datasets
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that the same seed generates the same dataset
+     */
+    @Test
+    public void testDeterministic() throws Exception {
+        File first = folder.newFolder("first");
+        File second = folder.newFolder("second");
+        DatasetGenerator generator = new DatasetGenerator(20, TimeUnit.HOURS.toMillis(6), TimeUnit.MINUTES.toMillis(10), 3, 0.1, 0.05, 7);
+        assertEquals(20 * 36, generator.generate(first.toPath()));
+        assertEquals(20 * 36, generator.generate(second.toPath()));
+        for (String name : new String[] { "Devices.csv", "Data1.csv", "Data2.csv", "Data3.csv" }) {
+            assertArrayEquals(Files.readAllBytes(new File(first, name).toPath()), Files.readAllBytes(new File(second, name).toPath()));
+        }
+    }
+
+    /**
+     * Tests that every generated time is read back as the time it was generated for (the noon hour,
+     * which cannot be written in the sample data's format, is skipped)
+     */
+    @Test
+    public void testTimesRoundTrip() throws Exception {
+        int skipped = 0;
+        for (int minute = 0; minute < 24 * 60; minute++) {
+            long time = DatasetGenerator.START_TIME + TimeUnit.MINUTES.toMillis(minute);
+            String text = DatasetGenerator.formatTime(time);
+            if (text == null) {
+                skipped++;
+                assertEquals(12, minute / 60);
+                continue;
+            }
+            assertEquals(text, time, App.TIMESTAMP_DECODER.decode(text));
+        }
+        assertEquals(60, skipped);
+    }
+
+    /**
+     * Tests that the generated dataset can be loaded, with the expected rows, errors and ordering
+     */
+    @Test
+    public void testGeneratedDataset() throws Exception {
+        File directory = folder.newFolder("dataset");
+        long rows = new DatasetGenerator(50, TimeUnit.HOURS.toMillis(24), TimeUnit.MINUTES.toMillis(10), 2, 0.2, 0.1, 42).generate(directory.toPath());
+        assertEquals(50 * (144 - 6), rows);
+
+        // Every row is read, and roughly the configured fraction cannot be parsed
+        int records = 0;
+        int errors = 0;
+        int observations = 0;
+        int outOfOrder = 0;
+        for (String name : new String[] { "Data1.csv", "Data2.csv" }) {
+            ObservationBatch batch = App.readObservationsCSV(new File(directory, name).getPath());
+            records += batch.getNumRecords();
+            errors += batch.getNumErrors();
+            observations += batch.size();
+
+            // Rows held back are written after the rows of the next sampling time, so are older than a row before them
+            long latestTime = Long.MIN_VALUE;
+            for (int i = 0; i < batch.size(); i++) {
+                long time = batch.getObservationTime(i);
+                assertTrue(time >= DatasetGenerator.START_TIME && time < DatasetGenerator.START_TIME + TimeUnit.HOURS.toMillis(24));
+                if (time < latestTime) { outOfOrder++; }
+                latestTime = Math.max(latestTime, time);
+            }
+        }
+        assertEquals(rows, records);
+        assertTrue("errors = " + errors, errors > rows * 0.07 && errors < rows * 0.13);
+
+        // Roughly the configured fraction of rows is out of order (less the rows held back at the end of each file)
+        double outOfOrderRatio = (double) outOfOrder / observations;
+        assertTrue("out of order = " + outOfOrderRatio, outOfOrderRatio > 0.18 && outOfOrderRatio < 0.22);
+
+        // Every device in the devices CSV receives observations
+        DeviceRegistry devices = new DeviceRegistry();
+        App.parseDevicesCSV(devices, new File(directory, App.DEVICE_CSV_FILE_NAME).getPath());
+        assertEquals(50, devices.size());
+        App.parseObservationsCSVs(devices, directory.getPath());
+        for (Device device : devices.values()) {
+            assertTrue(device.getNumObservations() > 100);
+        }
+    }
+}
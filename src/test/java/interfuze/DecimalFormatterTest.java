@@ -0,0 +1,73 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the DecimalFormatter class
+ * 
+ * @see DecimalFormatter
+ */
+public class DecimalFormatterTest {
+
+    /**
+     * Asserts that a value is formatted the same as DecimalFormat("#.##")
+     *
+     * @param decimalFormat The decimal format
+     * @param formatter The formatter
+     * @param value The value
+     */
+    private static void assertFormat(DecimalFormat decimalFormat, DecimalFormatter formatter, double value) {
+        assertEquals("value = " + value, decimalFormat.format(value), formatter.format(value));
+    }
+
+    /**
+     * Tests that values are formatted the same as DecimalFormat("#.##")
+     */
+    @Test
+    public void testMatchesDecimalFormat() {
+        DecimalFormat decimalFormat = new DecimalFormat("#.##");
+        DecimalFormatter formatter = DecimalFormatter.forDefaultLocale();
+
+        // Special values, ties and negative values that round to zero
+        double[] values = { 0, -0.0, 0.5, 0.125, 0.135, 1.005, 2.675, -2.5, -0.001, -0.005, -0.006, 0.995, 9.995, 99.999,
+                1e9, 1e20, 123456789.125, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE };
+        for (double value : values) {
+            assertFormat(decimalFormat, formatter, value);
+        }
+
+        // Averages of rainfall amounts (as in the report)
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int count = 1 + random.nextInt(1000);
+            long total = (long) random.nextInt(50) * count + random.nextInt(count) - (i % 10 == 0 ? 20L * count : 0);
+            assertFormat(decimalFormat, formatter, (double) total / count);
+        }
+
+        // Random values, and values on and near exact ties
+        for (int i = 0; i < 200000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(14) - 3);
+            assertFormat(decimalFormat, formatter, value);
+            double tie = (Math.floor(value * 100) + 0.5) / 100;
+            assertFormat(decimalFormat, formatter, tie);
+            assertFormat(decimalFormat, formatter, Math.nextUp(tie));
+            assertFormat(decimalFormat, formatter, Math.nextDown(tie));
+        }
+    }
+
+    /**
+     * Tests the plain formatter used for machine-readable output
+     */
+    @Test
+    public void testPlain() {
+        assertEquals("18.17", DecimalFormatter.PLAIN.format(109.0 / 6));
+        assertEquals("-3", DecimalFormatter.PLAIN.format(-3));
+        assertEquals("0.1", DecimalFormatter.PLAIN.format(0.1));
+        assertEquals("-0", DecimalFormatter.PLAIN.format(-0.004));
+        assertEquals("NaN", DecimalFormatter.PLAIN.format(Double.NaN));
+    }
+}
@@ -0,0 +1,80 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the DeviceRegistry class
+ * 
+ * @see DeviceRegistry
+ * @see StringDictionary
+ */
+public class DeviceRegistryTest {
+
+    /**
+     * Tests that the registry finds the same devices as a map (including negative and colliding IDs)
+     */
+    @Test
+    public void testMatchesMap() {
+        DeviceRegistry registry = new DeviceRegistry();
+        Map<Integer, Device> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int deviceID = i % 3 == 0 ? random.nextInt() : i << 16;
+            expected.put(deviceID, registry.add(deviceID, "Gauge " + i, "Location " + (i % 50)));
+        }
+        assertEquals(expected.size(), registry.size());
+        for (Map.Entry<Integer, Device> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), registry.get(entry.getKey()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            int deviceID = random.nextInt();
+            if (!expected.containsKey(deviceID)) { assertNull(registry.get(deviceID)); }
+        }
+        assertEquals(expected.size(), registry.values().size());
+        assertTrue(registry.values().containsAll(expected.values()));
+    }
+
+    /**
+     * Tests that the names and locations are dictionary encoded, and that adding a device with an existing
+     * ID replaces it
+     */
+    @Test
+    public void testDictionaryEncoding() {
+        DeviceRegistry registry = new DeviceRegistry();
+        Device first = registry.add(1, "Gauge 1", new String("Satara"));
+        Device second = registry.add(2, "Gauge 2", new String("Satara"));
+        registry.add(3, "Gauge 3", "Skukuza");
+        assertSame(first.getLocation(), second.getLocation());
+        assertEquals(registry.getLocationCode(1), registry.getLocationCode(2));
+        assertNotEquals(registry.getLocationCode(1), registry.getLocationCode(3));
+        assertEquals("Skukuza", registry.getLocations().decode(registry.getLocationCode(3)));
+        assertEquals(-1, registry.getLocationCode(4));
+        assertEquals(2, registry.getLocations().size());
+
+        // Replacing a device keeps its position
+        Device replaced = registry.add(1, "Gauge 1", "Skukuza");
+        assertEquals(3, registry.size());
+        assertSame(replaced, registry.get(1));
+        assertSame(replaced, registry.values().get(0));
+        assertEquals(registry.getLocationCode(3), registry.getLocationCode(1));
+        assertTrue(registry.estimateMemoryBytes() > 0);
+
+        // The estimate includes the structures each device enables
+        long bytes = registry.estimateMemoryBytes();
+        replaced.enableRollups();
+        long withRollups = registry.estimateMemoryBytes();
+        assertTrue(withRollups > bytes);
+        replaced.enableQuantileSketch();
+        assertTrue(registry.estimateMemoryBytes() > withRollups);
+    }
+}
@@ -1,10 +1,13 @@
 package interfuze;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+
 import org.junit.Test;
 
 /**
@@ -64,4 +67,110 @@ public class DeviceTest {
         assertFalse(device.isObservationsExceedingThresholdSince(20, currentTime - 2500));
         assertTrue(device.isObservationsExceedingThresholdSince(5, currentTime - 2500));
     }
+
+    /**
+     * Tests the Device class with many observations added out of order
+     */
+    @Test
+    public void testUnorderedObservations() {
+        Device device = new Device(1, "Device1", "Location1");
+
+        // Add observations in reverse time order (rainfall = minute)
+        for (int minute = 99; minute >= 0; minute--) {
+            device.addObservation(minute * 60000L, minute);
+        }
+        assertEquals(100, device.getNumObservations());
+
+        // Observations after minute 49 (50 - 99)
+        long since = 49 * 60000L;
+        assertEquals(74.5, device.getAverageRainfallSince(since), 0.001);
+        assertEquals(49, device.getChangeInRainfallSince(since), 0.001);
+        assertTrue(device.isObservationsExceedingThresholdSince(98, since));
+        assertFalse(device.isObservationsExceedingThresholdSince(99, since));
+
+        // Observations with the same time keep the order they were added in
+        device.addObservation(99 * 60000L, 5);
+        assertEquals(5 - 50, device.getChangeInRainfallSince(since), 0.001);
+
+        // Observations added out of order after a query are still found by later queries
+        device.addObservation(10 * 60000L, 1000);
+        assertFalse(device.isObservationsExceedingThresholdSince(99, since));
+        device.addObservation(60 * 60000L, 1000);
+        assertTrue(device.isObservationsExceedingThresholdSince(99, since));
+        assertEquals(5 - 50, device.getChangeInRainfallSince(since), 0.001);
+    }
+
+    /**
+     * Tests the window summary of a device
+     */
+    @Test
+    public void testWindowSummary() {
+        Device device = new Device(1, "Device1", "Location1");
+
+        // No observations
+        WindowSummary empty = device.getWindowSummarySince(0, 30);
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getAverageRainfall(), 0.0);
+        assertEquals(0, device.getAverageRainfallSince(0), 0.0);
+        assertFalse(empty.isExceedingThreshold());
+
+        // Summary should match the separate queries
+        device.addObservation(3000, 10);
+        device.addObservation(1000, 40);
+        device.addObservation(2000, 25);
+        device.addObservation(4000, 5);
+        WindowSummary summary = device.getWindowSummarySince(1500, 30);
+        assertEquals(new WindowSummary(3, 40, 25, 25, 5, false), summary);
+        assertEquals(device.getAverageRainfallSince(1500), summary.getAverageRainfall(), 0.0);
+        assertEquals(device.getChangeInRainfallSince(1500), summary.getChangeInRainfall(), 0.0);
+        assertEquals(device.isObservationsExceedingThresholdSince(30, 1500), summary.isExceedingThreshold());
+        assertTrue(device.getWindowSummarySince(500, 30).isExceedingThreshold());
+    }
+
+    /**
+     * Tests that summarising several windows in one pass matches summarising each window
+     */
+    @Test
+    public void testWindowSummaries() {
+        Device device = new Device(1, "Device1", "Location1");
+        long[] times = { 500, -1, 999, 250, 100 };
+        assertArrayEquals(new WindowSummary[] { new WindowSummary(0, 0, 0, 0, 0, false), new WindowSummary(0, 0, 0, 0, 0, false) }, device.getWindowSummariesSince(new long[] { 0, 10 }, 30));
+
+        // Observations added out of order
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            device.addObservation(random.nextInt(1000), random.nextInt(40));
+        }
+        WindowSummary[] summaries = device.getWindowSummariesSince(times, 30);
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(device.getWindowSummarySince(times[i], 30), summaries[i]);
+        }
+    }
+
+    /**
+     * Tests discarding observations at or before a retention bound
+     */
+    @Test
+    public void testRetentionBound() {
+        Device device = new Device(1, "Device1", "Location1");
+
+        // Add observations while moving the retention bound forward (keeping the last 10)
+        for (int i = 0; i < 1000; i++) {
+            device.setRetentionBound(i - 10);
+            device.addObservation(i, i);
+        }
+        assertTrue(device.getNumObservations() <= 32);
+
+        // Observations at or before the bound are ignored and the rest are kept
+        device.addObservation(500, 1000);
+        device.compact();
+        assertEquals(10, device.getNumObservations());
+        assertEquals(994.5, device.getAverageRainfallSince(989), 0.001);
+        assertEquals(9, device.getChangeInRainfallSince(989), 0.001);
+
+        // The bound never moves backwards
+        device.setRetentionBound(0);
+        device.addObservation(500, 1000);
+        assertEquals(10, device.getNumObservations());
+    }
 }
@@ -0,0 +1,153 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the MappedObservationParser class
+ * 
+ * @see MappedObservationParser
+ */
+public class MappedObservationParserTest {
+
+    /**
+     * Temporary folder for test CSVs
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a test CSV
+     *
+     * @param contents The contents of the CSV
+     * @return The CSV file
+     */
+    private File write(String contents) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Asserts that two batches contain the same observations and statistics
+     *
+     * @param expected The expected batch
+     * @param actual The actual batch
+     */
+    private static void assertBatchEquals(ObservationBatch expected, ObservationBatch actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getNumRecords(), actual.getNumRecords());
+        assertEquals(expected.getNumErrors(), actual.getNumErrors());
+        assertEquals(expected.getCurrentTime(), actual.getCurrentTime());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getDeviceID(i), actual.getDeviceID(i));
+            assertEquals(expected.getObservationTime(i), actual.getObservationTime(i));
+            assertEquals(expected.getRainfall(i), actual.getRainfall(i));
+        }
+    }
+
+    /**
+     * Tests that the mapped parser matches Commons CSV on supported files
+     */
+    @Test
+    public void testMatchesCommons() throws Exception {
+        String[] contents = {
+            "Device ID,Time,Rainfall\n10451,5/06/2020 9:00,0\n11271,5/06/2020 9:30,12\n",
+            "Device ID,Time,Rainfall\r\n10451,5/06/2020 9:00,0\r\n\r\n11271,5/06/2020 12:00,-3\r\n",
+            "Device ID,Time,Rainfall\n10451,5/06/2020 9:00,7",
+            "Device ID,Time,Rainfall\n,5/06/2020 9:00,1\n10451,not a time,2\n10451,5/06/2020 9:00,x\n99999999999,5/06/2020 9:00,1\n+7,5/06/2020 10:00,+4\n",
+            "Device ID,Time,Rainfall\n",
+            "Device ID,Time,Rainfall",
+        };
+        for (String content : contents) {
+            File file = write(content);
+            ObservationBatch expected = App.readObservationsCSVWithCommons(file.getPath());
+            ObservationBatch actual = MappedObservationParser.read(file.toPath());
+            assertNotNull(content, actual);
+            assertBatchEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Tests that rows spanning multiple mapped windows are parsed correctly
+     */
+    @Test
+    public void testSmallWindows() throws Exception {
+        StringBuilder content = new StringBuilder("Device ID,Time,Rainfall\n");
+        for (int i = 0; i < 200; i++) {
+            content.append(i % 7).append(',').append(1 + i % 28).append("/06/2020 ").append(1 + i % 12).append(':').append(10 + i % 50).append(',').append(i).append('\n');
+        }
+        File file = write(content.toString());
+        ObservationBatch expected = App.readObservationsCSVWithCommons(file.getPath());
+        MappedObservationParser parser = new MappedObservationParser(new ObservationBatch(), 64);
+        assertEquals(true, parser.readFile(file.toPath()));
+        assertBatchEquals(expected, parser.getBatch());
+    }
+
+    /**
+     * Tests that parsing a decompressed stream (read a few bytes at a time) matches Commons CSV, and that
+     * compressed files are parsed as they are decompressed
+     */
+    @Test
+    public void testStreams() throws Exception {
+        StringBuilder rows = new StringBuilder("Device ID,Time,Rainfall\n");
+        for (int i = 0; i < 20000; i++) {
+            rows.append(i % 7).append(',').append(1 + i % 28).append("/06/2020 ").append(1 + i % 12).append(':').append(10 + i % 50).append(',').append(i).append('\n');
+        }
+        String[] contents = { rows.toString(), "Device ID,Time,Rainfall\r\n10451,5/06/2020 9:00,0\r\n\r\n11271,5/06/2020 12:00,-3\r\n", "Device ID,Time,Rainfall\n10451,5/06/2020 9:00,7", "Device ID,Time,Rainfall" };
+        Random random = new Random(42);
+        for (String content : contents) {
+            File file = write(content);
+            ObservationBatch expected = App.readObservationsCSVWithCommons(file.getPath());
+
+            // Stream returning a few bytes at a time
+            InputStream in = new FilterInputStream(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return super.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+                }
+            };
+            assertBatchEquals(expected, MappedObservationParser.read(in));
+
+            // Compressed file
+            File compressed = folder.newFile("Data" + random.nextInt(Integer.MAX_VALUE) + ".csv.gz");
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed))) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+            assertBatchEquals(expected, App.readObservationsCSV(compressed.getPath()));
+        }
+
+        // Unsupported streams are left to Commons CSV
+        assertNull(MappedObservationParser.read(new ByteArrayInputStream(new byte[0])));
+        assertNull(MappedObservationParser.read(new ByteArrayInputStream("Device ID,Time,Rainfall\n\"10451\",5/06/2020 9:00,0\n".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Tests that files using unsupported CSV features are left to Commons CSV
+     */
+    @Test
+    public void testUnsupportedFiles() throws Exception {
+        assertNull(MappedObservationParser.read(write("").toPath()));
+        assertNull(MappedObservationParser.read(write("Time,Device ID,Rainfall\n5/06/2020 9:00,1,2\n").toPath()));
+        assertNull(MappedObservationParser.read(write("Device ID,Time,Rainfall\n\"10451\",5/06/2020 9:00,0\n").toPath()));
+        assertNull(MappedObservationParser.read(write("Device ID,Time,Rainfall\n10451,5/06/2020 9:00,0,extra\n").toPath()));
+        assertNull(MappedObservationParser.read(write("Device ID,Time,Rainfall\n10451,5/06/2020 9:00,0\r10451,5/06/2020 9:30,0\n").toPath()));
+    }
+}
@@ -0,0 +1,84 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the Metrics class
+ * 
+ * @see Metrics
+ */
+public class MetricsTest {
+
+    /**
+     * Temporary folder for test CSVs and metrics files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Disables the metrics after each test
+     */
+    @After
+    public void tearDown() {
+        Metrics.reset();
+    }
+
+    /**
+     * Tests that nothing is recorded while metrics are disabled
+     */
+    @Test
+    public void testDisabled() {
+        assertFalse(Metrics.isEnabled());
+        Metrics.increment("counter", 5);
+        assertEquals(0, Metrics.startTimer());
+        assertEquals(0, Metrics.stopTimer("timer", 0));
+        Metrics.recordFile("Data.csv", 10, 1, 100, 1000);
+        Metrics.startPhase("Phase");
+        Metrics.endPhase(10);
+        assertEquals(0, Metrics.getCounter("counter"));
+        assertEquals("{\n  \"counters\": {\n  },\n  \"timers\": {\n  },\n  \"files\": [\n  ],\n  \"phases\": [\n  ],\n  \"stages\": [\n  ]\n}\n", Metrics.toJSON());
+    }
+
+    /**
+     * Tests that loading observations records the per-file statistics, timers and phases
+     */
+    @Test
+    public void testEnabled() throws Exception {
+        Metrics.enable();
+        File data = folder.newFile("Data1.csv");
+        Files.write(data.toPath(), "Device ID,Time,Rainfall\n1,5/06/2020 9:00,10\nX,5/06/2020 9:30,20\n1,5/06/2020 10:00,5\n".getBytes(StandardCharsets.UTF_8));
+        DeviceRegistry devices = new DeviceRegistry();
+        devices.add(1, "Device1", "Location1");
+
+        Metrics.startPhase("Load observations");
+        App.parseObservationsCSVs(devices, folder.getRoot().getPath());
+        Metrics.endPhase(Metrics.getCounter("observations.records"));
+
+        assertEquals(3, Metrics.getCounter("rows.parsed"));
+        assertEquals(1, Metrics.getCounter("rows.rejected"));
+        assertEquals(data.length(), Metrics.getCounter("bytes.read"));
+        assertEquals(3, Metrics.getCounter("observations.records"));
+        String json = Metrics.toJSON();
+        assertTrue(json, json.contains("{\"file\": \"Data1.csv\", \"rows\": 3, \"rejected\": 1, \"bytes\": " + data.length() + ", \"parseMillis\": "));
+        assertTrue(json, json.contains("\"observations.parse\": {\"count\": 1, "));
+        assertTrue(json, json.contains("\"observations.apply\": {\"count\": 1, "));
+        assertTrue(json, json.contains("{\"phase\": \"Load observations\", \"wallMillis\": "));
+        assertTrue(json, json.contains("\"rows\": 3, \"allocatedBytes\": "));
+
+        // The JSON file matches
+        File metrics = new File(folder.getRoot(), "metrics.json");
+        Metrics.writeJSON(metrics.toPath());
+        assertEquals(Metrics.toJSON(), new String(Files.readAllBytes(metrics.toPath()), StandardCharsets.UTF_8));
+    }
+}
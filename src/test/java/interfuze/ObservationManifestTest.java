@@ -0,0 +1,150 @@
+package interfuze;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the ObservationManifest class
+ *
+ * @see ObservationManifest
+ */
+public class ObservationManifestTest {
+
+    /**
+     * Temporary folder for test CSVs and manifests
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Restores the default options
+     */
+    @After
+    public void tearDown() {
+        App.MANIFEST_FILE_PATH = null;
+        App.WINDOWS = new long[] { App.LOOKBACK_WINDOW };
+    }
+
+    /**
+     * Writes text to a file
+     *
+     * @param file The file
+     * @param text The text to write
+     */
+    private static void write(File file, String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the test CSVs: two files of old observations and one of recent observations
+     *
+     * @return The files
+     */
+    private File[] writeFiles() throws Exception {
+        File old1 = folder.newFile("Data1.csv");
+        File old2 = folder.newFile("Data2.csv");
+        File recent = folder.newFile("Data3.csv");
+        write(old1, "Device ID,Time,Rainfall\n1,1/06/2020 9:00,10\n2,1/06/2020 10:00,20\n");
+        write(old2, "Device ID,Time,Rainfall\n1,5/06/2020 6:00,5\n");
+        write(recent, "Device ID,Time,Rainfall\n1,5/06/2020 9:00,12\n2,5/06/2020 10:00,31\nX,5/06/2020 10:00,1\n");
+        return new File[] { old1, old2, recent };
+    }
+
+    /**
+     * Tests that recorded files entirely before the lookback window are pruned, and that changed files are
+     * parsed again
+     */
+    @Test
+    public void testPrune() throws Exception {
+        File[] files = writeFiles();
+        Path path = folder.getRoot().toPath().resolve("observations.manifest");
+
+        // Nothing is pruned before the files are recorded
+        ObservationManifest manifest = ObservationManifest.open(path);
+        assertArrayEquals(files, manifest.prune(files, App.LOOKBACK_WINDOW));
+        for (File file : files) {
+            ObservationBatch batch = App.readObservationsCSV(file.getPath());
+            batch.setSourceStamp(file.length(), file.lastModified());
+            manifest.record(file, batch);
+        }
+        manifest.save(files);
+
+        // The old files are pruned once recorded (the 4 hour window ends after 5/06/2020 6:00)
+        manifest = ObservationManifest.open(path);
+        assertEquals(3, manifest.getNumEntries());
+        assertEquals(App.TIMESTAMP_DECODER.decode("5/06/2020 10:00"), manifest.getLatestTime(files));
+        assertArrayEquals(new File[] { files[2] }, manifest.prune(files, App.LOOKBACK_WINDOW));
+        assertArrayEquals(new File[] { files[1], files[2] }, manifest.prune(files, App.LOOKBACK_WINDOW + 1));
+
+        // A changed file is no longer pruned
+        write(files[0], "Device ID,Time,Rainfall\n1,1/06/2020 9:00,10\n2,5/06/2020 11:00,20\n");
+        assertArrayEquals(new File[] { files[0], files[2] }, manifest.prune(files, App.LOOKBACK_WINDOW));
+
+        // Only the unchanged files are saved
+        manifest.save(files);
+        assertEquals(2, ObservationManifest.open(path).getNumEntries());
+    }
+
+    /**
+     * Tests that an invalid manifest is ignored
+     */
+    @Test
+    public void testInvalidManifest() throws Exception {
+        File[] files = writeFiles();
+        File file = folder.newFile("observations.manifest");
+        write(file, "interfuze observations manifest 1\n12\tnot a time\t1\t2\t3\t" + files[0].getAbsolutePath() + "\n");
+        ObservationManifest manifest = ObservationManifest.open(file.toPath());
+        assertEquals(0, manifest.getNumEntries());
+        assertArrayEquals(files, manifest.prune(files, App.LOOKBACK_WINDOW));
+    }
+
+    /**
+     * Tests that loading the observations with a manifest gives the same report on the first run and once
+     * the old files are pruned
+     */
+    @Test
+    public void testParseWithManifest() throws Exception {
+        writeFiles();
+        App.WINDOWS = new long[] { App.LOOKBACK_WINDOW, 2 * App.LOOKBACK_WINDOW };
+        DeviceRegistry expected = createDevices();
+        long expectedTime = App.parseObservationsCSVs(expected, folder.getRoot().getPath());
+
+        App.MANIFEST_FILE_PATH = folder.getRoot().toPath().resolve("observations.manifest").toString();
+        for (int run = 0; run < 2; run++) {
+            Metrics.reset();
+            Metrics.enable();
+            DeviceRegistry actual = createDevices();
+            assertEquals(expectedTime, App.parseObservationsCSVs(actual, folder.getRoot().getPath()));
+            assertEquals(run == 0 ? 0 : 1, Metrics.getCounter("manifest.skipped"));
+            for (Device device : expected.values()) {
+                for (long window : App.WINDOWS) {
+                    Device other = actual.get(device.getDeviceID());
+                    assertEquals(device.getWindowSummarySince(expectedTime - window, App.THRESHOLD), other.getWindowSummarySince(expectedTime - window, App.THRESHOLD));
+                }
+            }
+        }
+        Metrics.reset();
+    }
+
+    /**
+     * Creates a registry of the devices used by the test CSVs
+     *
+     * @return The registry of devices
+     */
+    private static DeviceRegistry createDevices() {
+        DeviceRegistry devices = new DeviceRegistry();
+        devices.add(1, "Device1", "Location1");
+        devices.add(2, "Device2", "Location2");
+        return devices;
+    }
+}
@@ -0,0 +1,165 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the ObservationPipeline class
+ *
+ * @see ObservationPipeline
+ */
+public class ObservationPipelineTest {
+
+    /**
+     * Temporary folder for test CSVs
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Discards any recorded metrics
+     */
+    @After
+    public void tearDown() {
+        Metrics.reset();
+    }
+
+    /**
+     * Writes a test CSV of random rows (including rows that cannot be parsed and CRLF line endings)
+     *
+     * @param name The file name
+     * @param seed The random seed
+     * @param rows The number of rows
+     * @param extra A row inserted in the middle of the file (null for none)
+     * @return The CSV file
+     */
+    private File write(String name, long seed, int rows, String extra) throws Exception {
+        Random random = new Random(seed);
+        StringBuilder content = new StringBuilder("Device ID,Time,Rainfall\r\n");
+        for (int i = 0; i < rows; i++) {
+            if (extra != null && i == rows / 2) { content.append(extra); }
+            content.append(random.nextInt(20) == 0 ? "x" : String.valueOf(random.nextInt(50))).append(',');
+            content.append(1 + random.nextInt(28)).append("/06/2020 ").append(random.nextInt(24)).append(':').append(10 + random.nextInt(50)).append(',');
+            content.append(random.nextInt(40)).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        File file = new File(folder.getRoot(), name);
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        if (App.isCompressed(name)) {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath()))) {
+                out.write(bytes);
+            }
+        } else {
+            Files.write(file.toPath(), bytes);
+        }
+        return file;
+    }
+
+    /**
+     * Creates a registry of the devices used by the test CSVs
+     *
+     * @return The registry of devices
+     */
+    private static DeviceRegistry createDevices() {
+        DeviceRegistry devices = new DeviceRegistry();
+        for (int i = 0; i < 50; i++) {
+            devices.add(i, "Device" + i, "Location" + (i % 5));
+        }
+        return devices;
+    }
+
+    /**
+     * Asserts that two sets of devices hold the same observations
+     *
+     * @param expected The expected devices
+     * @param actual The actual devices
+     */
+    private static void assertDevicesEqual(DeviceRegistry expected, DeviceRegistry actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Device device : expected.values()) {
+            Device other = actual.get(device.getDeviceID());
+            assertNotNull(other);
+            assertEquals(device.getNumObservations(), other.getNumObservations());
+            assertEquals(device.getWindowSummarySince(Long.MIN_VALUE, 30), other.getWindowSummarySince(Long.MIN_VALUE, 30));
+            assertEquals(device.getChangeInRainfallSince(Long.MIN_VALUE), other.getChangeInRainfallSince(Long.MIN_VALUE), 0.0);
+        }
+    }
+
+    /**
+     * Loads the files sequentially and through the pipeline, for several block sizes and numbers of
+     * parser threads, and checks the results match
+     *
+     * @param files The observations CSVs
+     */
+    private static void assertMatchesSequential(File[] files) throws Exception {
+        DeviceRegistry expected = createDevices();
+        long expectedTime = Long.MIN_VALUE;
+        for (File file : files) {
+            expectedTime = App.applyBatch(expected, App.readObservationsCSV(file.getPath()), expectedTime);
+        }
+
+        for (int blockSize = 16; blockSize <= 1 << 16; blockSize *= 32) {
+            for (int numParsers = 1; numParsers <= 4; numParsers += 3) {
+                DeviceRegistry actual = createDevices();
+                long actualTime = new ObservationPipeline(actual, files, null, null, numParsers, false, blockSize).run();
+                assertEquals(expectedTime, actualTime);
+                assertDevicesEqual(expected, actual);
+            }
+        }
+    }
+
+    /**
+     * Tests that the pipeline adds the same observations as a sequential parse
+     */
+    @Test
+    public void testMatchesSequential() throws Exception {
+        assertMatchesSequential(new File[] { write("Data1.csv", 1, 3000, null), write("Data2.csv", 2, 0, null), write("Data3.csv", 3, 2000, null) });
+    }
+
+    /**
+     * Tests that the rest of a file with a block the row parser does not support is parsed with Commons
+     * CSV, for plain and compressed files
+     */
+    @Test
+    public void testUnsupportedFallsBack() throws Exception {
+        String quoted = "\"7\",5/06/2020 9:00,\"12\"\n";
+        assertMatchesSequential(new File[] { write("Data1.csv", 1, 2000, quoted), write("Data2.csv.gz", 2, 2000, quoted), write("Data3.csv", 3, 500, null) });
+    }
+
+    /**
+     * Tests that compressed files are read through the pipeline
+     */
+    @Test
+    public void testCompressed() throws Exception {
+        assertMatchesSequential(new File[] { write("Data1.csv.gz", 1, 3000, null), write("Data2.csv", 2, 1000, null) });
+    }
+
+    /**
+     * Tests that the statistics of each stage are recorded
+     */
+    @Test
+    public void testStageMetrics() throws Exception {
+        Metrics.enable();
+        File file = write("Data1.csv", 1, 1000, null);
+        new ObservationPipeline(createDevices(), new File[] { file }, null, null, 2, false, 1024).run();
+
+        assertEquals(1000, Metrics.getCounter("rows.parsed"));
+        String json = Metrics.toJSON();
+        assertTrue(json, json.contains("{\"stage\": \"read\", \"threads\": 1, \"blocks\": "));
+        assertTrue(json, json.contains("{\"stage\": \"parse\", \"threads\": 2, \"blocks\": "));
+        assertTrue(json, json.contains("{\"stage\": \"apply\", \"threads\": 1, \"blocks\": "));
+        assertTrue(json, json.contains("\"rows\": 1000, \"bytes\": " + file.length()));
+    }
+}
@@ -0,0 +1,137 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ObservationRollup class
+ *
+ * @see ObservationRollup
+ */
+public class ObservationRollupTest {
+
+    /**
+     * Start of the test observations
+     */
+    private static final long START = 1591315200000L;
+
+    /**
+     * Span of the test observations
+     */
+    private static final long SPAN = TimeUnit.DAYS.toMillis(40);
+
+    /**
+     * Adds the same random observations (partly out of order, with repeated times) to two devices
+     *
+     * @param random The random generator
+     * @param plain The device without rollups
+     * @param rolledUp The device with rollups
+     * @param count The number of observations
+     */
+    private static void addObservations(Random random, Device plain, Device rolledUp, int count) {
+        long time = START;
+        for (int i = 0; i < count; i++) {
+            long observationTime = random.nextInt(10) == 0 ? START + (long) (random.nextDouble() * SPAN) : time;
+            int rainfall = random.nextInt(60);
+            plain.addObservation(observationTime, rainfall);
+            rolledUp.addObservation(observationTime, rainfall);
+            if (random.nextInt(4) != 0) { time += random.nextInt((int) TimeUnit.MINUTES.toMillis(20)); }
+        }
+    }
+
+    /**
+     * Tests that range queries combining buckets match scanning the raw observations
+     */
+    @Test
+    public void testMatchesRaw() {
+        Random random = new Random(42);
+        Device plain = new Device(1, "Device1", "Location1");
+        Device rolledUp = new Device(1, "Device1", "Location1");
+        rolledUp.enableRollups();
+        addObservations(random, plain, rolledUp, 5000);
+
+        for (int i = 0; i < 2000; i++) {
+            // Random ranges, some on bucket edges
+            long from = START - TimeUnit.DAYS.toMillis(1) + (long) (random.nextDouble() * (SPAN + TimeUnit.DAYS.toMillis(2)));
+            long to = from + (long) (random.nextDouble() * SPAN);
+            if (i % 4 == 0) { from = ObservationRollup.floorTo(from, ObservationRollup.BUCKET_SIZES[i % 3]); }
+            if (i % 5 == 0) { to = ObservationRollup.floorTo(to, ObservationRollup.BUCKET_SIZES[i % 3]); }
+            assertEquals(plain.getWindowSummaryBetween(from, to, 30), rolledUp.getWindowSummaryBetween(from, to, 30));
+        }
+
+        // Window queries up to the latest observation
+        for (long window = TimeUnit.HOURS.toMillis(1); window < SPAN; window *= 2) {
+            long since = START + SPAN - window;
+            assertEquals(plain.getWindowSummarySince(since, 30), rolledUp.getWindowSummarySince(since, 30));
+            assertEquals(plain.getAverageRainfallSince(since), rolledUp.getAverageRainfallSince(since), 1e-9);
+            assertEquals(plain.getChangeInRainfallSince(since), rolledUp.getChangeInRainfallSince(since), 0.0);
+            assertEquals(plain.isObservationsExceedingThresholdSince(50, since), rolledUp.isObservationsExceedingThresholdSince(50, since));
+        }
+        assertEquals(plain.getWindowSummarySince(Long.MIN_VALUE, 30), rolledUp.getWindowSummarySince(Long.MIN_VALUE, 30));
+    }
+
+    /**
+     * Tests that rollups enabled after observations are added include them
+     */
+    @Test
+    public void testEnableAfterAdding() {
+        Device device = new Device(1, "Device1", "Location1");
+        device.addObservation(START + 1000, 5);
+        device.addObservation(START + TimeUnit.DAYS.toMillis(2), 7);
+        WindowSummary expected = device.getWindowSummarySince(START, 30);
+        device.enableRollups();
+        assertEquals(expected, device.getWindowSummarySince(START, 30));
+        device.addObservation(START + TimeUnit.DAYS.toMillis(1), 40);
+        assertEquals(new WindowSummary(3, 52, 40, 5, 7, true), device.getWindowSummarySince(START, 30));
+    }
+
+    /**
+     * Tests that the rollups keep observations older than the retention bound, and that range edges
+     * before the bound are widened to whole 5 minute buckets
+     */
+    @Test
+    public void testRawRetention() {
+        Random random = new Random(7);
+        Device plain = new Device(1, "Device1", "Location1");
+        Device rolledUp = new Device(1, "Device1", "Location1");
+        rolledUp.enableRollups();
+        long bound = START + SPAN / 2;
+        rolledUp.setRetentionBound(bound);
+        addObservations(random, plain, rolledUp, 5000);
+        rolledUp.compact();
+        assertTrue(rolledUp.getNumObservations() < plain.getNumObservations());
+
+        long fiveMinutes = ObservationRollup.BUCKET_SIZES[0];
+        for (int i = 0; i < 500; i++) {
+            long from = START + (long) (random.nextDouble() * SPAN);
+            long to = from + (long) (random.nextDouble() * SPAN);
+            long expectedFrom = from < bound ? ObservationRollup.floorTo(from, fiveMinutes) : from;
+            long expectedTo = ObservationRollup.floorTo(to, fiveMinutes) < bound ? ObservationRollup.ceilTo(to, fiveMinutes) : to;
+            assertEquals(plain.getWindowSummaryBetween(expectedFrom, expectedTo, 30), rolledUp.getWindowSummaryBetween(from, to, 30));
+        }
+    }
+
+    /**
+     * Tests that observations at a bucket edge belong to the bucket ending at that time
+     */
+    @Test
+    public void testBucketEdges() {
+        long hour = ObservationRollup.BUCKET_SIZES[1];
+        long edge = ObservationRollup.floorTo(START, hour);
+        Device device = new Device(1, "Device1", "Location1");
+        device.enableRollups();
+        device.addObservation(edge, 1);
+        device.addObservation(edge + 1, 2);
+        device.addObservation(edge + hour, 3);
+        device.addObservation(edge + hour, 4);
+
+        assertEquals(new WindowSummary(3, 9, 4, 2, 4, false), device.getWindowSummaryBetween(edge, edge + hour, 30));
+        assertEquals(new WindowSummary(1, 1, 1, 1, 1, false), device.getWindowSummaryBetween(edge - hour, edge, 30));
+        assertEquals(new WindowSummary(0, 0, 0, 0, 0, false), device.getWindowSummaryBetween(edge + hour, edge + 2 * hour, 30));
+    }
+}
@@ -0,0 +1,163 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the ObservationServer class
+ *
+ * @see ObservationServer
+ */
+public class ObservationServerTest {
+
+    /**
+     * Sample data directory
+     */
+    private static final String DATA_DIR = "./data";
+
+    /**
+     * Registry of devices served
+     */
+    private DeviceRegistry devices;
+
+    /**
+     * The server (listening on a free port)
+     */
+    private ObservationServer server;
+
+    /**
+     * Loads the sample data and starts the server
+     */
+    @Before
+    public void setUp() throws Exception {
+        devices = new DeviceRegistry();
+        App.parseDevicesCSV(devices, DATA_DIR + "/" + App.DEVICE_CSV_FILE_NAME);
+        long currentTime = App.parseObservationsCSVs(devices, DATA_DIR);
+        server = new ObservationServer(devices, currentTime, 1);
+        server.start(0);
+    }
+
+    /**
+     * Stops the server
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Sends a request to the server
+     *
+     * @param method The request method
+     * @param path The request path
+     * @param body The request body (null for none)
+     * @return The status code followed by the response body
+     */
+    private String request(String method, String path, String body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) >= 0; ) {
+                response.write(buffer, 0, read);
+            }
+        }
+        return status + " " + new String(response.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders the JSON lines report of the devices
+     *
+     * @param currentTime The current time
+     * @return The report
+     */
+    private String report(long currentTime) throws Exception {
+        StringWriter writer = new StringWriter();
+        App.writeReport(devices, currentTime, new JsonLinesReportRenderer(writer, App.WINDOWS, App.THRESHOLDS));
+        return writer.toString();
+    }
+
+    /**
+     * Tests that the device endpoints match the JSON lines report
+     */
+    @Test
+    public void testDevices() throws Exception {
+        String report = report(server.getCurrentTime());
+        assertEquals("200 " + report, request("GET", "/devices", null));
+
+        // A single device is the matching line of the report
+        String line = report.substring(0, report.indexOf('\n') + 1);
+        int id = Integer.parseInt(line.substring("{\"deviceID\":".length(), line.indexOf(',')));
+        assertEquals("200 " + line, request("GET", "/devices/" + id, null));
+
+        // Unknown and invalid devices
+        assertEquals("404 {\"error\":\"Unknown device ID 999999\"}\n", request("GET", "/devices/999999", null));
+        assertEquals("400 {\"error\":\"Invalid device ID abc\"}\n", request("GET", "/devices/abc", null));
+        assertTrue(request("POST", "/devices", "").startsWith("405 "));
+    }
+
+    /**
+     * Tests that the fleet summary totals the device summaries
+     */
+    @Test
+    public void testFleet() throws Exception {
+        long observations = 0;
+        for (Device device : devices.values()) {
+            observations += device.getWindowSummarySince(server.getCurrentTime() - App.LOOKBACK_WINDOW, App.THRESHOLD).getCount();
+        }
+        String fleet = request("GET", "/fleet", null);
+        assertTrue(fleet, fleet.startsWith("200 {\"currentTime\":" + server.getCurrentTime() + ",\"devices\":" + devices.size() + ",\"windows\":[{\"windowMinutes\":240,\"observations\":" + observations + ","));
+    }
+
+    /**
+     * Tests that ingested rows are added to the devices and published to the queries
+     */
+    @Test
+    public void testIngest() throws Exception {
+        Device device = devices.values().get(0);
+        long currentTime = server.getCurrentTime();
+
+        // A row before the current time only changes its device
+        String response = request("POST", "/ingest", "Device ID,Time,Rainfall\n" + device.getDeviceID() + ",5/06/2020 9:30,40\nx,1/06/2020 0:00,1\n");
+        assertEquals("200 {\"records\":2,\"errors\":1,\"currentTime\":" + currentTime + "}\n", response);
+        assertEquals("200 " + report(currentTime), request("GET", "/devices", null));
+
+        // A later row moves the windows of every device
+        String time = "9/06/2020 9:00";
+        long ingestTime = App.TIMESTAMP_DECODER.decode(time);
+        assertTrue(ingestTime > currentTime);
+        response = request("POST", "/ingest", "Device ID,Time,Rainfall\n" + device.getDeviceID() + "," + time + ",99\n");
+        assertEquals("200 {\"records\":1,\"errors\":0,\"currentTime\":" + ingestTime + "}\n", response);
+        assertEquals(ingestTime, server.getCurrentTime());
+        assertEquals("200 " + report(ingestTime), request("GET", "/devices", null));
+
+        // A batch with an unknown device is rejected without adding anything
+        int observations = device.getNumObservations();
+        response = request("POST", "/ingest", "Device ID,Time,Rainfall\n" + device.getDeviceID() + "," + time + ",5\n999999," + time + ",5\n");
+        assertEquals("400 {\"error\":\"Unknown device ID 999999\"}\n", response);
+        assertEquals(observations, device.getNumObservations());
+
+        // Ingests must be posted
+        assertTrue(request("GET", "/ingest", null).startsWith("405 "));
+    }
+}
@@ -0,0 +1,133 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the ObservationSnapshot class
+ * 
+ * @see ObservationSnapshot
+ */
+public class ObservationSnapshotTest {
+
+    /**
+     * Temporary folder for test CSVs and snapshots
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes text to a file
+     *
+     * @param file The file
+     * @param text The text to write
+     */
+    private static void write(File file, String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Asserts that two batches contain the same observations in the same order for each device
+     *
+     * @param expected The expected batch
+     * @param actual The actual batch
+     */
+    private static void assertBatchEquals(ObservationBatch expected, ObservationBatch actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getCurrentTime(), actual.getCurrentTime());
+        assertEquals(expected.getNumRecords(), actual.getNumRecords());
+        assertEquals(expected.getNumErrors(), actual.getNumErrors());
+
+        // The snapshot groups observations by device, so compare the order within each device
+        for (int deviceID = 1; deviceID <= 3; deviceID++) {
+            StringBuilder expectedRows = new StringBuilder();
+            StringBuilder actualRows = new StringBuilder();
+            for (int i = 0; i < expected.size(); i++) {
+                if (expected.getDeviceID(i) == deviceID) { expectedRows.append(expected.getObservationTime(i)).append(':').append(expected.getRainfall(i)).append(','); }
+                if (actual.getDeviceID(i) == deviceID) { actualRows.append(actual.getObservationTime(i)).append(':').append(actual.getRainfall(i)).append(','); }
+            }
+            assertEquals(expectedRows.toString(), actualRows.toString());
+        }
+    }
+
+    /**
+     * Tests that unchanged files are loaded from the snapshot and changed files are not
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        File data1 = folder.newFile("Data1.csv");
+        File data2 = folder.newFile("Data2.csv");
+        write(data1, "Device ID,Time,Rainfall\n1,5/06/2020 9:00,10\n2,5/06/2020 9:00,20\n1,5/06/2020 8:30,5\nX,5/06/2020 9:00,1\n");
+        write(data2, "Device ID,Time,Rainfall\n3,5/06/2020 10:00,30\n");
+        Path path = folder.getRoot().toPath().resolve("observations.snapshot");
+
+        // Nothing is loaded from a missing snapshot
+        ObservationSnapshot snapshot = ObservationSnapshot.open(path);
+        assertNull(snapshot.load(data1));
+        ObservationBatch batch1 = App.readObservationsCSV(data1.getPath());
+        batch1.setSourceStamp(data1.length(), data1.lastModified());
+        ObservationBatch batch2 = App.readObservationsCSV(data2.getPath());
+        batch2.setSourceStamp(data2.length(), data2.lastModified());
+        snapshot.record(data1, batch1);
+        snapshot.record(data2, batch2);
+        snapshot.close();
+
+        // Unchanged files are loaded from the snapshot
+        snapshot = ObservationSnapshot.open(path);
+        assertEquals(2, snapshot.getNumEntries());
+        ObservationBatch loaded = snapshot.load(data1);
+        assertNotNull(loaded);
+        assertBatchEquals(batch1, loaded);
+        assertEquals(1, loaded.getNumErrors());
+
+        // Changed files are parsed again
+        write(data2, "Device ID,Time,Rainfall\n3,5/06/2020 10:00,30\n3,5/06/2020 11:00,40\n");
+        assertTrue(data2.setLastModified(data2.lastModified() + 1000));
+        assertNull(snapshot.load(data2));
+        snapshot.record(data1, loaded);
+        snapshot.abort();
+
+        // An aborted snapshot leaves the previous snapshot in place
+        snapshot = ObservationSnapshot.open(path);
+        assertEquals(2, snapshot.getNumEntries());
+        assertNotNull(snapshot.load(data1));
+        assertNull(snapshot.load(data2));
+        snapshot.abort();
+    }
+
+    /**
+     * Tests that loading the directory with a snapshot gives the same results as without one
+     */
+    @Test
+    public void testParseWithSnapshot() throws Exception {
+        write(folder.newFile("Data1.csv"), "Device ID,Time,Rainfall\n1,5/06/2020 9:00,10\n2,5/06/2020 9:00,20\n");
+        write(folder.newFile("Data2.csv"), "Device ID,Time,Rainfall\n1,5/06/2020 10:00,35\n");
+        String snapshotPath = App.SNAPSHOT_FILE_PATH;
+        try {
+            App.SNAPSHOT_FILE_PATH = new File(folder.getRoot(), "observations.snapshot").getPath();
+            for (int run = 0; run < 2; run++) {
+                DeviceRegistry devices = new DeviceRegistry();
+                devices.add(1, "Device1", "Location1");
+                devices.add(2, "Device2", "Location2");
+                long currentTime = App.parseObservationsCSVs(devices, folder.getRoot().getPath());
+                assertEquals(App.TIMESTAMP_DECODER.decode("5/06/2020 10:00"), currentTime);
+                assertEquals(2, devices.get(1).getNumObservations());
+                assertEquals(22.5, devices.get(1).getAverageRainfallSince(Long.MIN_VALUE), 0);
+                assertTrue(devices.get(1).isObservationsExceedingThresholdSince(30, Long.MIN_VALUE));
+            }
+        } finally {
+            App.SNAPSHOT_FILE_PATH = snapshotPath;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the ObservationWatcher class
+ * 
+ * @see ObservationWatcher
+ */
+public class ObservationWatcherTest {
+
+    /**
+     * Temporary folder for test CSVs
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Compresses text into a gzip stream
+     *
+     * @param text The text
+     * @return The compressed bytes
+     */
+    private static byte[] compress(String text) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Appends text to a file
+     *
+     * @param file The file
+     * @param text The text to append
+     */
+    private static void append(File file, String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Tests that appended rows are read incrementally
+     */
+    @Test
+    public void testReadAppended() throws Exception {
+        DeviceRegistry devices = new DeviceRegistry();
+        devices.add(1, "Device1", "Location1");
+        devices.add(2, "Device2", "Location2");
+        ObservationWatcher watcher = new ObservationWatcher(devices, folder.getRoot().toPath(), 1);
+        File file = new File(folder.getRoot(), "Data.csv");
+
+        // Partial header
+        append(file, "Device ID,Ti");
+        assertEquals(0, watcher.loadAll());
+
+        // Complete rows are read and a partial row is left until it is complete
+        append(file, "me,Rainfall\n1,5/06/2020 9:00,10\n2,5/06/2020 9:00,20\n1,5/06/20");
+        assertEquals(2, watcher.loadAll());
+        assertEquals(0, watcher.loadAll());
+        append(file, "20 9:30,30\r\n");
+        assertEquals(1, watcher.readAppended(file.toPath()));
+        assertEquals(2, devices.get(1).getNumObservations());
+
+        // Rows that need Commons CSV are still read once
+        append(file, "\"2\",5/06/2020 10:00,40\n");
+        assertEquals(1, watcher.readAppended(file.toPath()));
+        assertEquals(0, watcher.readAppended(file.toPath()));
+
+        // New files are read
+        append(new File(folder.getRoot(), "Data2.csv"), "Device ID,Time,Rainfall\n2,5/06/2020 11:00,50\n");
+        assertEquals(1, watcher.loadAll());
+
+        // The results match parsing the files from scratch
+        DeviceRegistry expected = new DeviceRegistry();
+        expected.add(1, "Device1", "Location1");
+        expected.add(2, "Device2", "Location2");
+        long currentTime = App.parseObservationsCSVs(expected, folder.getRoot().getPath());
+        assertEquals(currentTime, watcher.getCurrentTime());
+        for (Device device : expected.values()) {
+            assertEquals(device.getWindowSummarySince(Long.MIN_VALUE, 30), devices.get(device.getDeviceID()).getWindowSummarySince(Long.MIN_VALUE, 30));
+        }
+    }
+
+    /**
+     * Tests that compressed files are read once their compressed stream is complete, that only the new
+     * observations of a grown file are added, and that a rewritten file is not added twice
+     */
+    @Test
+    public void testReadCompressed() throws Exception {
+        DeviceRegistry devices = new DeviceRegistry();
+        devices.add(1, "Device1", "Location1");
+        devices.add(2, "Device2", "Location2");
+        ObservationWatcher watcher = new ObservationWatcher(devices, folder.getRoot().toPath(), 1);
+        append(new File(folder.getRoot(), "Data.csv"), "Device ID,Time,Rainfall\n1,5/06/2020 9:00,10\n");
+
+        // Compress the export
+        byte[] compressed = compress("Device ID,Time,Rainfall\n2,5/06/2020 9:30,20\n1,5/06/2020 10:00,30\n");
+        File file = new File(folder.getRoot(), "Data2.csv.gz");
+
+        // A partly written file is left until it is complete
+        Files.write(file.toPath(), Arrays.copyOf(compressed, compressed.length / 2));
+        assertEquals(1, watcher.loadAll());
+        Files.write(file.toPath(), compressed);
+        assertEquals(2, watcher.readAppended(file.toPath()));
+        assertEquals(0, watcher.loadAll());
+
+        // Only the rows of an appended gzip member are added
+        Files.write(file.toPath(), compress("2,5/06/2020 10:30,40\n"), StandardOpenOption.APPEND);
+        assertEquals(1, watcher.readAppended(file.toPath()));
+        assertEquals(2, devices.get(2).getNumObservations());
+
+        // The results match parsing the files from scratch
+        DeviceRegistry expected = new DeviceRegistry();
+        expected.add(1, "Device1", "Location1");
+        expected.add(2, "Device2", "Location2");
+        long currentTime = App.parseObservationsCSVs(expected, folder.getRoot().getPath());
+        assertEquals(currentTime, watcher.getCurrentTime());
+        for (Device device : expected.values()) {
+            assertEquals(device.getWindowSummarySince(Long.MIN_VALUE, 30), devices.get(device.getDeviceID()).getWindowSummarySince(Long.MIN_VALUE, 30));
+        }
+
+        // A file rewritten with different earlier rows is skipped
+        Files.write(file.toPath(), compress("Device ID,Time,Rainfall\n2,5/06/2020 9:45,25\n1,5/06/2020 10:00,30\n2,5/06/2020 11:00,50\n"));
+        assertEquals(0, watcher.readAppended(file.toPath()));
+        assertEquals(2, devices.get(2).getNumObservations());
+    }
+}
@@ -0,0 +1,122 @@
+package interfuze;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the OffHeapObservationStore class
+ *
+ * @see OffHeapObservationStore
+ */
+public class OffHeapObservationStoreTest {
+
+    /**
+     * Start of the test observations
+     */
+    private static final long START = 1591315200000L;
+
+    /**
+     * Tests that freed blocks are reused and the capacity is enforced
+     */
+    @Test
+    public void testAllocate() {
+        OffHeapObservationStore store = new OffHeapObservationStore(64 * OffHeapObservationStore.RECORD_SIZE);
+        long first = store.allocate(16);
+        long second = store.allocate(32);
+        assertEquals(48 * OffHeapObservationStore.RECORD_SIZE, store.getUsedBytes());
+        store.set(first, 15, START, 7);
+        assertEquals(START, store.getTime(first, 15));
+        assertEquals(7, store.getRainfall(first, 15));
+
+        // A freed block is reused for the same size
+        store.free(first, 16);
+        assertEquals(first, store.allocate(16));
+
+        // The store is full once the capacity is used
+        store.allocate(16);
+        try {
+            store.allocate(16);
+            fail("Expected the store to be full");
+        } catch (OutOfMemoryError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Off-heap observation store is full (capacity 768 bytes"));
+        }
+
+        // Growing a block keeps its records
+        store.free(second, 32);
+        store.set(first, 0, START + 1, 3);
+        long grown = store.reallocate(first, 16, 32, 1);
+        assertEquals(START + 1, store.getTime(grown, 0));
+        assertEquals(3, store.getRainfall(grown, 0));
+    }
+
+    /**
+     * Tests that sorting a block keeps the order of records with the same time
+     */
+    @Test
+    public void testSort() {
+        OffHeapObservationStore store = new OffHeapObservationStore(1 << 20);
+        long block = store.allocate(16);
+        long[] times = { 5, 3, 5, 1, 3, 9, 0, 5, 2 };
+        for (int i = 0; i < times.length; i++) {
+            store.set(block, i, times[i], i);
+        }
+        block = store.sort(block, 16, times.length);
+
+        long[] sortedTimes = new long[times.length];
+        int[] sortedRainfalls = new int[times.length];
+        for (int i = 0; i < times.length; i++) {
+            sortedTimes[i] = store.getTime(block, i);
+            sortedRainfalls[i] = store.getRainfall(block, i);
+        }
+        assertArrayEquals(new long[] { 0, 1, 2, 3, 3, 5, 5, 5, 9 }, sortedTimes);
+        assertArrayEquals(new int[] { 6, 3, 8, 1, 4, 0, 2, 7, 5 }, sortedRainfalls);
+        assertEquals(16 * OffHeapObservationStore.RECORD_SIZE, store.getUsedBytes());
+    }
+
+    /**
+     * Tests that a device storing its observations off-heap gives the same summaries as one storing them
+     * on the heap, including out of order observations and discarded observations
+     */
+    @Test
+    public void testDeviceMatchesHeap() {
+        OffHeapObservationStore store = new OffHeapObservationStore(1 << 20);
+        Random random = new Random(3);
+        Device heap = new Device(1, "Device1", "Location1");
+        Device offHeap = new Device(1, "Device1", "Location1");
+
+        // Observations added before and after moving off-heap
+        for (int i = 0; i < 3000; i++) {
+            if (i == 10) { offHeap.enableOffHeap(store); }
+            if (i == 2000) {
+                heap.setRetentionBound(START + TimeUnit.HOURS.toMillis(20));
+                offHeap.setRetentionBound(START + TimeUnit.HOURS.toMillis(20));
+            }
+            long time = START + (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(2));
+            int rainfall = random.nextInt(50);
+            heap.addObservation(time, rainfall);
+            offHeap.addObservation(time, rainfall);
+
+            // Query part way through so later observations are added after a sort
+            if (i % 700 == 0) { assertEquals(heap.getWindowSummarySince(START, 30), offHeap.getWindowSummarySince(START, 30)); }
+        }
+        heap.compact();
+        offHeap.compact();
+        assertEquals(heap.getNumObservations(), offHeap.getNumObservations());
+
+        long[] times = new long[8];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = START + i * TimeUnit.HOURS.toMillis(6);
+            assertEquals(heap.getAverageRainfallSince(times[i]), offHeap.getAverageRainfallSince(times[i]), 0.0);
+            assertEquals(heap.getChangeInRainfallSince(times[i]), offHeap.getChangeInRainfallSince(times[i]), 0.0);
+            assertEquals(heap.isObservationsExceedingThresholdSince(45, times[i]), offHeap.isObservationsExceedingThresholdSince(45, times[i]));
+        }
+        assertArrayEquals(heap.getWindowSummariesSince(times, 30), offHeap.getWindowSummariesSince(times, 30));
+    }
+}
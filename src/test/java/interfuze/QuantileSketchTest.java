@@ -0,0 +1,196 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the QuantileSketch class
+ *
+ * @see QuantileSketch
+ */
+public class QuantileSketchTest {
+
+    /**
+     * Largest allowed difference between the requested rank and the rank of the estimated amount
+     */
+    private static final double RANK_ERROR = 0.02;
+
+    /**
+     * Generates skewed amounts (mostly small, with a long tail)
+     *
+     * @param random The random generator
+     * @param count The number of amounts
+     * @return The amounts
+     */
+    private static int[] generate(Random random, int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (int) (-Math.log(1 - random.nextDouble()) * 1000);
+        }
+        return values;
+    }
+
+    /**
+     * Asserts that the sketch's quantiles are within the rank error of the exact quantiles
+     *
+     * @param sorted The amounts added to the sketch, sorted
+     * @param sketch The sketch
+     */
+    private static void assertAccurate(int[] sorted, QuantileSketch sketch) {
+        assertEquals(sorted.length, sketch.getCount());
+        assertEquals(sorted[0], sketch.getQuantile(0));
+        assertEquals(sorted[sorted.length - 1], sketch.getQuantile(1));
+        for (double quantile = 0.01; quantile < 1; quantile += 0.01) {
+            // The exact ranks of the estimate (an interval, as amounts repeat)
+            int estimate = sketch.getQuantile(quantile);
+            double below = (double) lowerBound(sorted, estimate) / sorted.length;
+            double atOrBelow = (double) lowerBound(sorted, estimate + 1) / sorted.length;
+            assertTrue("Quantile " + quantile + " estimated as " + estimate + " with rank " + below + " to " + atOrBelow,
+                    quantile >= below - RANK_ERROR && quantile <= atOrBelow + RANK_ERROR);
+            assertEquals(atOrBelow, sketch.getRank(estimate), RANK_ERROR);
+        }
+    }
+
+    /**
+     * Finds the number of sorted amounts less than an amount
+     *
+     * @param sorted The sorted amounts
+     * @param value The amount
+     * @return The number of amounts less than the amount
+     */
+    private static int lowerBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Tests the accuracy of a sketch of many amounts, and that its memory stays bounded
+     */
+    @Test
+    public void testAccuracy() {
+        int[] values = generate(new Random(1), 500000);
+        QuantileSketch sketch = new QuantileSketch();
+        int maxRetained = 0;
+        for (int value : values) {
+            sketch.update(value);
+            maxRetained = Math.max(maxRetained, sketch.getNumRetained());
+        }
+        assertTrue("Retained " + maxRetained, maxRetained < 4 * QuantileSketch.DEFAULT_K);
+
+        Arrays.sort(values);
+        assertAccurate(values, sketch);
+    }
+
+    /**
+     * Tests the accuracy of sketches merged from many smaller sketches (e.g. the devices of a fleet)
+     */
+    @Test
+    public void testMerge() {
+        Random random = new Random(2);
+        List<int[]> parts = new ArrayList<>();
+        QuantileSketch merged = new QuantileSketch();
+        int total = 0;
+        for (int i = 0; i < 200; i++) {
+            int[] values = generate(random, random.nextInt(5000));
+            QuantileSketch sketch = new QuantileSketch();
+            for (int value : values) {
+                sketch.update(value + i * 10);
+            }
+            merged.merge(sketch);
+            for (int j = 0; j < values.length; j++) {
+                values[j] += i * 10;
+            }
+            parts.add(values);
+            total += values.length;
+        }
+
+        int[] all = new int[total];
+        int n = 0;
+        for (int[] values : parts) {
+            System.arraycopy(values, 0, all, n, values.length);
+            n += values.length;
+        }
+        Arrays.sort(all);
+        assertAccurate(all, merged);
+    }
+
+    /**
+     * Tests that small sketches are exact
+     */
+    @Test
+    public void testExact() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(sketch.isEmpty());
+        for (int value = 1; value <= 100; value++) {
+            sketch.update(value);
+        }
+        assertEquals(50, sketch.getQuantile(0.5));
+        assertEquals(95, sketch.getQuantile(0.95));
+        assertEquals(0.25, sketch.getRank(25), 0.0);
+    }
+
+    /**
+     * Tests that a device's sketch includes the observations added before it was enabled and those
+     * discarded by the retention bound, and that the window sketch only includes the window
+     */
+    @Test
+    public void testDevice() {
+        Device device = new Device(1, "Device1", "Location1");
+        device.addObservation(1000, 5);
+        device.enableQuantileSketch();
+        device.setRetentionBound(2000);
+        device.addObservation(1500, 40);
+        device.addObservation(3000, 10);
+        device.addObservation(4000, 20);
+
+        assertEquals(4, device.getQuantileSketch().getCount());
+        assertEquals(40, device.getQuantileSketch().getQuantile(1));
+        QuantileSketch window = device.getQuantileSketchSince(3000);
+        assertEquals(1, window.getCount());
+        assertEquals(20, window.getQuantile(0.5));
+    }
+
+    /**
+     * Tests the tables of percentiles for each device and each location
+     */
+    @Test
+    public void testReport() throws Exception {
+        // Devices added out of ID order (the report is in order of device ID)
+        DeviceRegistry devices = new DeviceRegistry();
+        for (int id : new int[] { 3, 1, 4, 2 }) {
+            Device device = devices.add(id, "Device" + id, id <= 2 ? "North" : "South");
+            device.enableQuantileSketch();
+            for (int i = 1; i <= 10; i++) {
+                device.addObservation(i * 1000L, id * 10 + i);
+            }
+        }
+
+        StringWriter writer = new StringWriter();
+        new QuantileReport(new double[] { 50, 99.5 }, new String[] { "4 hrs" }).write(writer, ReportAggregator.sortByDeviceID(devices.values()), new long[] { 5000 });
+        String[] lines = writer.toString().split("\n");
+        assertEquals("| Device Name          | Device ID            | Location             | p50 (4 hrs)    | p99.5 (4 hrs)  | p50 (all)      | p99.5 (all)    |", lines[1]);
+        assertEquals("| Device1              | 1                    | North                | 18 mm          | 20 mm          | 15 mm          | 20 mm          |", lines[3]);
+        assertEquals("| Device4              | 4                    | South                | 48 mm          | 50 mm          | 45 mm          | 50 mm          |", lines[6]);
+        assertEquals("| Location             | Devices  | p50 (4 hrs)    | p99.5 (4 hrs)  | p50 (all)      | p99.5 (all)    |", lines[10]);
+        assertEquals("| North                | 2        | 20 mm          | 30 mm          | 20 mm          | 30 mm          |", lines[12]);
+        assertEquals("| South                | 2        | 40 mm          | 50 mm          | 40 mm          | 50 mm          |", lines[13]);
+        assertEquals("| All locations        | 4        | 30 mm          | 50 mm          | 30 mm          | 50 mm          |", lines[15]);
+    }
+}
@@ -0,0 +1,52 @@
+package interfuze;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ReportAggregator class
+ * 
+ * @see ReportAggregator
+ */
+public class ReportAggregatorTest {
+
+    /**
+     * Creates devices with random (out of order) observations
+     *
+     * @param seed The random seed
+     * @return The registry of devices
+     */
+    private static DeviceRegistry createDevices(long seed) {
+        Random random = new Random(seed);
+        DeviceRegistry devices = new DeviceRegistry();
+        for (int i = 0; i < 1000; i++) {
+            int deviceID = random.nextInt(1000000);
+            Device device = devices.add(deviceID, "Gauge " + i, "Location " + i);
+            for (int j = random.nextInt(50); j > 0; j--) {
+                device.addObservation(random.nextInt(1000), random.nextInt(40));
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Tests that the devices are summarised in order of device ID, and that a parallel summary matches a
+     * sequential summary
+     */
+    @Test
+    public void testParallelMatchesSequential() {
+        Device[] sequentialDevices = ReportAggregator.sortByDeviceID(createDevices(42).values());
+        Device[] parallelDevices = ReportAggregator.sortByDeviceID(createDevices(42).values());
+        for (int i = 1; i < sequentialDevices.length; i++) {
+            assertTrue(sequentialDevices[i - 1].getDeviceID() < sequentialDevices[i].getDeviceID());
+        }
+
+        WindowSummary[][] sequential = ReportAggregator.summarise(sequentialDevices, new long[] { 500, 200 }, 30, 1);
+        WindowSummary[][] parallel = ReportAggregator.summarise(parallelDevices, new long[] { 500, 200 }, 30, 4);
+        assertArrayEquals(sequential, parallel);
+    }
+}
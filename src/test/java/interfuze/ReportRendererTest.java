@@ -0,0 +1,107 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ReportRenderer implementations
+ * 
+ * @see TableReportRenderer
+ * @see CsvReportRenderer
+ * @see JsonLinesReportRenderer
+ */
+public class ReportRendererTest {
+
+    /**
+     * Formats a table row with String.format and DecimalFormat (as the report was originally printed)
+     *
+     * @param device The device
+     * @param summary The summary of the device
+     * @return The row
+     */
+    private static String formatTableRow(Device device, WindowSummary summary) {
+        DecimalFormat df = new DecimalFormat("#.##");
+        double averageRainfall = summary.getAverageRainfall();
+        String average;
+        if (summary.isExceedingThreshold()) {
+            average = App.ANSI_RED + df.format(averageRainfall) + App.ANSI_RESET + " mm " + App.ANSI_RED + "!!!" + App.ANSI_RESET;
+        } else if (averageRainfall < 10.0d) {
+            average = App.ANSI_GREEN + df.format(averageRainfall) + App.ANSI_RESET + " mm";
+        } else if (averageRainfall < 15.0d) {
+            average = App.ANSI_YELLOW + df.format(averageRainfall) + App.ANSI_RESET + " mm";
+        } else {
+            average = App.ANSI_RED + df.format(averageRainfall) + App.ANSI_RESET + " mm";
+        }
+        int outputAdjustment = 34 + (summary.isExceedingThreshold() ? 9 : 0);
+        return String.format("| %-20s | %-20s | %-20s | %-" + outputAdjustment + "s | %-28s |\n", device.getDeviceName(), device.getDeviceID(), device.getLocation(), average, df.format(summary.getChangeInRainfall()) + " mm");
+    }
+
+    /**
+     * Tests that the table rows match formatting them with String.format and DecimalFormat
+     */
+    @Test
+    public void testTableRows() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            Device device = new Device(random.nextInt(), "Gauge " + random.nextInt(1000) + (i % 50 == 0 ? " with a very long name" : ""), i % 7 == 0 ? "" : "Location " + i);
+            int count = random.nextInt(100);
+            int max = count == 0 ? 0 : random.nextInt(60);
+            WindowSummary summary = new WindowSummary(count, count == 0 ? 0 : (long) random.nextInt(max + 1) * count + random.nextInt(count), max, random.nextInt(40), random.nextInt(40), max > 30);
+            StringWriter out = new StringWriter();
+            new TableReportRenderer(out, new String[] { "4 hrs" }, new int[] { 30 }).writeRow(device, new WindowSummary[] { summary });
+            assertEquals(formatTableRow(device, summary), out.toString());
+        }
+    }
+
+    /**
+     * Tests the CSV report
+     */
+    @Test
+    public void testCsv() throws Exception {
+        StringWriter out = new StringWriter();
+        ReportRenderer renderer = new CsvReportRenderer(out, new String[] { "4 hrs" }, new int[] { 30 });
+        renderer.writeHeader();
+        renderer.writeRow(new Device(1, "Gauge 1", "Satara"), new WindowSummary[] { new WindowSummary(3, 25, 20, 0, 20, false) });
+        renderer.writeRow(new Device(2, "Gauge \"2\"", "Skukuza, South"), new WindowSummary[] { new WindowSummary(0, 0, 0, 0, 0, false) });
+        renderer.writeFooter();
+        assertEquals("Device ID,Device Name,Location,Observations,Average Rainfall (mm),Change in Rainfall (mm),Threshold Exceeded\n"
+                + "1,Gauge 1,Satara,3,8.33,20,false\n"
+                + "2,\"Gauge \"\"2\"\"\",\"Skukuza, South\",0,0,0,false\n", out.toString());
+    }
+
+    /**
+     * Tests the CSV report with several lookback windows and thresholds
+     */
+    @Test
+    public void testCsvMultipleWindows() throws Exception {
+        StringWriter out = new StringWriter();
+        ReportRenderer renderer = new CsvReportRenderer(out, new String[] { "1 hr", "4 hrs" }, new int[] { 10, 30 });
+        renderer.writeHeader();
+        renderer.writeRow(new Device(1, "Gauge 1", "Satara"), new WindowSummary[] { new WindowSummary(1, 20, 20, 20, 20, false), new WindowSummary(3, 25, 20, 0, 20, false) });
+        assertEquals("Device ID,Device Name,Location,"
+                + "Observations 1 hr,Average Rainfall 1 hr (mm),Change in Rainfall 1 hr (mm),Threshold Exceeded 1 hr (10 mm),Threshold Exceeded 1 hr (30 mm),"
+                + "Observations 4 hrs,Average Rainfall 4 hrs (mm),Change in Rainfall 4 hrs (mm),Threshold Exceeded 4 hrs (10 mm),Threshold Exceeded 4 hrs (30 mm)\n"
+                + "1,Gauge 1,Satara,1,20,0,true,false,3,8.33,20,true,false\n", out.toString());
+    }
+
+    /**
+     * Tests the JSON lines report
+     */
+    @Test
+    public void testJsonLines() throws Exception {
+        StringWriter out = new StringWriter();
+        ReportRenderer renderer = new JsonLinesReportRenderer(out, new long[] { TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(4) }, new int[] { 30, 35 });
+        renderer.writeHeader();
+        renderer.writeRow(new Device(1, "Gauge \"1\"", "Satara"), new WindowSummary[] { new WindowSummary(0, 0, 0, 0, 0, false), new WindowSummary(2, 71, 40, 31, 40, true) });
+        renderer.writeFooter();
+        assertEquals("{\"deviceID\":1,\"deviceName\":\"Gauge \\\"1\\\"\",\"location\":\"Satara\",\"windows\":["
+                + "{\"windowMinutes\":60,\"observations\":0,\"averageRainfall\":0,\"changeInRainfall\":0,\"thresholdsExceeded\":[]},"
+                + "{\"windowMinutes\":240,\"observations\":2,\"averageRainfall\":35.5,\"changeInRainfall\":9,\"thresholdsExceeded\":[30,35]}]}\n", out.toString());
+    }
+}
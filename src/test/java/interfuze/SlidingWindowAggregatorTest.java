@@ -0,0 +1,77 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the SlidingWindowAggregator class
+ * 
+ * @see SlidingWindowAggregator
+ */
+public class SlidingWindowAggregatorTest {
+
+    /**
+     * Tests the SlidingWindowAggregator class
+     */
+    @Test
+    public void testSlidingWindowAggregator() {
+        SlidingWindowAggregator aggregator = new SlidingWindowAggregator();
+
+        // Empty window
+        assertEquals(0, aggregator.getCount());
+        assertEquals(0, aggregator.getAverageRainfall(), 0.0);
+        assertFalse(aggregator.isExceedingThreshold(0));
+
+        // Add observations
+        assertTrue(aggregator.add(1000, 10));
+        assertTrue(aggregator.add(2000, 40));
+        assertTrue(aggregator.add(3000, 20));
+        assertTrue(aggregator.add(4000, 5));
+        assertFalse(aggregator.add(3500, 100));
+        assertEquals(new WindowSummary(4, 75, 40, 10, 5, true), aggregator.getSummary(30));
+
+        // Move the window past the maximum
+        assertTrue(aggregator.advanceTo(2000));
+        assertEquals(new WindowSummary(2, 25, 20, 20, 5, false), aggregator.getSummary(30));
+        assertFalse(aggregator.advanceTo(1000));
+
+        // Observations before the window are ignored
+        aggregator.reset(5000);
+        assertTrue(aggregator.add(4000, 50));
+        assertTrue(aggregator.add(6000, 1));
+        assertEquals(new WindowSummary(1, 1, 1, 1, 1, false), aggregator.getSummary(30));
+    }
+
+    /**
+     * Tests that a device using the window aggregator gives the same results as scanning the observations
+     */
+    @Test
+    public void testMatchesDeviceScan() {
+        Random random = new Random(7);
+        Device scanned = new Device(1, "Device1", "Location1");
+        Device aggregated = new Device(1, "Device1", "Location1");
+        aggregated.enableWindowAggregator();
+
+        long time = 0;
+        long window = 40;
+        for (int i = 0; i < 5000; i++) {
+            // Mostly in order observations, with the occasional late one
+            long observationTime = random.nextInt(20) == 0 ? time - random.nextInt(60) : (time += random.nextInt(5));
+            int rainfall = random.nextInt(50);
+            scanned.addObservation(observationTime, rainfall);
+            aggregated.addObservation(observationTime, rainfall);
+
+            // Query the window (occasionally moving the lookback backwards)
+            long since = random.nextInt(50) == 0 ? time - window * 2 : time - window;
+            assertEquals(scanned.getWindowSummarySince(since, 30), aggregated.getWindowSummarySince(since, 30));
+            assertEquals(scanned.getAverageRainfallSince(since), aggregated.getAverageRainfallSince(since), 1e-9);
+            assertEquals(scanned.getChangeInRainfallSince(since), aggregated.getChangeInRainfallSince(since), 0.0);
+            assertEquals(scanned.isObservationsExceedingThresholdSince(45, since), aggregated.isObservationsExceedingThresholdSince(45, since));
+        }
+    }
+}
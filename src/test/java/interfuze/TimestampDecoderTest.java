@@ -0,0 +1,101 @@
+package interfuze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Tests for the TimestampDecoder class
+ * 
+ * @see TimestampDecoder
+ */
+public class TimestampDecoderTest {
+
+    /**
+     * Time zones to test (including zones with daylight saving and non-hour offsets)
+     */
+    private static final String[] TIME_ZONES = { "UTC", "Australia/Sydney", "Australia/Lord_Howe", "America/New_York", "Europe/London", "Asia/Kathmandu", "America/Sao_Paulo" };
+
+    /**
+     * Generates observation times to test
+     *
+     * @return The observation times
+     */
+    private static List<String> generateTimes() {
+        List<String> times = new ArrayList<>();
+        Random random = new Random(42);
+
+        // Random well formed times
+        for (int i = 0; i < 5000; i++) {
+            times.add((1 + random.nextInt(31)) + "/" + String.format("%02d", 1 + random.nextInt(12)) + "/" + (1900 + random.nextInt(200)) + " " + (1 + random.nextInt(12)) + ":" + String.format("%02d", random.nextInt(60)));
+        }
+
+        // Every half hour around daylight saving transitions
+        int[][] days = { { 5, 4, 2020 }, { 4, 10, 2020 }, { 8, 3, 2020 }, { 1, 11, 2020 }, { 29, 3, 2020 }, { 25, 10, 2020 }, { 3, 11, 2018 } };
+        for (int[] day : days) {
+            for (int offset = -1; offset <= 1; offset++) {
+                for (int hour = 0; hour < 24; hour++) {
+                    for (int minute = 0; minute < 60; minute += 30) {
+                        times.add((day[0] + offset) + "/" + String.format("%02d", day[1]) + "/" + day[2] + " " + hour + ":" + String.format("%02d", minute));
+                    }
+                }
+            }
+        }
+
+        // Lenient and malformed times
+        String[] others = { "5/06/2020 9:00", "5/06/2020 12:00", "5/06/2020 0:00", "5/06/2020 13:30", "5/06/2020 24:00", "5/06/2020 9:60",
+            "31/06/2020 9:00", "0/06/2020 9:00", "5/13/2020 9:00", "5/6/2020 9:5", "05/06/2020 09:00", "5/06/20 9:00", "5/06/02020 9:00",
+            "5/06/2020 9:00 PM", " 5/06/2020 9:00", "5/06/2020  9:00", "5-06-2020 9:00", "5/06/2020", "", "abc", "5/06/2020 9:", "/06/2020 9:00",
+            "29/02/2019 9:00", "1/01/1582 9:00", "15/10/1582 9:00", "1/01/0001 0:00", "999/999/9999 99:99" };
+        for (String other : others) {
+            times.add(other);
+        }
+        return times;
+    }
+
+    /**
+     * Tests that the decoder gives the same results as SimpleDateFormat
+     */
+    @Test
+    public void testMatchesSimpleDateFormat() {
+        List<String> times = generateTimes();
+        for (String zone : TIME_ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            TimestampDecoder decoder = new TimestampDecoder(timeZone);
+            SimpleDateFormat dateFormat = new SimpleDateFormat(TimestampDecoder.PATTERN);
+            dateFormat.setTimeZone(timeZone);
+
+            // Decode every time twice so that cached days are checked as well
+            for (int pass = 0; pass < 2; pass++) {
+                for (String time : times) {
+                    // Parse with SimpleDateFormat
+                    Long expected;
+                    try {
+                        expected = dateFormat.parse(time).getTime();
+                    } catch (ParseException e) {
+                        expected = null;
+                    }
+
+                    // Decode from a String and from bytes
+                    byte[] bytes = time.getBytes(StandardCharsets.US_ASCII);
+                    try {
+                        assertEquals(zone + " " + time, expected, Long.valueOf(decoder.decode(time)));
+                        assertEquals(zone + " " + time, expected, Long.valueOf(decoder.decode(ByteBuffer.wrap(bytes), 0, bytes.length)));
+                    } catch (ParseException e) {
+                        if (expected != null) { fail(zone + " " + time + " should parse"); }
+                    }
+                }
+            }
+        }
+    }
+}